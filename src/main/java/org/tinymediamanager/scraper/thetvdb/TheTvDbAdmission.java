@@ -0,0 +1,113 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+/**
+ * The class TheTvDbAdmission is the admission control of the provider: before a scrape starts, its wait for the rate limit is estimated from the
+ * current backlog and rate. If the estimate exceeds the latency budget of the caller, the scrape is rejected with a
+ * {@link TheTvDbDeadlineException} or degraded to an answer from the caches - instead of queueing for an unknown time
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbAdmission {
+  private static final ThreadLocal<Long> BUDGET   = new ThreadLocal<>();
+  private static final AtomicLong        ADMITTED = new AtomicLong();
+  private static final AtomicLong        DEGRADED = new AtomicLong();
+  private static final AtomicLong        REJECTED = new AtomicLong();
+
+  private TheTvDbAdmission() {
+  }
+
+  /**
+   * set the latency budget of all following scrapes of the current thread
+   *
+   * @param millis
+   *          the max. time (ms) a scrape may wait for the rate limit; 0 for the budget of the provider settings
+   */
+  public static void setBudget(long millis) {
+    if (millis > 0) {
+      BUDGET.set(millis);
+    }
+    else {
+      BUDGET.remove();
+    }
+  }
+
+  /**
+   * get the latency budget of the current thread
+   *
+   * @param defaultBudget
+   *          the budget of the provider settings
+   * @return the budget (ms) or 0 if there is none
+   */
+  static long getBudget(long defaultBudget) {
+    Long budget = BUDGET.get();
+    return budget == null ? Math.max(0, defaultBudget) : budget;
+  }
+
+  /**
+   * decide whether a scrape may call the api
+   *
+   * @param operation
+   *          the name of the scrape (for the exception)
+   * @param budget
+   *          the latency budget (ms) of the caller; 0 to admit every scrape
+   * @param degrade
+   *          answer scrapes over the budget from the caches instead of rejecting them
+   * @return true if the scrape may call the api; false if it has to be answered from the caches
+   * @throws TheTvDbDeadlineException
+   *           if the scrape has been rejected
+   */
+  static boolean admit(String operation, long budget, boolean degrade) throws TheTvDbDeadlineException {
+    if (budget <= 0) {
+      return true;
+    }
+    Priority priority = TheTvDbConnectionCounter.getPriority();
+    long estimatedWait = TheTvDbConnectionCounter.estimateWait(priority);
+    TheTvDbTrace.Span span = TheTvDbTrace.current();
+    if (span != null) {
+      span.attribute("estimated wait", estimatedWait);
+    }
+
+    if (estimatedWait <= budget) {
+      ADMITTED.incrementAndGet();
+      return true;
+    }
+    if (degrade) {
+      DEGRADED.incrementAndGet();
+      return false;
+    }
+    REJECTED.incrementAndGet();
+    throw new TheTvDbDeadlineException(operation, estimatedWait, budget);
+  }
+
+  /**
+   * a short statistic of the decisions (for logging)
+   */
+  static String getStatistics() {
+    return "admission: " + ADMITTED.get() + " admitted, " + DEGRADED.get() + " degraded to the caches, " + REJECTED.get() + " rejected";
+  }
+
+  static void reset() {
+    ADMITTED.set(0);
+    DEGRADED.set(0);
+    REJECTED.set(0);
+  }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The class TheTvDbArtworkCache is a local, content addressed cache for the artwork binaries. Images are stored by the SHA-1 of their content (so
+ * the same image behind different urls is stored only once); an index maps the urls to the stored content. The cache is limited in size - the
+ * least recently used images are evicted first. The size and the last access of every image are kept in the index, so that the cache folder is
+ * listed only once at startup (to remove the leftovers of interrupted downloads). The index is saved a few seconds after a change (once for a
+ * burst of downloads). Cached images are revalidated with a HEAD request (ETag/Last-Modified/Content-Length) after some time instead of being
+ * downloaded again
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbArtworkCache {
+  private static final Logger            LOGGER           = LoggerFactory.getLogger(TheTvDbArtworkCache.class);
+  private static final String            INDEX_FILE       = "index.properties";
+  private static final long              REVALIDATE_AFTER = TimeUnit.DAYS.toMillis(7);
+  private static final long              SAVE_DELAY       = TimeUnit.SECONDS.toMillis(5);
+
+  private final Path                     cacheDir;
+  private final long                     maxSize;
+  private final OkHttpClient             client;
+  private final ExecutorService          executor;
+  private final ScheduledExecutorService indexWriter;
+  private final Map<String, CacheEntry>  index            = new ConcurrentHashMap<>();
+  private final Set<String>              inFlight         = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+  // the size of all stored images in bytes; guarded by this
+  private long                           size             = 0;
+  // the index has been changed since it has been saved; guarded by this
+  private boolean                        dirty            = false;
+
+  /**
+   * create a new artwork cache
+   *
+   * @param cacheDir
+   *          the folder to store the images in
+   * @param maxSize
+   *          the maximum size of all stored images in bytes
+   * @param parallelDownloads
+   *          the maximum number of parallel downloads
+   * @param client
+   *          the http client for the downloads
+   */
+  public TheTvDbArtworkCache(Path cacheDir, long maxSize, int parallelDownloads, OkHttpClient client) {
+    this.cacheDir = cacheDir;
+    this.maxSize = maxSize;
+    this.client = client;
+    this.executor = Executors.newFixedThreadPool(parallelDownloads, new TheTvDbThreadFactory("tvdb-artwork"));
+    this.indexWriter = Executors.newSingleThreadScheduledExecutor(new TheTvDbThreadFactory("tvdb-artwork-index"));
+    loadIndex();
+    cleanUp();
+    saveIndex();
+  }
+
+  /**
+   * download the given images in the background (if they are not cached yet)
+   *
+   * @param urls
+   *          the urls of the images
+   */
+  public void prefetch(Collection<String> urls) {
+    for (final String url : urls) {
+      if (StringUtils.isBlank(url) || getCachedFile(url) != null || !inFlight.add(url)) {
+        continue;
+      }
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            download(url);
+          }
+          catch (Exception e) {
+            LOGGER.debug("could not prefetch " + url + ": " + e.getMessage());
+          }
+          finally {
+            inFlight.remove(url);
+          }
+        }
+      });
+    }
+  }
+
+  /**
+   * get the cached file for the given url without any network access
+   *
+   * @param url
+   *          the url of the image
+   * @return the file or null if the image is not cached
+   */
+  public Path getCachedFile(String url) {
+    CacheEntry entry = index.get(url);
+    if (entry == null) {
+      return null;
+    }
+    Path file = contentFile(entry.hash);
+    if (!Files.exists(file)) {
+      remove(url, entry);
+      return null;
+    }
+    entry.accessed = System.currentTimeMillis();
+    return file;
+  }
+
+  /**
+   * get the image for the given url; from the cache if it is (still) valid, otherwise from the network
+   *
+   * @param url
+   *          the url of the image
+   * @return the file containing the image
+   * @throws IOException
+   *           any exception while downloading the image
+   */
+  public Path get(String url) throws IOException {
+    Path file = getCachedFile(url);
+    if (file != null) {
+      CacheEntry entry = index.get(url);
+      if (entry == null || System.currentTimeMillis() - entry.validated < REVALIDATE_AFTER || isUnchanged(url, entry)) {
+        return file;
+      }
+    }
+    return download(url);
+  }
+
+  /**
+   * the size of all stored images in bytes
+   */
+  public synchronized long getSize() {
+    return size;
+  }
+
+  /**
+   * stop the downloads and save the pending changes of the index
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+    indexWriter.shutdownNow();
+    saveIndex();
+  }
+
+  private Path download(String url) throws IOException {
+    Response response = client.newCall(new Request.Builder().url(url).build()).execute();
+    try {
+      if (!response.isSuccessful()) {
+        throw new IOException("HTTP " + response.code() + " for " + url);
+      }
+
+      // store it into a temp file and hash it at the same time
+      Files.createDirectories(cacheDir);
+      Path tempFile = Files.createTempFile(cacheDir, "download", ".tmp");
+      CacheEntry entry = new CacheEntry();
+      try {
+        MessageDigest digest = MessageDigest.getInstance("SHA-1");
+        try (InputStream is = new DigestInputStream(response.body().byteStream(), digest); OutputStream os = Files.newOutputStream(tempFile)) {
+          byte[] buffer = new byte[8192];
+          int read;
+          while ((read = is.read(buffer)) != -1) {
+            os.write(buffer, 0, read);
+            entry.size += read;
+          }
+        }
+        entry.hash = toHex(digest.digest());
+        entry.etag = StringUtils.defaultString(response.header("ETag"));
+        entry.lastModified = StringUtils.defaultString(response.header("Last-Modified"));
+        entry.length = StringUtils.defaultString(response.header("Content-Length"));
+        entry.validated = System.currentTimeMillis();
+        entry.accessed = entry.validated;
+        store(url, entry, tempFile);
+      }
+      catch (NoSuchAlgorithmException e) {
+        throw new IOException(e);
+      }
+      finally {
+        Files.deleteIfExists(tempFile);
+      }
+
+      return contentFile(entry.hash);
+    }
+    finally {
+      response.body().close();
+    }
+  }
+
+  /**
+   * check with a HEAD request whether the image behind the url is still the same
+   */
+  private boolean isUnchanged(String url, CacheEntry entry) {
+    Response response = null;
+    try {
+      response = client.newCall(new Request.Builder().url(url).head().build()).execute();
+      if (!response.isSuccessful()) {
+        return false;
+      }
+      boolean unchanged;
+      if (StringUtils.isNotBlank(entry.etag)) {
+        unchanged = entry.etag.equals(response.header("ETag"));
+      }
+      else if (StringUtils.isNotBlank(entry.lastModified)) {
+        unchanged = entry.lastModified.equals(response.header("Last-Modified"));
+      }
+      else {
+        unchanged = StringUtils.isNotBlank(entry.length) && entry.length.equals(response.header("Content-Length"));
+      }
+      if (unchanged) {
+        entry.validated = System.currentTimeMillis();
+        indexChanged();
+      }
+      return unchanged;
+    }
+    catch (Exception e) {
+      // cannot check it - keep the cached image
+      LOGGER.debug("could not revalidate " + url + ": " + e.getMessage());
+      return true;
+    }
+    finally {
+      if (response != null && response.body() != null) {
+        response.body().close();
+      }
+    }
+  }
+
+  /**
+   * move the downloaded image into the cache (if the same content is not stored yet) and index it under its url
+   */
+  private synchronized void store(String url, CacheEntry entry, Path tempFile) throws IOException {
+    Path file = contentFile(entry.hash);
+    if (!Files.exists(file)) {
+      Files.createDirectories(file.getParent());
+      Files.move(tempFile, file);
+      size += entry.size;
+    }
+    CacheEntry replaced = index.put(url, entry);
+    if (replaced != null && !replaced.hash.equals(entry.hash)) {
+      deleteIfUnused(replaced);
+    }
+    evict();
+    indexChanged();
+  }
+
+  /**
+   * remove the url from the index (and the image if no other url points to it)
+   */
+  private synchronized void remove(String url, CacheEntry entry) {
+    if (index.remove(url, entry)) {
+      deleteIfUnused(entry);
+      indexChanged();
+    }
+  }
+
+  private void deleteIfUnused(CacheEntry entry) {
+    for (CacheEntry other : index.values()) {
+      if (entry.hash.equals(other.hash)) {
+        return;
+      }
+    }
+    try {
+      Files.deleteIfExists(contentFile(entry.hash));
+    }
+    catch (IOException e) {
+      LOGGER.debug("could not delete " + entry.hash + ": " + e.getMessage());
+    }
+    size -= entry.size;
+  }
+
+  /**
+   * remove the least recently used images until the cache fits into its size limit
+   */
+  private synchronized void evict() {
+    if (size <= maxSize) {
+      return;
+    }
+
+    // every image with the last access over all its urls
+    Map<String, CacheEntry> images = new HashMap<>();
+    for (CacheEntry entry : index.values()) {
+      CacheEntry image = images.get(entry.hash);
+      if (image == null || image.accessed < entry.accessed) {
+        images.put(entry.hash, entry);
+      }
+    }
+    List<CacheEntry> lru = new ArrayList<>(images.values());
+    Collections.sort(lru, new Comparator<CacheEntry>() {
+      @Override
+      public int compare(CacheEntry o1, CacheEntry o2) {
+        return Long.compare(o1.accessed, o2.accessed);
+      }
+    });
+
+    for (CacheEntry image : lru) {
+      if (size <= maxSize) {
+        break;
+      }
+      try {
+        Files.deleteIfExists(contentFile(image.hash));
+        size -= image.size;
+
+        // and remove all urls pointing to that content
+        Iterator<Map.Entry<String, CacheEntry>> it = index.entrySet().iterator();
+        while (it.hasNext()) {
+          if (image.hash.equals(it.next().getValue().hash)) {
+            it.remove();
+          }
+        }
+      }
+      catch (IOException e) {
+        LOGGER.debug("could not evict " + image.hash + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * once at startup: delete the images which are not indexed (and the temp files of interrupted downloads), drop the urls of missing images
+   * and sum up the size of the stored ones
+   */
+  private synchronized void cleanUp() {
+    Set<String> indexed = new HashSet<>();
+    for (CacheEntry entry : index.values()) {
+      indexed.add(entry.hash);
+    }
+
+    Set<String> stored = new HashSet<>();
+    for (Path file : listFiles()) {
+      String hash = file.getFileName().toString();
+      if (indexed.contains(hash)) {
+        stored.add(hash);
+        continue;
+      }
+      try {
+        Files.deleteIfExists(file);
+      }
+      catch (IOException e) {
+        LOGGER.debug("could not delete " + file + ": " + e.getMessage());
+      }
+    }
+
+    size = 0;
+    Set<String> counted = new HashSet<>();
+    for (Iterator<CacheEntry> it = index.values().iterator(); it.hasNext();) {
+      CacheEntry entry = it.next();
+      if (!stored.contains(entry.hash)) {
+        it.remove();
+        continue;
+      }
+      if (counted.add(entry.hash)) {
+        size += entry.size;
+      }
+    }
+    evict();
+    if (!index.isEmpty() || !stored.isEmpty()) {
+      dirty = true;
+    }
+  }
+
+  private Path contentFile(String hash) {
+    return cacheDir.resolve(hash.substring(0, 2)).resolve(hash);
+  }
+
+  /**
+   * the stored images and the temp files of the downloads
+   */
+  private List<Path> listFiles() {
+    List<Path> files = new ArrayList<>();
+    if (!Files.isDirectory(cacheDir)) {
+      return files;
+    }
+    try (DirectoryStream<Path> dirs = Files.newDirectoryStream(cacheDir)) {
+      for (Path dir : dirs) {
+        if (!Files.isDirectory(dir)) {
+          if (dir.getFileName().toString().endsWith(".tmp")) {
+            files.add(dir);
+          }
+          continue;
+        }
+        try (DirectoryStream<Path> content = Files.newDirectoryStream(dir)) {
+          for (Path file : content) {
+            files.add(file);
+          }
+        }
+      }
+    }
+    catch (IOException e) {
+      LOGGER.debug("could not list artwork cache: " + e.getMessage());
+    }
+    return files;
+  }
+
+  private synchronized void loadIndex() {
+    Path indexFile = cacheDir.resolve(INDEX_FILE);
+    if (!Files.exists(indexFile)) {
+      return;
+    }
+    Properties properties = new Properties();
+    try (InputStream is = Files.newInputStream(indexFile)) {
+      properties.load(is);
+      for (String url : properties.stringPropertyNames()) {
+        CacheEntry entry = CacheEntry.parse(properties.getProperty(url));
+        if (entry != null) {
+          index.put(url, entry);
+        }
+      }
+    }
+    catch (IOException e) {
+      LOGGER.warn("could not load artwork cache index: " + e.getMessage());
+    }
+  }
+
+  /**
+   * the index has been changed: it is saved after a short delay, so that a burst of downloads or revalidations writes it only once
+   */
+  private synchronized void indexChanged() {
+    if (dirty) {
+      // already scheduled
+      return;
+    }
+    dirty = true;
+    try {
+      indexWriter.schedule(new Runnable() {
+        @Override
+        public void run() {
+          saveIndex();
+        }
+      }, SAVE_DELAY, TimeUnit.MILLISECONDS);
+    }
+    catch (RejectedExecutionException e) {
+      // shut down: saved at once
+      saveIndex();
+    }
+  }
+
+  /**
+   * save the index if it has been changed; it is written into a temp file and moved into place, so that a crash while writing does not leave a
+   * truncated index
+   */
+  private synchronized void saveIndex() {
+    if (!dirty) {
+      return;
+    }
+    dirty = false;
+
+    Properties properties = new Properties();
+    for (Map.Entry<String, CacheEntry> entry : index.entrySet()) {
+      properties.setProperty(entry.getKey(), entry.getValue().toString());
+    }
+    try {
+      Files.createDirectories(cacheDir);
+      // the temp file ends with .tmp: removed by the clean up at the next start if it is left over
+      Path tempFile = cacheDir.resolve(INDEX_FILE + ".tmp");
+      try (OutputStream os = Files.newOutputStream(tempFile)) {
+        properties.store(os, "thetvdb.com artwork cache");
+      }
+      try {
+        Files.move(tempFile, cacheDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tempFile, cacheDir.resolve(INDEX_FILE), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    catch (IOException e) {
+      LOGGER.warn("could not save artwork cache index: " + e.getMessage());
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    StringBuilder sb = new StringBuilder();
+    for (byte b : bytes) {
+      sb.append(String.format("%02x", b));
+    }
+    return sb.toString();
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class CacheEntry {
+    private String        hash;
+    private String        etag;
+    private String        lastModified;
+    private String        length;
+    private volatile long validated;
+    private long          size;
+    private volatile long accessed;
+
+    private static CacheEntry parse(String value) {
+      String[] parts = value.split("\t", -1);
+      if (parts.length != 7) {
+        return null;
+      }
+      CacheEntry entry = new CacheEntry();
+      entry.hash = parts[0];
+      entry.etag = parts[1];
+      entry.lastModified = parts[2];
+      entry.length = parts[3];
+      entry.validated = parseLong(parts[4], 0);
+      entry.size = parseLong(parts[5], 0);
+      entry.accessed = parseLong(parts[6], 0);
+      return entry;
+    }
+
+    private static long parseLong(String value, long defaultValue) {
+      try {
+        return Long.parseLong(value);
+      }
+      catch (NumberFormatException e) {
+        return defaultValue;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return hash + "\t" + etag + "\t" + lastModified + "\t" + length + "\t" + validated + "\t" + size + "\t" + accessed;
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class TheTvDbCache is a small thread safe in memory cache with a time to live for its entries. Every cache counts its hits and misses to
+ * be able to report the hit rate
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbCache<K, V> {
+  private final String                          name;
+  private final long                            ttl;
+  private final int                             maxSize;
+  private final ConcurrentMap<K, CacheEntry<V>> entries = new ConcurrentHashMap<>();
+  private final AtomicLong                      hits    = new AtomicLong();
+  private final AtomicLong                      misses  = new AtomicLong();
+
+  /**
+   * create a new cache
+   *
+   * @param name
+   *          the name of the cache (for the statistics)
+   * @param ttl
+   *          the time to live of an entry in milliseconds
+   * @param maxSize
+   *          the max count of entries
+   */
+  TheTvDbCache(String name, long ttl, int maxSize) {
+    this.name = name;
+    this.ttl = ttl;
+    this.maxSize = maxSize;
+  }
+
+  /**
+   * get the cached value. Expired entries are kept until the cache is full; they are only served to scrapes which must not call the api (see
+   * {@link TheTvDbStaleness})
+   *
+   * @param key
+   *          the key
+   * @return the value or null if there is no (valid) entry
+   */
+  V get(K key) {
+    CacheEntry<V> entry = entries.get(key);
+    long now = System.currentTimeMillis();
+    if (entry != null && (entry.expires > now || TheTvDbStaleness.isCacheOnly())) {
+      hits.incrementAndGet();
+      TheTvDbStaleness.record(now - (entry.expires - ttl), entry.expires <= now);
+      return entry.value;
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * put a value into the cache (null values are not cached)
+   */
+  void put(K key, V value) {
+    put(key, value, System.currentTimeMillis());
+  }
+
+  /**
+   * put a value into the cache which is known to be current at the given time (e.g. imported data); it expires that much earlier
+   */
+  void put(K key, V value, long fetched) {
+    if (key == null || value == null) {
+      return;
+    }
+    if (entries.size() >= maxSize) {
+      purge();
+    }
+    long verified = Math.min(fetched, System.currentTimeMillis());
+    entries.put(key, new CacheEntry<>(value, verified, verified + ttl));
+  }
+
+  void invalidate(K key) {
+    entries.remove(key);
+  }
+
+  /**
+   * get the cached value even if it is expired (not counted as hit or miss)
+   */
+  V peek(K key) {
+    CacheEntry<V> entry = entries.get(key);
+    return entry == null ? null : entry.value;
+  }
+
+  /**
+   * verify the entry against the time of the last change of its source: if it has been fetched (or verified) after the change, it gets the full
+   * time to live again (even if it is expired); otherwise it is removed
+   *
+   * @param key
+   *          the key
+   * @param changed
+   *          the time (ms) of the last change of the source
+   * @return 1 if an expired entry has been renewed, 0 otherwise
+   */
+  int verify(K key, long changed) {
+    CacheEntry<V> entry = entries.get(key);
+    if (entry == null) {
+      return 0;
+    }
+    if (entry.verified < changed) {
+      entries.remove(key, entry);
+      return 0;
+    }
+    long now = System.currentTimeMillis();
+    return entries.replace(key, entry, new CacheEntry<>(entry.value, now, now + ttl)) && entry.expires <= now ? 1 : 0;
+  }
+
+  /**
+   * verify all entries with keys starting with the given prefix (see {@link #verify(Object, long)})
+   *
+   * @return the count of expired entries which have been renewed
+   */
+  int verifyAll(String prefix, long changed) {
+    int renewed = 0;
+    for (K key : entries.keySet()) {
+      if (String.valueOf(key).startsWith(prefix)) {
+        renewed += verify(key, changed);
+      }
+    }
+    return renewed;
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  long getHits() {
+    return hits.get();
+  }
+
+  long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * the hit rate of this cache (0 - 1)
+   */
+  double getHitRate() {
+    long requests = hits.get() + misses.get();
+    return requests == 0 ? 0 : (double) hits.get() / requests;
+  }
+
+  /**
+   * a short statistic of the cache usage (for logging)
+   */
+  String getStatistics() {
+    return name + " cache: " + entries.size() + " entries, " + hits.get() + " hits, " + misses.get() + " misses, hit rate "
+        + Math.round(getHitRate() * 100) + "%";
+  }
+
+  void clear() {
+    entries.clear();
+    hits.set(0);
+    misses.set(0);
+  }
+
+  /**
+   * remove all expired entries; if the cache is still full, the entries expiring first are removed
+   */
+  private void purge() {
+    long now = System.currentTimeMillis();
+    long oldest = Long.MAX_VALUE;
+    for (Iterator<Map.Entry<K, CacheEntry<V>>> it = entries.entrySet().iterator(); it.hasNext();) {
+      CacheEntry<V> entry = it.next().getValue();
+      if (entry.expires <= now) {
+        it.remove();
+      }
+      else {
+        oldest = Math.min(oldest, entry.expires);
+      }
+    }
+
+    // still full: remove everything which expires within the first tenth of the ttl window
+    if (entries.size() >= maxSize) {
+      long limit = oldest + Math.max(1, ttl / 10);
+      for (Iterator<Map.Entry<K, CacheEntry<V>>> it = entries.entrySet().iterator(); it.hasNext();) {
+        if (it.next().getValue().expires <= limit) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class CacheEntry<V> {
+    private final V    value;
+    // the time the value has been fetched or verified
+    private final long verified;
+    private final long expires;
+
+    private CacheEntry(V value, long verified, long expires) {
+      this.value = value;
+      this.verified = verified;
+      this.expires = expires;
+    }
+  }
+}
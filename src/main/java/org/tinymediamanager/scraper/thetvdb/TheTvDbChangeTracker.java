@@ -0,0 +1,203 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class TheTvDbChangeTracker keeps the lastUpdated stamps of the series for the differential rescrape: a rescrape fetches the series record
+ * first (the cheap marker) and compares its stamp with the one of the last scrape; only the data of changed series or episodes is fetched again.
+ * The checks of a series are done at most once per check interval, so that the entry points of one rescrape share the check
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbChangeTracker {
+  static final long                            CHECK_INTERVAL = TimeUnit.MINUTES.toMillis(10);
+  // the lastUpdated stamps of the API may be ahead of our clock
+  static final long                            CLOCK_MARGIN   = TimeUnit.MINUTES.toMillis(1);
+
+  private final long                           interval;
+  private final ConcurrentMap<Integer, Long>   stamps         = new ConcurrentHashMap<>();
+  // the time the checks of the stamps have been started
+  private final ConcurrentMap<Integer, Long>   stampTimes     = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, Change> changes        = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, Long>   checks         = new ConcurrentHashMap<>();
+  private final AtomicLong                     seriesChecked  = new AtomicLong();
+  private final AtomicLong                     seriesChanged  = new AtomicLong();
+  private final AtomicLong                     episodeChecked = new AtomicLong();
+  private final AtomicLong                     episodeChanged = new AtomicLong();
+  private final AtomicLong                     savedCalls     = new AtomicLong();
+
+  /**
+   * the result of a check
+   */
+  enum Change {
+    UNCHANGED,
+    CHANGED,
+    // there is no stamp to compare with
+    UNKNOWN
+  }
+
+  TheTvDbChangeTracker() {
+    this(CHECK_INTERVAL);
+  }
+
+  TheTvDbChangeTracker(long interval) {
+    this.interval = interval;
+  }
+
+  /**
+   * is a check of the series due? The check is claimed by the caller if so
+   *
+   * @return true if the series has not been checked within the check interval
+   */
+  boolean startCheck(int seriesId) {
+    long now = System.currentTimeMillis();
+    Long previous = checks.get(seriesId);
+    if (previous != null && now - previous < interval) {
+      return false;
+    }
+    return previous == null ? checks.putIfAbsent(seriesId, now) == null : checks.replace(seriesId, previous, now);
+  }
+
+  /**
+   * compare the current stamp of the series with the one of the last scrape
+   *
+   * @param seriesId
+   *          the series
+   * @param current
+   *          the current lastUpdated of the series (null if unknown)
+   * @param known
+   *          the lastUpdated the caller has scraped before (null if unknown); only used if there is no stamp of our own
+   * @return the result of the check
+   */
+  Change checkSeries(int seriesId, Long current, Long known) {
+    if (current == null) {
+      return Change.UNKNOWN;
+    }
+    Long previous = stamps.put(seriesId, current);
+    // the next check is due an interval after the start of this one - the stamp must not be taken as current then
+    Long started = checks.get(seriesId);
+    stampTimes.put(seriesId, started != null ? started : System.currentTimeMillis());
+    if (previous == null) {
+      previous = known;
+    }
+
+    Change change = Change.UNKNOWN;
+    if (previous != null) {
+      seriesChecked.incrementAndGet();
+      change = previous.equals(current) ? Change.UNCHANGED : Change.CHANGED;
+    }
+    if (change == Change.CHANGED) {
+      seriesChanged.incrementAndGet();
+    }
+    changes.put(seriesId, change);
+    return change;
+  }
+
+  /**
+   * the last known stamp of the series (null if it has not been checked)
+   */
+  Long getLastUpdated(int seriesId) {
+    return stamps.get(seriesId);
+  }
+
+  /**
+   * the stamp of the series if it has been checked within the check interval (null otherwise): the data of the series fetched after it is
+   * current
+   */
+  Long getCheckedLastUpdated(int seriesId) {
+    Long time = stampTimes.get(seriesId);
+    if (time == null || System.currentTimeMillis() - time >= interval) {
+      return null;
+    }
+    return stamps.get(seriesId);
+  }
+
+  /**
+   * the result of the last check of the series (null if it has not been checked)
+   */
+  Change getChange(int seriesId) {
+    return changes.get(seriesId);
+  }
+
+  /**
+   * compare the stamp of the episode in the listing with the one of the cached episode
+   *
+   * @return true if both are known and equal
+   */
+  boolean checkEpisode(Long listed, Long cached) {
+    if (listed == null || cached == null) {
+      return false;
+    }
+    episodeChecked.incrementAndGet();
+    if (listed.equals(cached)) {
+      return true;
+    }
+    episodeChanged.incrementAndGet();
+    return false;
+  }
+
+  /**
+   * count api calls which were saved by a check
+   */
+  void savedCalls(int calls) {
+    savedCalls.addAndGet(calls);
+  }
+
+  long getSeriesChecked() {
+    return seriesChecked.get();
+  }
+
+  long getSeriesChanged() {
+    return seriesChanged.get();
+  }
+
+  long getEpisodeChecked() {
+    return episodeChecked.get();
+  }
+
+  long getEpisodeChanged() {
+    return episodeChanged.get();
+  }
+
+  long getSavedCalls() {
+    return savedCalls.get();
+  }
+
+  /**
+   * a short statistic of the change detection (for logging)
+   */
+  String getStatistics() {
+    return "change detection: " + seriesChecked.get() + " series checked (" + seriesChanged.get() + " changed), " + episodeChecked.get()
+        + " episodes checked (" + episodeChanged.get() + " changed), " + savedCalls.get() + " api calls saved";
+  }
+
+  void clear() {
+    stamps.clear();
+    stampTimes.clear();
+    changes.clear();
+    checks.clear();
+    seriesChecked.set(0);
+    seriesChanged.set(0);
+    episodeChecked.set(0);
+    episodeChanged.set(0);
+    savedCalls.set(0);
+  }
+}
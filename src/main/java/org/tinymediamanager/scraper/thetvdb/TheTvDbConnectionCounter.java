@@ -15,35 +15,295 @@
  */
 package org.tinymediamanager.scraper.thetvdb;
 
+import java.util.EnumMap;
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.tinymediamanager.scraper.util.RingBuffer;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbRateLimitBackend.SlotPolicy;
 
 /**
- * The class TheTvDbConnectionCounter is a helper class to count the connection and throttle if needed
+ * The class TheTvDbConnectionCounter is a helper class to count the connection and throttle if needed. The connections are counted in two
+ * lanes: interactive requests (e.g. a search from the UI) always have a slice of the budget reserved, background requests (e.g. a bulk rescrape)
+ * use whatever is left. Neither lane can starve the other: background requests always get a minimum share of the budget as well.<br>
+ * The connections of the current time window are stored in a backend; by default in this JVM, but it can be replaced by a backend shared with
+ * other processes (see TheTvDbSharedRateLimit)
  *
  * @author Manuel Laggner
  */
 public class TheTvDbConnectionCounter {
-  private static final Logger           LOGGER             = LoggerFactory.getLogger(TheTvDbConnectionCounter.class);
-  private static final RingBuffer<Long> CONNECTION_COUNTER = new RingBuffer<>(29);
+  static final int                           MAX_CONNECTIONS      = 29;
+  static final long                          TIME_WINDOW          = 10000;
+  // the connections of a time window are kept a bit longer to be on the safe side
+  static final long                          SAFETY_MARGIN        = 1000;
+  static final int                           INTERACTIVE_RESERVED = 6;
+  static final int                           BACKGROUND_MINIMUM   = 4;
+
+  private static final Logger                LOGGER               = LoggerFactory.getLogger(TheTvDbConnectionCounter.class);
+  private static final Object                LOCK                 = new Object();
+  private static final Map<Priority, Lane>   LANES                = new EnumMap<>(Priority.class);
+  private static final ThreadLocal<Priority> PRIORITY             = new ThreadLocal<>();
+  private static final SlotPolicy            POLICY               = new LanePolicy();
+  // the requests per thread (e.g. to get the costs of a prefetch)
+  private static final ThreadLocal<long[]>   THREAD_REQUESTS      = new ThreadLocal<long[]>() {
+                                                                    @Override
+                                                                    protected long[] initialValue() {
+                                                                      return new long[1];
+                                                                    }
+                                                                  };
+
+  private static TheTvDbRateLimitBackend     backend              = new TheTvDbLocalRateLimit(TIME_WINDOW + SAFETY_MARGIN);
+
+  static {
+    for (Priority priority : Priority.values()) {
+      LANES.put(priority, new Lane());
+    }
+  }
+
+  /**
+   * the priority classes of the requests
+   */
+  public enum Priority {
+    /** requests somebody is waiting for (default) */
+    INTERACTIVE,
+    /** bulk work like a rescrape of the whole library */
+    BACKGROUND
+  }
+
+  /**
+   * replace the backend storing the connections (e.g. to share the rate limit with other processes)
+   */
+  public static void setBackend(TheTvDbRateLimitBackend rateLimitBackend) {
+    synchronized (LOCK) {
+      backend = rateLimitBackend;
+      LOCK.notifyAll();
+    }
+  }
+
+  /**
+   * set the priority of all following requests of the current thread
+   */
+  public static void setPriority(Priority priority) {
+    PRIORITY.set(priority);
+  }
+
+  /**
+   * get the priority of the requests of the current thread
+   */
+  public static Priority getPriority() {
+    Priority priority = PRIORITY.get();
+    return priority == null ? Priority.INTERACTIVE : priority;
+  }
 
+  /**
+   * count a new connection with the priority of the current thread and wait if the budget of the lane is used up
+   */
   public static void trackConnections() {
-    Long currentTime = System.currentTimeMillis();
-    if (CONNECTION_COUNTER.count() == CONNECTION_COUNTER.maxSize()) {
-      Long oldestConnection = CONNECTION_COUNTER.getTailItem();
-      if (oldestConnection > (currentTime - 10000)) {
-        LOGGER.debug("connection limit reached, throttling " + CONNECTION_COUNTER);
-        try {
-          Thread.sleep(11000 - (currentTime - oldestConnection));
+    trackConnections(getPriority());
+  }
+
+  /**
+   * count a new connection in the given lane and wait if the budget of the lane is used up
+   */
+  public static void trackConnections(Priority priority) {
+    Lane lane = LANES.get(priority);
+    THREAD_REQUESTS.get()[0]++;
+    long start = System.currentTimeMillis();
+    boolean throttled = false;
+    TheTvDbTrace.Span span = TheTvDbTrace.start("rate limit").attribute("lane", priority.name().toLowerCase());
+
+    synchronized (LOCK) {
+      lane.waiting++;
+      try {
+        while (true) {
+          long waitTime = backend.tryAcquire(priority, System.currentTimeMillis(), POLICY);
+          if (waitTime <= 0) {
+            break;
+          }
+          if (!throttled) {
+            LOGGER.debug("connection limit of the " + priority.name().toLowerCase() + " lane reached, throttling " + getStatistics());
+            throttled = true;
+          }
+          try {
+            LOCK.wait(waitTime);
+          }
+          catch (InterruptedException e) {
+            LOGGER.warn(e.getMessage());
+            Thread.currentThread().interrupt();
+            break;
+          }
+        }
+      }
+      finally {
+        lane.waiting--;
+        long waited = System.currentTimeMillis() - start;
+        lane.requests++;
+        if (throttled) {
+          lane.throttled++;
         }
-        catch (InterruptedException e) {
-          LOGGER.warn(e.getMessage());
+        lane.waitTime += waited;
+        lane.maxWaitTime = Math.max(lane.maxWaitTime, waited);
+        // another lane may be able to go on now
+        LOCK.notifyAll();
+        span.attribute("throttled", throttled).end();
+      }
+    }
+  }
+
+  /**
+   * the count of requests the current thread has made so far
+   */
+  static long getThreadRequests() {
+    return THREAD_REQUESTS.get()[0];
+  }
+
+  /**
+   * whether there is budget left for optional requests: nobody is waiting and the background lane can go on without touching the slice
+   * reserved for interactive requests
+   */
+  static boolean hasSpareBudget() {
+    synchronized (LOCK) {
+      for (Lane lane : LANES.values()) {
+        if (lane.waiting > 0) {
+          return false;
+        }
+      }
+      int total = 0;
+      for (int count : backend.getCounts(System.currentTimeMillis())) {
+        total += count;
+      }
+      return total < MAX_CONNECTIONS - INTERACTIVE_RESERVED;
+    }
+  }
+
+  /**
+   * estimate the time (ms) a new connection of the given lane has to wait for the rate limit: until the oldest connection leaves the time window
+   * plus the time the connections already waiting in front of it take at the rate of the lane
+   */
+  static long estimateWait(Priority priority) {
+    synchronized (LOCK) {
+      long now = System.currentTimeMillis();
+      Probe probe = new Probe();
+      backend.tryAcquire(priority, now, probe);
+      if (probe.counts == null) {
+        return 0;
+      }
+
+      int total = 0;
+      for (int count : probe.counts) {
+        total += count;
+      }
+      // background connections do not get the slice reserved for interactive ones and wait behind the interactive connections
+      int capacity = priority == Priority.INTERACTIVE ? MAX_CONNECTIONS : MAX_CONNECTIONS - INTERACTIVE_RESERVED;
+      int ahead = LANES.get(priority).waiting + (priority == Priority.BACKGROUND ? LANES.get(Priority.INTERACTIVE).waiting : 0);
+      int free = Math.max(0, capacity - total);
+      if (ahead < free) {
+        return 0;
+      }
+      long firstSlot = probe.nextExpiry == Long.MAX_VALUE ? 0 : Math.max(0, probe.nextExpiry - now);
+      return firstSlot + (ahead - free) * (TIME_WINDOW + SAFETY_MARGIN) / capacity;
+    }
+  }
+
+  /**
+   * a short statistic of the lanes (for logging)
+   */
+  public static String getStatistics() {
+    synchronized (LOCK) {
+      StringBuilder sb = new StringBuilder();
+      int[] counts = backend.getCounts(System.currentTimeMillis());
+      for (Map.Entry<Priority, Lane> entry : LANES.entrySet()) {
+        Lane lane = entry.getValue();
+        if (sb.length() > 0) {
+          sb.append("; ");
         }
+        sb.append(entry.getKey().name().toLowerCase()).append(": ").append(counts[entry.getKey().ordinal()]).append(" in window, ")
+            .append(lane.waiting).append(" waiting, ").append(lane.requests).append(" requests, ").append(lane.throttled)
+            .append(" throttled, avg wait ").append(lane.requests == 0 ? 0 : lane.waitTime / lane.requests).append("ms, max wait ")
+            .append(lane.maxWaitTime).append("ms");
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * get the metrics of the given lane: requests, throttled requests, total wait time (ms), max wait time (ms), currently waiting
+   */
+  static long[] getMetrics(Priority priority) {
+    synchronized (LOCK) {
+      Lane lane = LANES.get(priority);
+      return new long[] { lane.requests, lane.throttled, lane.waitTime, lane.maxWaitTime, lane.waiting };
+    }
+  }
+
+  static void reset() {
+    synchronized (LOCK) {
+      backend.clear();
+      for (Lane lane : LANES.values()) {
+        lane.requests = 0;
+        lane.throttled = 0;
+        lane.waitTime = 0;
+        lane.maxWaitTime = 0;
       }
+      LOCK.notifyAll();
+    }
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class Lane {
+    private int  waiting     = 0;
+    private long requests    = 0;
+    private long throttled   = 0;
+    private long waitTime    = 0;
+    private long maxWaitTime = 0;
+  }
+
+  /**
+   * a policy which never takes a slot, but records the state of the backend
+   */
+  private static class Probe implements SlotPolicy {
+    private int[] counts;
+    private long  nextExpiry = Long.MAX_VALUE;
+
+    @Override
+    public long getWaitTime(Priority priority, int[] counts, long nextExpiry, long now) {
+      this.counts = counts.clone();
+      this.nextExpiry = nextExpiry;
+      return 1;
     }
+  }
 
-    currentTime = System.currentTimeMillis();
-    CONNECTION_COUNTER.add(currentTime);
+  /**
+   * the policy of the lanes: background requests must not use the slice reserved for interactive requests, but always get their minimum share
+   */
+  private static class LanePolicy implements SlotPolicy {
+    @Override
+    public long getWaitTime(Priority priority, int[] counts, long nextExpiry, long now) {
+      int interactive = counts[Priority.INTERACTIVE.ordinal()];
+      int background = counts[Priority.BACKGROUND.ordinal()];
+      int total = interactive + background;
+
+      boolean allowed;
+      if (total >= MAX_CONNECTIONS) {
+        allowed = false;
+      }
+      else if (priority == Priority.INTERACTIVE) {
+        // leave the minimum share to waiting background requests
+        allowed = LANES.get(Priority.BACKGROUND).waiting == 0 || background >= BACKGROUND_MINIMUM
+            || interactive < MAX_CONNECTIONS - BACKGROUND_MINIMUM;
+      }
+      else {
+        // the reserved slice is for interactive requests only; but the background lane always gets its minimum share
+        allowed = total < MAX_CONNECTIONS - INTERACTIVE_RESERVED || background < BACKGROUND_MINIMUM;
+      }
+
+      if (allowed) {
+        return 0;
+      }
+      // wait until the oldest connection leaves the time window (or another lane notifies)
+      return nextExpiry == Long.MAX_VALUE ? TIME_WINDOW : Math.max(1, nextExpiry - now);
+    }
   }
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.uwetrottmann.thetvdb.entities.Actor;
+import com.uwetrottmann.thetvdb.entities.Episode;
+import com.uwetrottmann.thetvdb.entities.Series;
+import com.uwetrottmann.thetvdb.entities.SeriesImageQueryResult;
+import com.uwetrottmann.thetvdb.entities.SeriesImagesQueryParam;
+
+/**
+ * The class TheTvDbDataCache keeps the fetched data in two tiers:<br>
+ * - the core tier with all language independent data (the numeric and date fields of series/episodes and episode listings, actors, the image
+ * types and the images without a language) with a long time to live<br>
+ * - the localized tier with thin overlays (title and overview per language, localized images, the episode listings per language) with a shorter
+ * time to live
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbDataCache {
+  static final long                                 CORE_TTL      = TimeUnit.HOURS.toMillis(24);
+  static final long                                 LOCALIZED_TTL = TimeUnit.HOURS.toMillis(2);
+
+  private final TheTvDbCache<String, Object>        core;
+  private final TheTvDbCache<String, LocalizedText> localized;
+  private final TheTvDbCache<String, Object>        localizedImages;
+  private final TheTvDbCache<String, Object>        localizedListings;
+
+  TheTvDbDataCache() {
+    this(CORE_TTL, LOCALIZED_TTL);
+  }
+
+  TheTvDbDataCache(long coreTtl, long localizedTtl) {
+    core = new TheTvDbCache<>("core", coreTtl, 20000);
+    localized = new TheTvDbCache<>("localized", localizedTtl, 20000);
+    localizedImages = new TheTvDbCache<>("localized images", localizedTtl, 5000);
+    localizedListings = new TheTvDbCache<>("localized listings", localizedTtl, 2000);
+  }
+
+  /**
+   * the language independent record of the series (the texts of it must not be used)
+   */
+  Series getSeries(int id) {
+    return (Series) core.get("series_" + id);
+  }
+
+  /**
+   * put the series into the cache: the core record and the texts as overlay for the given language
+   */
+  void putSeries(Series series, String language) {
+    putSeries(series, language, System.currentTimeMillis());
+  }
+
+  /**
+   * put the series into the cache which is known to be current at the given time (the same for the other put methods with a time)
+   */
+  void putSeries(Series series, String language, long fetched) {
+    if (series == null || series.id == null) {
+      return;
+    }
+    core.put("series_" + series.id, series, fetched);
+    localized.put("series_" + series.id + "_" + language, new LocalizedText(series.seriesName, series.overview), fetched);
+  }
+
+  LocalizedText getSeriesText(int id, String language) {
+    return localized.get("series_" + id + "_" + language);
+  }
+
+  @SuppressWarnings("unchecked")
+  List<Actor> getActors(int id) {
+    return (List<Actor>) core.get("actors_" + id);
+  }
+
+  void putActors(int id, List<Actor> actors) {
+    putActors(id, actors, System.currentTimeMillis());
+  }
+
+  void putActors(int id, List<Actor> actors, long fetched) {
+    core.put("actors_" + id, actors, fetched);
+  }
+
+  @SuppressWarnings("unchecked")
+  List<SeriesImagesQueryParam> getImageTypes(int id) {
+    return (List<SeriesImagesQueryParam>) core.get("imagetypes_" + id);
+  }
+
+  void putImageTypes(int id, List<SeriesImagesQueryParam> types) {
+    putImageTypes(id, types, System.currentTimeMillis());
+  }
+
+  void putImageTypes(int id, List<SeriesImagesQueryParam> types, long fetched) {
+    core.put("imagetypes_" + id, types, fetched);
+  }
+
+  /**
+   * get the images of the given type; images without a language (language == null) are in the core tier
+   */
+  @SuppressWarnings("unchecked")
+  List<SeriesImageQueryResult> getImages(int id, String keyType, String language) {
+    if (language == null) {
+      return (List<SeriesImageQueryResult>) core.get("images_" + id + "_" + keyType);
+    }
+    return (List<SeriesImageQueryResult>) localizedImages.get("images_" + id + "_" + keyType + "_" + language);
+  }
+
+  void putImages(int id, String keyType, String language, List<SeriesImageQueryResult> images) {
+    putImages(id, keyType, language, images, System.currentTimeMillis());
+  }
+
+  void putImages(int id, String keyType, String language, List<SeriesImageQueryResult> images, long fetched) {
+    if (language == null) {
+      core.put("images_" + id + "_" + keyType, images, fetched);
+    }
+    else {
+      localizedImages.put("images_" + id + "_" + keyType + "_" + language, images, fetched);
+    }
+  }
+
+  /**
+   * the id of the episode at the given position (aired/dvd order) of the series
+   */
+  Integer getEpisodeId(int seriesId, boolean dvdOrder, int season, int episode) {
+    return (Integer) core.get("episodeid_" + seriesId + (dvdOrder ? "_dvd_" : "_aired_") + season + "_" + episode);
+  }
+
+  void putEpisodeId(int seriesId, boolean dvdOrder, int season, int episode, Integer episodeId) {
+    core.put("episodeid_" + seriesId + (dvdOrder ? "_dvd_" : "_aired_") + season + "_" + episode, episodeId);
+  }
+
+  /**
+   * the language independent episode index of the series: the numbers and dates only (no titles and overviews)
+   */
+  TheTvDbEpisodeIndex getEpisodeIndex(int seriesId) {
+    return (TheTvDbEpisodeIndex) core.get("episodeindex_" + seriesId);
+  }
+
+  /**
+   * the episode index of the series as fetched in the given language (with the texts of this language)
+   */
+  TheTvDbEpisodeIndex getEpisodeIndex(int seriesId, String language) {
+    return (TheTvDbEpisodeIndex) localizedListings.get("episodeindex_" + seriesId + "_" + language);
+  }
+
+  void putEpisodeIndex(int seriesId, String language, TheTvDbEpisodeIndex index) {
+    putEpisodeIndex(seriesId, language, index, System.currentTimeMillis());
+  }
+
+  /**
+   * put the episode index into the cache: the numbers and dates into the core tier, the whole listing (with the texts) for the given language
+   * into the localized tier
+   */
+  void putEpisodeIndex(int seriesId, String language, TheTvDbEpisodeIndex index, long fetched) {
+    core.put("episodeindex_" + seriesId, index.withoutTexts(), fetched);
+    localizedListings.put("episodeindex_" + seriesId + "_" + language, index, fetched);
+  }
+
+  /**
+   * the language independent record of the episode (the texts of it must not be used)
+   */
+  Episode.FullEpisode getEpisode(int id) {
+    return (Episode.FullEpisode) core.get("episode_" + id);
+  }
+
+  /**
+   * put the episode into the cache: the core record and the texts as overlay for the given language
+   */
+  void putEpisode(Episode.FullEpisode episode, String language) {
+    if (episode == null || episode.id == null) {
+      return;
+    }
+    core.put("episode_" + episode.id, episode);
+    localized.put("episode_" + episode.id + "_" + language, new LocalizedText(episode.episodeName, episode.overview));
+  }
+
+  LocalizedText getEpisodeText(int id, String language) {
+    return localized.get("episode_" + id + "_" + language);
+  }
+
+  /**
+   * the last fetched record of the episode, even if it is expired
+   */
+  Episode.FullEpisode peekEpisode(int id) {
+    return (Episode.FullEpisode) core.peek("episode_" + id);
+  }
+
+  /**
+   * the episode is known to be unchanged: the record and the texts of all languages get the full time to live again
+   */
+  void renewEpisode(int id) {
+    core.verify("episode_" + id, 0);
+    localized.verifyAll("episode_" + id + "_", 0);
+  }
+
+  /**
+   * verify the cached data depending on the series (the texts of other languages, actors, image types, images and episode listings) against the
+   * last update of the series: data fetched after it is valid again (even if expired), older data is removed
+   *
+   * @param id
+   *          the series id
+   * @param changed
+   *          the time (ms) of the last update of the series
+   * @return the count of expired entries which have been renewed (not counting the episode listings)
+   */
+  int verifySeries(int id, long changed) {
+    int renewed = localized.verifyAll("series_" + id + "_", changed);
+    renewed += core.verify("actors_" + id, changed) + core.verify("imagetypes_" + id, changed);
+    renewed += core.verifyAll("images_" + id + "_", changed) + localizedImages.verifyAll("images_" + id + "_", changed);
+    core.verify("episodeindex_" + id, changed);
+    localizedListings.verifyAll("episodeindex_" + id + "_", changed);
+    return renewed;
+  }
+
+  /**
+   * the hit rates of all tiers (for logging)
+   */
+  String getStatistics() {
+    return core.getStatistics() + "; " + localized.getStatistics() + "; " + localizedImages.getStatistics() + "; "
+        + localizedListings.getStatistics();
+  }
+
+  double getCoreHitRate() {
+    return core.getHitRate();
+  }
+
+  double getLocalizedHitRate() {
+    return localized.getHitRate();
+  }
+
+  void clear() {
+    core.clear();
+    localized.clear();
+    localizedImages.clear();
+    localizedListings.clear();
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  /**
+   * the localized texts of a series/episode
+   */
+  static class LocalizedText {
+    final String title;
+    final String overview;
+
+    LocalizedText(String title, String overview) {
+      this.title = title;
+      this.overview = overview;
+    }
+  }
+}
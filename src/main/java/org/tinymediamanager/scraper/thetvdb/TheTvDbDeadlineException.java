@@ -0,0 +1,49 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+/**
+ * The class TheTvDbDeadlineException is thrown if a scrape has been rejected by the admission control: the estimated wait for the rate limit
+ * would exceed the latency budget of the caller
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbDeadlineException extends Exception {
+  private static final long serialVersionUID = 1L;
+
+  private final long        estimatedWait;
+  private final long        budget;
+
+  public TheTvDbDeadlineException(String operation, long estimatedWait, long budget) {
+    super("would exceed deadline: " + operation + " would wait ~" + estimatedWait + "ms for the rate limit (budget " + budget + "ms)");
+    this.estimatedWait = estimatedWait;
+    this.budget = budget;
+  }
+
+  /**
+   * the estimated wait (ms) for the rate limit
+   */
+  public long getEstimatedWait() {
+    return estimatedWait;
+  }
+
+  /**
+   * the latency budget (ms) of the caller
+   */
+  public long getBudget() {
+    return budget;
+  }
+}
@@ -0,0 +1,509 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.util.TvUtils;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.uwetrottmann.thetvdb.entities.Actor;
+import com.uwetrottmann.thetvdb.entities.Episode;
+import com.uwetrottmann.thetvdb.entities.Series;
+import com.uwetrottmann.thetvdb.entities.SeriesImageQueryResult;
+import com.uwetrottmann.thetvdb.entities.SeriesImagesQueryParam;
+
+/**
+ * The class TheTvDbDumpImporter seeds the caches of the provider from a local dump of the API data, so that a new node does not need to crawl
+ * every series through the rate limit. The dump has one JSON record per line; the data of a record has the shape of the API response:<br>
+ * {"type":"series","language":"en","data":{...}} - the series (GET /series/{id})<br>
+ * {"type":"episode","language":"en","data":{...}} - an episode with its seriesId (GET /episodes/{id})<br>
+ * {"type":"images","seriesId":1,"keyType":"poster","language":"en","data":[...]} - the images of one type (GET /series/{id}/images/query;
+ * without a language for the images without a language)<br>
+ * {"type":"actors","seriesId":1,"data":[...]} - the actors (GET /series/{id}/actors)<br>
+ * The lines are parsed with a streaming parser in the reading thread and loaded by several workers; all records of a series are loaded by the
+ * same worker. Broken lines are skipped.<br>
+ * The in memory caches keep what fits into them; the shared cache file (if activated) is the persistent store for big dumps. The episode
+ * records go to the shared cache only - the episode listings built from them are in the data cache. If the shared cache is full, the rest of the
+ * dump is not added to it (the dump must not push out what it has added before).<br>
+ * The data of a series is only known to be current at the last update of the series (the series record should come before the other records of
+ * the series). It is cached with that time (plus the clock margin of the change tracker): old data is expired at once and it is used again only
+ * after it has been verified against the current lastUpdated stamp of the series (differential rescrapes) or by scrapes which must be answered
+ * from the caches
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbDumpImporter {
+  static final int                      QUEUE_SIZE = 1000;
+  // how long the reader waits for the queue of a worker before it checks whether the worker is still alive
+  static final long                     OFFER_WAIT = 1000;
+
+  private static final Logger           LOGGER     = LoggerFactory.getLogger(TheTvDbDumpImporter.class);
+  private static final Record           END        = new Record();
+
+  private final TheTvDbDataCache        dataCache;
+  private final TheTvDbSearchIndex      searchIndex;
+  private final TheTvDbEpisodeMissCache episodeMisses;
+  private final TheTvDbSharedCache      sharedCache;
+  private final String                  artworkUrl;
+  private final Gson                    gson       = new Gson();
+  private final AtomicLong              series     = new AtomicLong();
+  private final AtomicLong              episodes   = new AtomicLong();
+  private final AtomicLong              images     = new AtomicLong();
+  private final AtomicLong              actors     = new AtomicLong();
+  private final AtomicLong              skipped    = new AtomicLong();
+  private final AtomicLong              notShared  = new AtomicLong();
+  private final AtomicBoolean           sharedFull = new AtomicBoolean();
+
+  /**
+   * @param dataCache
+   *          the data cache of the provider
+   * @param searchIndex
+   *          the local search index of the provider
+   * @param episodeMisses
+   *          the cache of the unsuccessful episode lookups (invalidated by changed listings)
+   * @param sharedCache
+   *          the shared cache or null if not activated
+   * @param artworkUrl
+   *          the base url of the artwork (for the posters in the search index)
+   */
+  TheTvDbDumpImporter(TheTvDbDataCache dataCache, TheTvDbSearchIndex searchIndex, TheTvDbEpisodeMissCache episodeMisses,
+      TheTvDbSharedCache sharedCache, String artworkUrl) {
+    this.dataCache = dataCache;
+    this.searchIndex = searchIndex;
+    this.episodeMisses = episodeMisses;
+    this.sharedCache = sharedCache;
+    this.artworkUrl = artworkUrl;
+  }
+
+  /**
+   * import the dump file
+   *
+   * @param file
+   *          the dump (UTF-8, one record per line)
+   * @param threads
+   *          the count of workers
+   * @return the count of imported records
+   * @throws IOException
+   *           any exception while reading the dump
+   * @throws InterruptedException
+   *           if the import has been interrupted
+   */
+  long importDump(Path file, int threads) throws IOException, InterruptedException {
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      return importDump(reader, threads);
+    }
+  }
+
+  long importDump(BufferedReader reader, int threads) throws IOException, InterruptedException {
+    List<Worker> workers = new ArrayList<>();
+    List<Future<Void>> results = new ArrayList<>();
+    ExecutorService executor = Executors.newFixedThreadPool(threads, new TheTvDbThreadFactory("tvdb-import"));
+    for (int i = 0; i < threads; i++) {
+      Worker worker = new Worker();
+      workers.add(worker);
+      results.add(executor.submit(worker));
+    }
+
+    try {
+      String line;
+      int lineNumber = 0;
+      while ((line = reader.readLine()) != null) {
+        lineNumber++;
+        if (line.trim().isEmpty()) {
+          continue;
+        }
+
+        Record record;
+        try {
+          record = parse(line);
+        }
+        catch (Exception e) {
+          record = null;
+          LOGGER.debug("skipping line " + lineNumber + " of the dump: " + e.getMessage());
+        }
+        if (record == null) {
+          skipped.incrementAndGet();
+          continue;
+        }
+        int worker = record.seriesId % threads;
+        if (!offer(workers.get(worker), results.get(worker), record)) {
+          skipped.incrementAndGet();
+        }
+      }
+    }
+    finally {
+      for (int i = 0; i < threads; i++) {
+        offer(workers.get(i), results.get(i), END);
+      }
+      executor.shutdown();
+    }
+
+    for (Future<Void> result : results) {
+      try {
+        result.get();
+      }
+      catch (ExecutionException e) {
+        LOGGER.warn("import worker failed: " + e.getCause());
+      }
+    }
+    return getImported();
+  }
+
+  /**
+   * hand the record to the worker; the worker may have died (e.g. of an Error), so the reader must not wait for its queue forever
+   *
+   * @return false if the worker does not take records any more
+   */
+  private static boolean offer(Worker worker, Future<Void> result, Record record) throws InterruptedException {
+    while (!result.isDone()) {
+      if (worker.queue.offer(record, OFFER_WAIT, TimeUnit.MILLISECONDS)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * the count of imported records
+   */
+  long getImported() {
+    return series.get() + episodes.get() + images.get() + actors.get();
+  }
+
+  long getSkipped() {
+    return skipped.get();
+  }
+
+  /**
+   * a short statistic of the import (for logging)
+   */
+  String getStatistics() {
+    return "dump import: " + series.get() + " series, " + episodes.get() + " episodes, " + images.get() + " image lists, " + actors.get()
+        + " actor lists, " + skipped.get() + " skipped, " + notShared.get() + " not shared";
+  }
+
+  /**
+   * parse one line of the dump (the data is decoded into the entity of its type without building a tree if the type comes first)
+   *
+   * @return the record or null if the record is not usable
+   */
+  private Record parse(String line) throws IOException {
+    Record record = new Record();
+    JsonElement pending = null;
+
+    JsonReader reader = new JsonReader(new StringReader(line));
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "type":
+          record.type = nextString(reader);
+          break;
+
+        case "language":
+          record.language = nextString(reader);
+          break;
+
+        case "seriesId":
+          String seriesId = nextString(reader);
+          record.seriesId = seriesId == null ? 0 : Integer.parseInt(seriesId);
+          break;
+
+        case "keyType":
+          record.keyType = nextString(reader);
+          break;
+
+        case "data":
+          if (record.type == null) {
+            pending = gson.fromJson(reader, JsonElement.class);
+          }
+          else {
+            record.data = gson.fromJson(reader, getDataType(record.type));
+          }
+          break;
+
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+
+    if (record.type == null || getDataType(record.type) == null) {
+      return null;
+    }
+    if (pending != null) {
+      record.data = gson.fromJson(pending, getDataType(record.type));
+    }
+    if (record.data == null) {
+      return null;
+    }
+
+    // the series id of series and episodes is in the data
+    if (record.data instanceof Series && ((Series) record.data).id != null) {
+      record.seriesId = ((Series) record.data).id;
+    }
+    if (record.data instanceof Episode.FullEpisode && record.seriesId == 0 && ((Episode.FullEpisode) record.data).seriesId != null) {
+      record.seriesId = ((Episode.FullEpisode) record.data).seriesId;
+    }
+    if (record.seriesId <= 0 || ("images".equals(record.type) && record.keyType == null)) {
+      return null;
+    }
+    if (record.language == null && ("series".equals(record.type) || "episode".equals(record.type))) {
+      return null;
+    }
+    return record;
+  }
+
+  private static Class<?> getDataType(String type) {
+    switch (type) {
+      case "series":
+        return Series.class;
+
+      case "episode":
+        return Episode.FullEpisode.class;
+
+      case "images":
+        return SeriesImageQueryResult[].class;
+
+      case "actors":
+        return Actor[].class;
+
+      default:
+        return null;
+    }
+  }
+
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    return reader.nextString();
+  }
+
+  private void putShared(String key, Object value, long time) {
+    if (sharedCache == null) {
+      return;
+    }
+    if (sharedFull.get() || !sharedCache.add(key, value, time)) {
+      if (!sharedFull.getAndSet(true)) {
+        LOGGER.warn("the shared cache is full - the rest of the dump is not added to it (raise sharedCacheEntries and sharedCacheSizeMb)");
+      }
+      notShared.incrementAndGet();
+    }
+  }
+
+  /**
+   * the time (ms) data with the given lastUpdated stamp (s) is known to be current
+   */
+  private static long getUpdateTime(Long lastUpdated) {
+    return lastUpdated == null ? 0 : lastUpdated * 1000 + TheTvDbChangeTracker.CLOCK_MARGIN;
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class Record {
+    private String type;
+    private String language;
+    private int    seriesId;
+    private String keyType;
+    private Object data;
+  }
+
+  /**
+   * the search index entry of a series (added when the posters are known)
+   */
+  private static class SearchEntry {
+    private final int          id;
+    private final String       language;
+    private final String       title;
+    private final List<String> aliases;
+    private final int          year;
+
+    private SearchEntry(int id, String language, String title, List<String> aliases, int year) {
+      this.id = id;
+      this.language = language;
+      this.title = title;
+      this.aliases = aliases;
+      this.year = year;
+    }
+  }
+
+  /**
+   * loads the records of its series; the listings, image types and search entries are completed at the end of the dump
+   */
+  private class Worker implements Callable<Void> {
+    private final BlockingQueue<Record>            queue      = new ArrayBlockingQueue<>(QUEUE_SIZE);
+    private final Map<String, TheTvDbEpisodeIndex> listings   = new HashMap<>();
+    private final Map<Integer, Set<String>>        imageTypes = new HashMap<>();
+    private final Map<Integer, String>             posters    = new HashMap<>();
+    private final List<SearchEntry>                entries    = new ArrayList<>();
+    // the time the data of the series is known to be current
+    private final Map<Integer, Long>               updated    = new HashMap<>();
+
+    @Override
+    public Void call() throws Exception {
+      while (true) {
+        Record record = queue.take();
+        if (record == END) {
+          break;
+        }
+        try {
+          load(record);
+        }
+        catch (Exception e) {
+          LOGGER.debug("could not import " + record.type + " of " + record.seriesId + ": " + e.getMessage());
+          skipped.incrementAndGet();
+        }
+      }
+      finish();
+      return null;
+    }
+
+    private void load(Record record) {
+      int id = record.seriesId;
+      switch (record.type) {
+        case "series":
+          Series show = (Series) record.data;
+          if (show.lastUpdated != null) {
+            updated.put(id, getUpdateTime(show.lastUpdated));
+          }
+          dataCache.putSeries(show, record.language, getSeriesTime(id));
+          episodeMisses.updateLastUpdated(id, show.lastUpdated);
+          entries.add(new SearchEntry(id, record.language, show.seriesName, show.aliases, TheTvDbSearchIndex.parseYear(show.firstAired)));
+          putShared("series/" + id + "/" + record.language, show, getSeriesTime(id));
+          series.incrementAndGet();
+          break;
+
+        case "episode":
+          Episode.FullEpisode episode = (Episode.FullEpisode) record.data;
+          if (episode.id == null) {
+            skipped.incrementAndGet();
+            break;
+          }
+          getListing(id, record.language).add(episode.id, TvUtils.getSeasonNumber(episode.airedSeason),
+              TvUtils.getEpisodeNumber(episode.airedEpisodeNumber), TvUtils.getSeasonNumber(episode.dvdSeason),
+              TvUtils.getEpisodeNumber(episode.dvdEpisodeNumber), TvUtils.getEpisodeNumber(episode.absoluteNumber), episode.firstAired,
+              episode.episodeName, episode.overview, episode.lastUpdated);
+          putShared("episode/" + episode.id + "/" + record.language, episode,
+              episode.lastUpdated == null ? getSeriesTime(id) : getUpdateTime(episode.lastUpdated));
+          episodes.incrementAndGet();
+          break;
+
+        case "images":
+          List<SeriesImageQueryResult> list = new ArrayList<>(Arrays.asList((SeriesImageQueryResult[]) record.data));
+          dataCache.putImages(id, record.keyType, record.language, list, getSeriesTime(id));
+          putShared("images/" + id + "/" + record.keyType + "/" + (record.language == null ? "default" : record.language), list, getSeriesTime(id));
+          Set<String> types = imageTypes.get(id);
+          if (types == null) {
+            types = new LinkedHashSet<>();
+            imageTypes.put(id, types);
+          }
+          types.add(record.keyType);
+          if ("poster".equals(record.keyType) && !list.isEmpty() && (record.language == null || !posters.containsKey(id))) {
+            posters.put(id, artworkUrl + list.get(0).fileName);
+          }
+          images.incrementAndGet();
+          break;
+
+        case "actors":
+          List<Actor> cast = new ArrayList<>(Arrays.asList((Actor[]) record.data));
+          dataCache.putActors(id, cast, getSeriesTime(id));
+          putShared("actors/" + id, cast, getSeriesTime(id));
+          actors.incrementAndGet();
+          break;
+
+        default:
+          skipped.incrementAndGet();
+          break;
+      }
+    }
+
+    /**
+     * the time the data of the series is known to be current (0 if its series record has not been loaded yet)
+     */
+    private long getSeriesTime(int id) {
+      Long time = updated.get(id);
+      return time == null ? 0 : time;
+    }
+
+    /**
+     * the listing of the series in the given language
+     */
+    private TheTvDbEpisodeIndex getListing(int id, String language) {
+      String key = id + "_" + language;
+      TheTvDbEpisodeIndex listing = listings.get(key);
+      if (listing == null) {
+        listing = new TheTvDbEpisodeIndex();
+        listings.put(key, listing);
+      }
+      return listing;
+    }
+
+    private void finish() {
+      for (Map.Entry<String, TheTvDbEpisodeIndex> entry : listings.entrySet()) {
+        String key = entry.getKey();
+        int id = Integer.parseInt(key.substring(0, key.indexOf('_')));
+        dataCache.putEpisodeIndex(id, key.substring(key.indexOf('_') + 1), entry.getValue(), getSeriesTime(id));
+        episodeMisses.updateListing(id, entry.getValue().getFingerprint());
+      }
+
+      for (Map.Entry<Integer, Set<String>> entry : imageTypes.entrySet()) {
+        List<SeriesImagesQueryParam> params = new ArrayList<>();
+        for (String keyType : entry.getValue()) {
+          SeriesImagesQueryParam param = new SeriesImagesQueryParam();
+          param.keyType = keyType;
+          params.add(param);
+        }
+        dataCache.putImageTypes(entry.getKey(), params, getSeriesTime(entry.getKey()));
+        putShared("imagetypes/" + entry.getKey(), params, getSeriesTime(entry.getKey()));
+      }
+
+      for (SearchEntry entry : entries) {
+        searchIndex.add(entry.id, entry.language, entry.title, entry.aliases, entry.year, posters.get(entry.id));
+      }
+    }
+  }
+}
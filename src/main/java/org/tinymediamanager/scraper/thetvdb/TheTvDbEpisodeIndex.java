@@ -0,0 +1,507 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.tinymediamanager.scraper.entities.MediaEpisode;
+
+/**
+ * The class TheTvDbEpisodeIndex is a compact episode index for (very) long series. All numbers are stored in primitive arrays (season/episode
+ * pairs packed into one long) and the first aired date as yyyyMMdd int; only the titles and overviews are kept as strings. Besides the aired
+ * order there are lookups by DVD order, absolute number and first aired date (exact, ranges and the only episode around a date)
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbEpisodeIndex {
+  private static final int INITIAL_CAPACITY = 128;
+
+  private int              size            = 0;
+  private int[]            ids             = new int[INITIAL_CAPACITY];
+  private long[]           airedKeys       = new long[INITIAL_CAPACITY];
+  private long[]           dvdKeys         = new long[INITIAL_CAPACITY];
+  private int[]            absoluteNumbers = new int[INITIAL_CAPACITY];
+  private int[]            firstAired      = new int[INITIAL_CAPACITY];
+  private String[]         titles          = new String[INITIAL_CAPACITY];
+  private String[]         plots           = new String[INITIAL_CAPACITY];
+  private long[]           lastUpdated     = new long[INITIAL_CAPACITY];
+
+  // lookups; built lazily
+  private Lookup           airedLookup;
+  private Lookup           dvdLookup;
+  private Lookup           absoluteLookup;
+  private Lookup           dateLookup;
+
+  /**
+   * pack a season/episode pair into one long
+   */
+  static long packKey(int season, int episode) {
+    return ((long) season << 32) | (episode & 0xffffffffL);
+  }
+
+  static int unpackSeason(long key) {
+    return (int) (key >> 32);
+  }
+
+  static int unpackEpisode(long key) {
+    return (int) key;
+  }
+
+  /**
+   * add an episode to the index
+   */
+  public synchronized void add(int id, int season, int episode, int dvdSeason, int dvdEpisode, int absoluteNumber, String aired, String title,
+      String plot) {
+    add(id, season, episode, dvdSeason, dvdEpisode, absoluteNumber, aired, title, plot, null);
+  }
+
+  /**
+   * add an episode with the time of its last update (unix time in seconds, null if unknown) to the index
+   */
+  public synchronized void add(int id, int season, int episode, int dvdSeason, int dvdEpisode, int absoluteNumber, String aired, String title,
+      String plot, Long updated) {
+    if (size == ids.length) {
+      int capacity = size * 2;
+      ids = Arrays.copyOf(ids, capacity);
+      airedKeys = Arrays.copyOf(airedKeys, capacity);
+      dvdKeys = Arrays.copyOf(dvdKeys, capacity);
+      absoluteNumbers = Arrays.copyOf(absoluteNumbers, capacity);
+      firstAired = Arrays.copyOf(firstAired, capacity);
+      titles = Arrays.copyOf(titles, capacity);
+      plots = Arrays.copyOf(plots, capacity);
+      lastUpdated = Arrays.copyOf(lastUpdated, capacity);
+    }
+
+    ids[size] = id;
+    airedKeys[size] = packKey(season, episode);
+    dvdKeys[size] = packKey(dvdSeason, dvdEpisode);
+    absoluteNumbers[size] = absoluteNumber;
+    firstAired[size] = parseDate(aired);
+    // titles and overviews are (nearly) unique per episode: not worth a lookup in the string pool
+    titles[size] = title == null ? "" : title;
+    plots[size] = plot == null ? "" : plot;
+    lastUpdated[size] = updated == null ? 0 : updated;
+    size++;
+
+    airedLookup = null;
+    dvdLookup = null;
+    absoluteLookup = null;
+    dateLookup = null;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized int getId(int position) {
+    return ids[position];
+  }
+
+  /**
+   * a fingerprint of the episode ids of the listing (changes if episodes have been added or removed)
+   */
+  public synchronized long getFingerprint() {
+    long fingerprint = size;
+    for (int i = 0; i < size; i++) {
+      fingerprint = 31 * fingerprint + ids[i];
+    }
+    return fingerprint;
+  }
+
+  public synchronized int getSeason(int position) {
+    return unpackSeason(airedKeys[position]);
+  }
+
+  public synchronized int getEpisode(int position) {
+    return unpackEpisode(airedKeys[position]);
+  }
+
+  public synchronized int getDvdSeason(int position) {
+    return unpackSeason(dvdKeys[position]);
+  }
+
+  public synchronized int getDvdEpisode(int position) {
+    return unpackEpisode(dvdKeys[position]);
+  }
+
+  public synchronized int getAbsoluteNumber(int position) {
+    return absoluteNumbers[position];
+  }
+
+  public synchronized String getFirstAired(int position) {
+    return formatDate(firstAired[position]);
+  }
+
+  public synchronized String getTitle(int position) {
+    return titles[position];
+  }
+
+  public synchronized String getPlot(int position) {
+    return plots[position];
+  }
+
+  /**
+   * the time of the last update of the episode (unix time in seconds) or null if unknown
+   */
+  public synchronized Long getLastUpdated(int position) {
+    return lastUpdated[position] == 0 ? null : lastUpdated[position];
+  }
+
+  /**
+   * find the episode with the given id
+   *
+   * @return the position in the index or -1 if not found
+   */
+  public synchronized int findId(int id) {
+    for (int i = 0; i < size; i++) {
+      if (ids[i] == id) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * find the episode with the given aired season/episode number
+   *
+   * @return the position in the index or -1 if not found
+   */
+  public synchronized int findAired(int season, int episode) {
+    if (airedLookup == null) {
+      airedLookup = new Lookup(airedKeys, size, Long.MIN_VALUE);
+    }
+    return airedLookup.find(packKey(season, episode));
+  }
+
+  /**
+   * find the episode with the given DVD season/episode number
+   *
+   * @return the position in the index or -1 if not found
+   */
+  public synchronized int findDvd(int season, int episode) {
+    if (season < 0 || episode < 0) {
+      return -1;
+    }
+    if (dvdLookup == null) {
+      dvdLookup = new Lookup(dvdKeys, size, packKey(0, 0));
+    }
+    return dvdLookup.find(packKey(season, episode));
+  }
+
+  /**
+   * find the episode with the given absolute number
+   *
+   * @return the position in the index or -1 if not found
+   */
+  public synchronized int findAbsolute(int absoluteNumber) {
+    if (absoluteNumber <= 0) {
+      return -1;
+    }
+    if (absoluteLookup == null) {
+      absoluteLookup = new Lookup(toLongs(absoluteNumbers), size, 1);
+    }
+    return absoluteLookup.find(absoluteNumber);
+  }
+
+  /**
+   * find the (first) episode aired at the given date
+   *
+   * @param date
+   *          the date as yyyy-MM-dd
+   * @return the position in the index or -1 if not found
+   */
+  public synchronized int findFirstAired(String date) {
+    int day = parseDate(date);
+    if (day == 0) {
+      return -1;
+    }
+    return getDateLookup().find(day);
+  }
+
+  /**
+   * find all episodes aired within the given range
+   *
+   * @param from
+   *          the first day as yyyy-MM-dd (inclusive)
+   * @param to
+   *          the last day as yyyy-MM-dd (inclusive)
+   * @return the positions in the index, sorted by the first aired date
+   */
+  public synchronized int[] findFirstAired(String from, String to) {
+    int start = parseDate(from);
+    int end = parseDate(to);
+    if (start == 0 || end == 0 || start > end) {
+      return new int[0];
+    }
+    return getDateLookup().range(start, end);
+  }
+
+  /**
+   * find the only episode aired within the given distance to the date (e.g. for dates shifted by the time zone)
+   *
+   * @param date
+   *          the date as yyyy-MM-dd
+   * @param maxDays
+   *          the max distance in days
+   * @return the position in the index or -1 if there is no episode or more than one episode within the distance
+   */
+  public synchronized int findUniqueFirstAired(String date, int maxDays) {
+    int day = parseDate(date);
+    if (day == 0) {
+      return -1;
+    }
+
+    // the date ints are not continuous, so the range is computed in days
+    long epochDay = toEpochDay(day);
+    int[] positions = getDateLookup().range(toDate(epochDay - maxDays), toDate(epochDay + maxDays));
+    return positions.length == 1 ? positions[0] : -1;
+  }
+
+  /**
+   * a copy of the index without the titles and overviews: the language independent part of it
+   */
+  public synchronized TheTvDbEpisodeIndex withoutTexts() {
+    TheTvDbEpisodeIndex copy = new TheTvDbEpisodeIndex();
+    int capacity = Math.max(size, 1);
+    copy.size = size;
+    copy.ids = Arrays.copyOf(ids, capacity);
+    copy.airedKeys = Arrays.copyOf(airedKeys, capacity);
+    copy.dvdKeys = Arrays.copyOf(dvdKeys, capacity);
+    copy.absoluteNumbers = Arrays.copyOf(absoluteNumbers, capacity);
+    copy.firstAired = Arrays.copyOf(firstAired, capacity);
+    copy.titles = new String[capacity];
+    copy.plots = new String[capacity];
+    Arrays.fill(copy.titles, "");
+    Arrays.fill(copy.plots, "");
+    copy.lastUpdated = Arrays.copyOf(lastUpdated, capacity);
+    return copy;
+  }
+
+  /**
+   * create a MediaEpisode for the episode at the given position
+   */
+  public synchronized MediaEpisode toMediaEpisode(int position, String providerId) {
+    MediaEpisode episode = new MediaEpisode(providerId);
+    episode.ids.put(providerId, ids[position]);
+    episode.season = getSeason(position);
+    episode.episode = getEpisode(position);
+    episode.dvdSeason = getDvdSeason(position);
+    episode.dvdEpisode = getDvdEpisode(position);
+    episode.firstAired = getFirstAired(position);
+    episode.title = getTitle(position);
+    episode.plot = getPlot(position);
+    return episode;
+  }
+
+  /**
+   * estimate the memory used by this index (incl. the texts)
+   *
+   * @return the estimated size in bytes
+   */
+  public synchronized long estimateMemoryUsage() {
+    // ids, absolute numbers and dates as int, aired/dvd keys and last updated as long, titles and plots as references (compressed oops)
+    long bytes = ids.length * (3L * 4 + 3L * 8 + 2L * 4);
+    for (int i = 0; i < size; i++) {
+      bytes += estimateMemoryUsage(titles[i]) + estimateMemoryUsage(plots[i]);
+    }
+    for (Lookup lookup : new Lookup[] { airedLookup, dvdLookup, absoluteLookup, dateLookup }) {
+      if (lookup != null) {
+        bytes += lookup.keys.length * (8L + 4L);
+      }
+    }
+    return bytes;
+  }
+
+  private static long estimateMemoryUsage(String text) {
+    if (text.isEmpty()) {
+      // the shared empty string
+      return 0;
+    }
+    // 24 bytes for the string object + the char array (16 bytes header + 2 bytes per char, aligned to 8 bytes)
+    return 24L + ((16L + text.length() * 2L + 7) & ~7L);
+  }
+
+  private Lookup getDateLookup() {
+    if (dateLookup == null) {
+      dateLookup = new Lookup(toLongs(firstAired), size, 1);
+    }
+    return dateLookup;
+  }
+
+  private long[] toLongs(int[] values) {
+    long[] longs = new long[size];
+    for (int i = 0; i < size; i++) {
+      longs[i] = values[i];
+    }
+    return longs;
+  }
+
+  /**
+   * yyyy-MM-dd -> yyyyMMdd as int; 0 if not parseable
+   */
+  static int parseDate(String date) {
+    if (date == null || date.length() != 10 || date.charAt(4) != '-' || date.charAt(7) != '-') {
+      return 0;
+    }
+    // parsed by hand: no substrings for every decoded episode
+    int year = getDigits(date, 0, 4);
+    int month = getDigits(date, 5, 2);
+    int day = getDigits(date, 8, 2);
+    if (year < 0 || month < 0 || day < 0) {
+      return 0;
+    }
+    return year * 10000 + month * 100 + day;
+  }
+
+  /**
+   * yyyyMMdd as int -> yyyy-MM-dd; empty string for 0
+   */
+  static String formatDate(int date) {
+    if (date <= 0) {
+      return "";
+    }
+    // formatted by hand: String.format is too expensive for every converted episode
+    char[] chars = new char[10];
+    setDigits(chars, 0, 4, date / 10000);
+    chars[4] = '-';
+    setDigits(chars, 5, 2, (date / 100) % 100);
+    chars[7] = '-';
+    setDigits(chars, 8, 2, date % 100);
+    return new String(chars);
+  }
+
+  private static void setDigits(char[] chars, int offset, int digits, int value) {
+    for (int i = offset + digits - 1; i >= offset; i--) {
+      chars[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+  }
+
+  private static int getDigits(String string, int offset, int digits) {
+    int value = 0;
+    for (int i = offset; i < offset + digits; i++) {
+      char c = string.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+      value = value * 10 + (c - '0');
+    }
+    return value;
+  }
+
+  /**
+   * yyyyMMdd as int -> days since 1970-01-01 (proleptic gregorian calendar)
+   */
+  static long toEpochDay(int date) {
+    long year = date / 10000;
+    long month = (date / 100) % 100;
+    long day = date % 100;
+    if (month <= 2) {
+      year--;
+      month += 12;
+    }
+    // days of the march based year (shifted so that leap days are at the end)
+    return 365 * year + year / 4 - year / 100 + year / 400 + (153 * (month - 3) + 2) / 5 + day - 719469;
+  }
+
+  /**
+   * days since 1970-01-01 -> yyyyMMdd as int
+   */
+  static int toDate(long epochDay) {
+    long days = epochDay + 719468;
+    long era = (days >= 0 ? days : days - 146096) / 146097;
+    long dayOfEra = days - era * 146097;
+    long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    long monthIndex = (5 * dayOfYear + 2) / 153;
+    long day = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+    long month = monthIndex < 10 ? monthIndex + 3 : monthIndex - 9;
+    long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+    return (int) (year * 10000 + month * 100 + day);
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  /**
+   * a sorted lookup of the positions by a key; entries with the same key are sorted by their position (the first one wins on find)
+   */
+  private static class Lookup {
+    private final long[] keys;
+    private final int[]  positions;
+
+    /**
+     * build the lookup; all entries with a key below minKey are left out
+     */
+    private Lookup(final long[] values, int size, long minKey) {
+      Integer[] order = new Integer[size];
+      int count = 0;
+      for (int i = 0; i < size; i++) {
+        if (values[i] >= minKey) {
+          order[count++] = i;
+        }
+      }
+      order = Arrays.copyOf(order, count);
+      Arrays.sort(order, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer o1, Integer o2) {
+          int result = Long.compare(values[o1], values[o2]);
+          return result != 0 ? result : Integer.compare(o1, o2);
+        }
+      });
+
+      keys = new long[count];
+      positions = new int[count];
+      for (int i = 0; i < count; i++) {
+        keys[i] = values[order[i]];
+        positions[i] = order[i];
+      }
+    }
+
+    /**
+     * the position of the first entry with the given key or -1
+     */
+    private int find(long key) {
+      int index = lowerBound(key);
+      return index < keys.length && keys[index] == key ? positions[index] : -1;
+    }
+
+    /**
+     * the positions of all entries with from <= key <= to
+     */
+    private int[] range(long from, long to) {
+      int start = lowerBound(from);
+      int end = lowerBound(to + 1);
+      return Arrays.copyOfRange(positions, start, Math.max(start, end));
+    }
+
+    private int lowerBound(long key) {
+      int low = 0;
+      int high = keys.length;
+      while (low < high) {
+        int middle = (low + high) >>> 1;
+        if (keys[middle] < key) {
+          low = middle + 1;
+        }
+        else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+  }
+}
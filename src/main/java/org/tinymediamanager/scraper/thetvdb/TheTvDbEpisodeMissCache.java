@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class TheTvDbEpisodeMissCache remembers episode lookups which did not find anything (specials, mislabeled files, ...). The entries of a
+ * series get invalid as soon as a change of its episode listing is noticed (new lastUpdated of the series or a different episode listing)
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbEpisodeMissCache {
+  static final long                                   TTL         = TimeUnit.HOURS.toMillis(24);
+
+  private final TheTvDbCache<String, Miss>            misses;
+  private final ConcurrentMap<Integer, Long>          lastUpdated = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, Long>          listings    = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Integer, AtomicInteger> generations = new ConcurrentHashMap<>();
+  private final AtomicLong                            savedCalls  = new AtomicLong();
+
+  TheTvDbEpisodeMissCache() {
+    this(TTL);
+  }
+
+  TheTvDbEpisodeMissCache(long ttl) {
+    misses = new TheTvDbCache<>("episode miss", ttl, 20000);
+  }
+
+  /**
+   * is the lookup known to find nothing?
+   *
+   * @param seriesId
+   *          the series
+   * @param lookup
+   *          a key describing the lookup (order, season, episode, date)
+   * @return true if the same lookup did not find anything and the episode listing did not change since then
+   */
+  boolean isMiss(int seriesId, String lookup) {
+    String key = seriesId + "_" + lookup;
+    Miss miss = misses.get(key);
+    if (miss == null) {
+      return false;
+    }
+    if (miss.generation != getGeneration(seriesId)) {
+      misses.invalidate(key);
+      return false;
+    }
+    savedCalls.addAndGet(miss.calls);
+    return true;
+  }
+
+  /**
+   * remember a lookup which did not find anything
+   *
+   * @param calls
+   *          the count of api calls the lookup needed
+   */
+  void putMiss(int seriesId, String lookup, int calls) {
+    misses.put(seriesId + "_" + lookup, new Miss(getGeneration(seriesId), calls));
+  }
+
+  /**
+   * notice the last update of the series; a newer one invalidates all misses of the series
+   */
+  void updateLastUpdated(int seriesId, Long updated) {
+    if (updated == null) {
+      return;
+    }
+    Long previous = lastUpdated.put(seriesId, updated);
+    if (previous != null && !previous.equals(updated)) {
+      listingChanged(seriesId);
+    }
+  }
+
+  /**
+   * notice the fingerprint of the episode listing of the series; a different one invalidates all misses of the series
+   */
+  void updateListing(int seriesId, long fingerprint) {
+    Long previous = listings.put(seriesId, fingerprint);
+    if (previous != null && previous != fingerprint) {
+      listingChanged(seriesId);
+    }
+  }
+
+  /**
+   * invalidate all misses of the series
+   */
+  void listingChanged(int seriesId) {
+    AtomicInteger generation = generations.get(seriesId);
+    if (generation == null) {
+      generations.putIfAbsent(seriesId, new AtomicInteger());
+      generation = generations.get(seriesId);
+    }
+    generation.incrementAndGet();
+  }
+
+  /**
+   * the count of api calls which were saved by this cache
+   */
+  long getSavedCalls() {
+    return savedCalls.get();
+  }
+
+  /**
+   * a short statistic of the cache usage (for logging)
+   */
+  String getStatistics() {
+    return misses.getStatistics() + ", " + savedCalls.get() + " api calls saved";
+  }
+
+  void clear() {
+    misses.clear();
+    lastUpdated.clear();
+    listings.clear();
+    generations.clear();
+    savedCalls.set(0);
+  }
+
+  private int getGeneration(int seriesId) {
+    AtomicInteger generation = generations.get(seriesId);
+    return generation == null ? 0 : generation.get();
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class Miss {
+    private final int generation;
+    private final int calls;
+
+    private Miss(int generation, int calls) {
+      this.generation = generation;
+      this.calls = calls;
+    }
+  }
+}
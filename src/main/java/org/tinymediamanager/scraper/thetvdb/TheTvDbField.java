@@ -0,0 +1,90 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.StringUtils;
+import org.tinymediamanager.scraper.MediaScrapeOptions;
+
+/**
+ * The enum TheTvDbField is the projection of a scrape: the parts of the MediaMetadata a caller needs besides the numbering and the title. The
+ * provider skips the API calls which only feed parts that have not been requested; scrapes without a declaration get all parts
+ *
+ * @author Manuel Laggner
+ */
+public enum TheTvDbField {
+  /** actors, directors, writers and guest stars */
+  CAST,
+  /** the plot (the texts of the fallback language are only fetched for a missing title otherwise) */
+  PLOT,
+  /** rating and vote count */
+  RATINGS,
+  /** the artwork (thumb) */
+  ARTWORK,
+  /** the ids of other sites (imdb) */
+  IDS;
+
+  // the key of the declaration in the ids of the scrape options
+  static final String         OPTION = "tvdbFields";
+  // the declaration of the numbering and the title only
+  private static final String NONE   = "none";
+
+  /**
+   * declare the parts of the MediaMetadata the caller needs
+   *
+   * @param options
+   *          the scrape options
+   * @param fields
+   *          the needed parts (none for the numbering and the title only)
+   */
+  public static void setFields(MediaScrapeOptions options, TheTvDbField... fields) {
+    options.setId(OPTION, fields.length == 0 ? NONE : StringUtils.join(fields, ","));
+  }
+
+  /**
+   * get the parts declared in the scrape options
+   *
+   * @return the declared parts or all if there is no declaration
+   */
+  static Set<TheTvDbField> getFields(MediaScrapeOptions options) {
+    String option = options.getId(OPTION);
+    if (StringUtils.isBlank(option)) {
+      return EnumSet.allOf(TheTvDbField.class);
+    }
+
+    Set<TheTvDbField> fields = EnumSet.noneOf(TheTvDbField.class);
+    for (String field : StringUtils.split(option, ',')) {
+      if (!NONE.equals(field)) {
+        try {
+          fields.add(valueOf(field.trim().toUpperCase()));
+        }
+        catch (IllegalArgumentException e) {
+          // unknown parts are not provided by this scraper
+        }
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * whether the full record of an episode is needed or the data of the episode listing (numbering, title, plot and first aired) is enough
+   */
+  static boolean needsFullEpisode(Set<TheTvDbField> fields) {
+    return fields.contains(CAST) || fields.contains(RATINGS) || fields.contains(ARTWORK) || fields.contains(IDS);
+  }
+}
@@ -0,0 +1,389 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.List;
+
+import org.tinymediamanager.scraper.util.TvUtils;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.uwetrottmann.thetvdb.entities.SeriesImageQueryResult;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The class TheTvDbJsonDecoder is a streaming decoder for the hot API endpoints (episode pages and image queries). The response body is read
+ * incrementally and only the fields we use are decoded; everything else is skipped without creating any objects
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbJsonDecoder {
+  private static final String HEADER_ACCEPT_LANGUAGE = "Accept-Language";
+
+  /**
+   * fetch one page of the episode listing and decode it into the given index
+   *
+   * @param client
+   *          the http client with the tvdb authentication
+   * @param seriesId
+   *          the series id
+   * @param page
+   *          the page to fetch (starting with 1)
+   * @param language
+   *          the language of the episode texts
+   * @param episodes
+   *          the index to add the episodes to
+   * @return the number of the next page or 0 if this was the last page
+   * @throws IOException
+   *           any exception while fetching/decoding the page
+   */
+  static int fetchEpisodes(OkHttpClient client, int seriesId, int page, String language, TheTvDbEpisodeIndex episodes) throws IOException {
+    HttpUrl url = HttpUrl.parse(TheTvDbTransport.getApiUrl()).newBuilder().addPathSegment("series").addPathSegment(String.valueOf(seriesId))
+        .addPathSegment("episodes").addQueryParameter("page", String.valueOf(page)).build();
+    Response response = execute(client, url, language);
+    if (response == null) {
+      return 0;
+    }
+    try {
+      return readEpisodes(response.body().charStream(), episodes);
+    }
+    finally {
+      response.body().close();
+    }
+  }
+
+  /**
+   * fetch the images of the given type and decode them into the given list
+   *
+   * @param client
+   *          the http client with the tvdb authentication
+   * @param seriesId
+   *          the series id
+   * @param keyType
+   *          the image type (poster, fanart, ...)
+   * @param language
+   *          the language of the images or null for the default language
+   * @param images
+   *          the list to add the images to
+   * @throws IOException
+   *           any exception while fetching/decoding the images
+   */
+  static void fetchImages(OkHttpClient client, int seriesId, String keyType, String language, List<SeriesImageQueryResult> images)
+      throws IOException {
+    HttpUrl url = HttpUrl.parse(TheTvDbTransport.getApiUrl()).newBuilder().addPathSegment("series").addPathSegment(String.valueOf(seriesId))
+        .addPathSegment("images").addPathSegment("query").addQueryParameter("keyType", keyType).build();
+    Response response = execute(client, url, language);
+    if (response == null) {
+      return;
+    }
+    try {
+      readImages(response.body().charStream(), images);
+    }
+    finally {
+      response.body().close();
+    }
+  }
+
+  /**
+   * decode an episode page ({"links":{...},"data":[...]}) into the episode index
+   *
+   * @return the number of the next page or 0 if there is no next page
+   */
+  static int readEpisodes(Reader json, TheTvDbEpisodeIndex episodes) throws IOException {
+    int nextPage = 0;
+    JsonReader reader = new JsonReader(json);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "data":
+          reader.beginArray();
+          while (reader.hasNext()) {
+            readEpisode(reader, episodes);
+          }
+          reader.endArray();
+          break;
+
+        case "links":
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            break;
+          }
+          reader.beginObject();
+          while (reader.hasNext()) {
+            if ("next".equals(reader.nextName())) {
+              Integer next = nextInteger(reader);
+              nextPage = next == null ? 0 : next;
+            }
+            else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          break;
+
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return nextPage;
+  }
+
+  /**
+   * decode an image query result ({"data":[...]}) into SeriesImageQueryResults (only the fields we use)
+   */
+  static void readImages(Reader json, List<SeriesImageQueryResult> images) throws IOException {
+    JsonReader reader = new JsonReader(json);
+    reader.beginObject();
+    while (reader.hasNext()) {
+      if ("data".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+        reader.beginArray();
+        while (reader.hasNext()) {
+          images.add(readImage(reader));
+        }
+        reader.endArray();
+      }
+      else {
+        reader.skipValue();
+      }
+    }
+    reader.endObject();
+  }
+
+  private static void readEpisode(JsonReader reader, TheTvDbEpisodeIndex episodes) throws IOException {
+    // id and time of the last update are read as primitives: both are too large for the cached boxes
+    long id = 0;
+    Integer season = null;
+    Integer episode = null;
+    Integer dvdSeason = null;
+    Double dvdEpisode = null;
+    Integer absoluteNumber = null;
+    String firstAired = "";
+    String title = "";
+    String plot = "";
+    long lastUpdated = 0;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "id":
+          id = nextLong(reader);
+          break;
+
+        case "airedSeason":
+          season = nextInteger(reader);
+          break;
+
+        case "airedEpisodeNumber":
+          episode = nextInteger(reader);
+          break;
+
+        case "dvdSeason":
+          dvdSeason = nextInteger(reader);
+          break;
+
+        case "dvdEpisodeNumber":
+          dvdEpisode = nextDouble(reader);
+          break;
+
+        case "absoluteNumber":
+          absoluteNumber = nextInteger(reader);
+          break;
+
+        case "firstAired":
+          firstAired = nextString(reader);
+          break;
+
+        case "episodeName":
+          title = nextString(reader);
+          break;
+
+        case "overview":
+          plot = nextString(reader);
+          break;
+
+        case "lastUpdated":
+          lastUpdated = nextLong(reader);
+          break;
+
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+
+    if (id == 0) {
+      return;
+    }
+    episodes.add((int) id, TvUtils.getSeasonNumber(season), TvUtils.getEpisodeNumber(episode), TvUtils.getSeasonNumber(dvdSeason),
+        TvUtils.getEpisodeNumber(dvdEpisode), TvUtils.getEpisodeNumber(absoluteNumber), firstAired, title, plot,
+        lastUpdated == 0 ? null : Long.valueOf(lastUpdated));
+  }
+
+  private static SeriesImageQueryResult readImage(JsonReader reader) throws IOException {
+    SeriesImageQueryResult image = new SeriesImageQueryResult();
+    image.ratingsInfo = new SeriesImageQueryResult.RatingsInfo();
+    image.ratingsInfo.average = 0d;
+    image.ratingsInfo.count = 0;
+
+    reader.beginObject();
+    while (reader.hasNext()) {
+      switch (reader.nextName()) {
+        case "id":
+          image.id = nextInteger(reader);
+          break;
+
+        case "keyType":
+          image.keyType = nextString(reader);
+          break;
+
+        case "subKey":
+          image.subKey = nextString(reader);
+          break;
+
+        case "fileName":
+          image.fileName = nextString(reader);
+          break;
+
+        case "resolution":
+          image.resolution = nextString(reader);
+          break;
+
+        case "thumbnail":
+          image.thumbnail = nextString(reader);
+          break;
+
+        case "ratingsInfo":
+          if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            break;
+          }
+          reader.beginObject();
+          while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("average".equals(name)) {
+              Double average = nextDouble(reader);
+              image.ratingsInfo.average = average == null ? 0d : average;
+            }
+            else if ("count".equals(name)) {
+              Integer count = nextInteger(reader);
+              image.ratingsInfo.count = count == null ? 0 : count;
+            }
+            else {
+              reader.skipValue();
+            }
+          }
+          reader.endObject();
+          break;
+
+        default:
+          reader.skipValue();
+          break;
+      }
+    }
+    reader.endObject();
+    return image;
+  }
+
+  /**
+   * execute the request; returns null if the API has no data for the request
+   */
+  private static Response execute(OkHttpClient client, HttpUrl url, String language) throws IOException {
+    Request.Builder builder = new Request.Builder().url(url);
+    if (language != null) {
+      builder.header(HEADER_ACCEPT_LANGUAGE, language);
+    }
+    Response response = client.newCall(builder.build()).execute();
+    if (response.code() == 404) {
+      // the API answers with 404 if there is no data for the query
+      response.body().close();
+      return null;
+    }
+    if (!response.isSuccessful()) {
+      response.body().close();
+      throw new IOException("HTTP " + response.code() + " for " + url);
+    }
+    return response;
+  }
+
+  private static Integer nextInteger(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    if (reader.peek() == JsonToken.STRING) {
+      // some older entries have the numbers as strings
+      try {
+        return Integer.valueOf(reader.nextString());
+      }
+      catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return (int) reader.nextDouble();
+  }
+
+  /**
+   * read a number without boxing it; 0 for null or not parseable values
+   */
+  private static long nextLong(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return 0;
+    }
+    if (reader.peek() == JsonToken.STRING) {
+      try {
+        return Long.parseLong(reader.nextString());
+      }
+      catch (NumberFormatException e) {
+        return 0;
+      }
+    }
+    return (long) reader.nextDouble();
+  }
+
+  private static Double nextDouble(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return null;
+    }
+    if (reader.peek() == JsonToken.STRING) {
+      try {
+        return Double.valueOf(reader.nextString());
+      }
+      catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return reader.nextDouble();
+  }
+
+  private static String nextString(JsonReader reader) throws IOException {
+    if (reader.peek() == JsonToken.NULL) {
+      reader.nextNull();
+      return "";
+    }
+    return reader.nextString();
+  }
+}
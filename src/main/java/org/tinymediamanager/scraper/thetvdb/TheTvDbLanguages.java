@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+import com.uwetrottmann.thetvdb.entities.Language;
+
+/**
+ * The class TheTvDbLanguages holds the languages known by thetvdb.com. It is initialized from a bundled (versioned) snapshot, so that no API call is
+ * needed at startup; the snapshot can be replaced by the live list from the API at any time
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbLanguages {
+  private static final Logger                   LOGGER    = LoggerFactory.getLogger(TheTvDbLanguages.class);
+  private static final String                   SNAPSHOT  = "/thetvdb_languages.json";
+
+  private static volatile String                version   = "";
+  private static volatile Map<String, Language> languages = Collections.emptyMap();
+
+  static {
+    loadSnapshot();
+  }
+
+  /**
+   * get the language for the given abbreviation (e.g. "de")
+   *
+   * @param abbreviation
+   *          the language abbreviation
+   * @return the language or null if not known
+   */
+  public static Language get(String abbreviation) {
+    if (abbreviation == null) {
+      return null;
+    }
+    return languages.get(abbreviation);
+  }
+
+  /**
+   * get the tvdb id of the language for the given abbreviation
+   *
+   * @param abbreviation
+   *          the language abbreviation
+   * @return the id or 0 if not known
+   */
+  public static int getId(String abbreviation) {
+    Language language = get(abbreviation);
+    if (language == null || language.id == null) {
+      return 0;
+    }
+    return language.id;
+  }
+
+  /**
+   * the version of the currently used language list ("live" if it has been refreshed from the API)
+   *
+   * @return the version string
+   */
+  public static String getVersion() {
+    return version;
+  }
+
+  /**
+   * replace the language list with the one from the API
+   *
+   * @param newLanguages
+   *          the languages from the API
+   */
+  static void update(List<Language> newLanguages) {
+    if (newLanguages == null || newLanguages.isEmpty()) {
+      return;
+    }
+    languages = index(newLanguages);
+    version = "live";
+    LOGGER.debug("updated language list from the API (" + languages.size() + " languages)");
+  }
+
+  /**
+   * drop the language list from the API and go back to the bundled snapshot
+   */
+  static void reset() {
+    loadSnapshot();
+  }
+
+  private static void loadSnapshot() {
+    try (Reader reader = new InputStreamReader(TheTvDbLanguages.class.getResourceAsStream(SNAPSHOT), StandardCharsets.UTF_8)) {
+      LanguageSnapshot snapshot = new Gson().fromJson(reader, LanguageSnapshot.class);
+      languages = index(snapshot.data);
+      version = snapshot.version;
+    }
+    catch (Exception e) {
+      LOGGER.warn("could not load bundled language list: " + e.getMessage());
+    }
+  }
+
+  private static Map<String, Language> index(List<Language> list) {
+    Map<String, Language> map = new HashMap<>();
+    for (Language language : list) {
+      if (language.abbreviation != null) {
+        map.put(language.abbreviation, language);
+      }
+    }
+    return Collections.unmodifiableMap(map);
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class LanguageSnapshot {
+    private String         version;
+    private List<Language> data;
+  }
+}
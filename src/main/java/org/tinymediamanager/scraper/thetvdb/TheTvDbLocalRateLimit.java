@@ -0,0 +1,78 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+/**
+ * The class TheTvDbLocalRateLimit keeps the connections of the current time window in this JVM (default backend)
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbLocalRateLimit implements TheTvDbRateLimitBackend {
+  private final long          window;
+  private final Deque<Long>[] connections;
+
+  @SuppressWarnings("unchecked")
+  TheTvDbLocalRateLimit(long window) {
+    this.window = window;
+    this.connections = new Deque[Priority.values().length];
+    for (int i = 0; i < connections.length; i++) {
+      connections[i] = new ArrayDeque<>();
+    }
+  }
+
+  @Override
+  public synchronized long tryAcquire(Priority priority, long now, SlotPolicy policy) {
+    int[] counts = getCounts(now);
+    long nextExpiry = Long.MAX_VALUE;
+    for (Deque<Long> lane : connections) {
+      if (!lane.isEmpty()) {
+        nextExpiry = Math.min(nextExpiry, lane.peekFirst() + window);
+      }
+    }
+
+    long waitTime = policy.getWaitTime(priority, counts, nextExpiry, now);
+    if (waitTime <= 0) {
+      connections[priority.ordinal()].addLast(now);
+    }
+    return waitTime;
+  }
+
+  @Override
+  public synchronized int[] getCounts(long now) {
+    // remove the connections of the past time windows
+    int[] counts = new int[connections.length];
+    for (int i = 0; i < connections.length; i++) {
+      Deque<Long> lane = connections[i];
+      while (!lane.isEmpty() && lane.peekFirst() <= now - window) {
+        lane.removeFirst();
+      }
+      counts[i] = lane.size();
+    }
+    return counts;
+  }
+
+  @Override
+  public synchronized void clear() {
+    for (Deque<Long> lane : connections) {
+      lane.clear();
+    }
+  }
+}
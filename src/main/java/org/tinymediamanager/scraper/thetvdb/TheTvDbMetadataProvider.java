@@ -21,23 +21,39 @@ import static org.tinymediamanager.scraper.entities.MediaArtwork.MediaArtworkTyp
 import static org.tinymediamanager.scraper.entities.MediaArtwork.MediaArtworkType.POSTER;
 import static org.tinymediamanager.scraper.entities.MediaArtwork.MediaArtworkType.SEASON;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.Format;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.tinymediamanager.scraper.MediaMetadata;
@@ -46,6 +62,7 @@ import org.tinymediamanager.scraper.MediaScrapeOptions;
 import org.tinymediamanager.scraper.MediaSearchOptions;
 import org.tinymediamanager.scraper.MediaSearchResult;
 import org.tinymediamanager.scraper.UnsupportedMediaTypeException;
+import org.tinymediamanager.scraper.config.MediaProviderConfig;
 import org.tinymediamanager.scraper.entities.Certification;
 import org.tinymediamanager.scraper.entities.MediaArtwork;
 import org.tinymediamanager.scraper.entities.MediaArtwork.MediaArtworkType;
@@ -55,25 +72,26 @@ import org.tinymediamanager.scraper.entities.MediaEpisode;
 import org.tinymediamanager.scraper.entities.MediaGenres;
 import org.tinymediamanager.scraper.entities.MediaLanguages;
 import org.tinymediamanager.scraper.entities.MediaType;
-import org.tinymediamanager.scraper.http.TmmHttpClient;
 import org.tinymediamanager.scraper.mediaprovider.ITvShowArtworkProvider;
 import org.tinymediamanager.scraper.mediaprovider.ITvShowMetadataProvider;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbChangeTracker.Change;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbDataCache.LocalizedText;
 import org.tinymediamanager.scraper.util.ApiKey;
 import org.tinymediamanager.scraper.util.MetadataUtil;
 import org.tinymediamanager.scraper.util.StrgUtils;
 import org.tinymediamanager.scraper.util.TvUtils;
 
+import com.google.gson.reflect.TypeToken;
 import com.uwetrottmann.thetvdb.TheTvdb;
 import com.uwetrottmann.thetvdb.entities.Actor;
 import com.uwetrottmann.thetvdb.entities.ActorsResponse;
 import com.uwetrottmann.thetvdb.entities.Episode;
 import com.uwetrottmann.thetvdb.entities.EpisodeResponse;
 import com.uwetrottmann.thetvdb.entities.EpisodesResponse;
-import com.uwetrottmann.thetvdb.entities.Language;
 import com.uwetrottmann.thetvdb.entities.LanguagesResponse;
 import com.uwetrottmann.thetvdb.entities.Series;
 import com.uwetrottmann.thetvdb.entities.SeriesImageQueryResult;
-import com.uwetrottmann.thetvdb.entities.SeriesImageQueryResultResponse;
 import com.uwetrottmann.thetvdb.entities.SeriesImagesQueryParam;
 import com.uwetrottmann.thetvdb.entities.SeriesImagesQueryParamResponse;
 import com.uwetrottmann.thetvdb.entities.SeriesResponse;
@@ -81,6 +99,7 @@ import com.uwetrottmann.thetvdb.entities.SeriesResultsResponse;
 
 import net.xeoh.plugins.base.annotations.PluginImplementation;
 import okhttp3.OkHttpClient;
+import retrofit2.Retrofit;
 
 /**
  * The Class TheTvDbMetadataProvider.
@@ -89,11 +108,34 @@ import okhttp3.OkHttpClient;
  */
 @PluginImplementation
 public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShowArtworkProvider {
-  private static final Logger      LOGGER       = LoggerFactory.getLogger(TheTvDbMetadataProvider.class);
-  private static TheTvdb           tvdb;
-  private static List<Language>    tvdbLanguages;
-  private static MediaProviderInfo providerInfo = createMediaProviderInfo();
-  private static String            artworkUrl   = "http://thetvdb.com/banners/";
+  public static final String                   ABSOLUTE_NR    = "absoluteNumber";
+  // extra data of metadata served from the caches: the age (ms) of the oldest data used and whether any of it was expired
+  public static final String                   DATA_AGE       = "tvdbDataAge";
+  public static final String                   STALE          = "tvdbStale";
+  // extra data of metadata scraped with a field projection: the count of API calls which have been skipped
+  public static final String                   CALLS_SAVED    = "tvdbCallsSaved";
+  // extra data of the metadata: the lastUpdated stamp (unix time) of the series/episode and - for a differential rescrape - whether the series
+  // changed since the last scrape. Callers can pass the stamp of their last scrape as id LAST_UPDATED (only used to report the change)
+  public static final String                   LAST_UPDATED   = "tvdbLastUpdated";
+  public static final String                   CHANGED        = "tvdbChanged";
+
+  private static final Logger                  LOGGER         = LoggerFactory.getLogger(TheTvDbMetadataProvider.class);
+  private static final TheTvDbDataCache        DATA_CACHE     = new TheTvDbDataCache();
+  private static final TheTvDbSearchCache      SEARCH_CACHE   = new TheTvDbSearchCache();
+  private static final TheTvDbEpisodeMissCache EPISODE_MISSES = new TheTvDbEpisodeMissCache();
+  private static final TheTvDbPrefetcher       PREFETCHER     = new TheTvDbPrefetcher();
+  private static final TheTvDbSearchIndex      SEARCH_INDEX   = new TheTvDbSearchIndex();
+  private static final TheTvDbRevalidator      REVALIDATOR    = new TheTvDbRevalidator();
+  private static final TheTvDbChangeTracker    CHANGES        = new TheTvDbChangeTracker();
+  private static final AtomicLong              SAVED_CALLS    = new AtomicLong();
+  private static TheTvdbApi                    tvdb;
+  private static Thread                        warmUpThread;
+  private static TheTvDbArtworkCache           artworkCache;
+  private static volatile TheTvDbSharedCache   sharedCache;
+  private static TheTvDbSharedRateLimit        sharedRateLimit;
+  private static ExecutorService               executor;
+  private static MediaProviderInfo             providerInfo   = createMediaProviderInfo();
+  private static String                        artworkUrl     = "http://thetvdb.com/banners/";
 
   public TheTvDbMetadataProvider() {
   }
@@ -109,6 +151,31 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
       fallbackLanguages.add(mediaLanguages.toString());
     }
     providerInfo.getConfig().addSelect("fallbackLanguage", fallbackLanguages.toArray(new String[0]), MediaLanguages.en.toString());
+    providerInfo.getConfig().addBoolean("prefetchArtwork", false);
+    // the folder of the local artwork cache (empty = thetvdb_artwork in the temp folder of the system)
+    providerInfo.getConfig().addText("artworkCacheFolder", "");
+    // fetch the episode listing and the artwork in the background after a series has been scraped
+    providerInfo.getConfig().addBoolean("prefetch", false);
+    // share the rate limit with other processes on this host using the same file
+    providerInfo.getConfig().addText("sharedRateLimitFile", "");
+    // share the fetched data with other processes on this host using the same file
+    providerInfo.getConfig().addText("sharedCacheFile", "");
+    // the max entries and the size (MB) of the shared cache; if it is full, it starts over (all processes have to use the same settings)
+    providerInfo.getConfig().addText("sharedCacheEntries", "49152");
+    providerInfo.getConfig().addText("sharedCacheSizeMb", "256");
+    // answer from the caches at once (even with expired data) and fetch the expired data again in the background
+    providerInfo.getConfig().addBoolean("serveStale", false);
+    // never call the api (air-gapped nodes): everything is answered from the caches
+    providerInfo.getConfig().addBoolean("offline", false);
+    // trace a share (0..1) of the scrapes and every scrape slower than traceSlowMs; the traces go to the log or to the traceFile (JSON lines)
+    providerInfo.getConfig().addText("traceSampleRate", "0");
+    providerInfo.getConfig().addText("traceSlowMs", "0");
+    providerInfo.getConfig().addText("traceFile", "");
+    // reject scrapes (or answer them from the caches) if their estimated wait for the rate limit exceeds this budget (ms, 0 = off)
+    providerInfo.getConfig().addText("admissionBudgetMs", "0");
+    providerInfo.getConfig().addBoolean("admissionDegrade", false);
+    // rescrapes check the lastUpdated stamp of the series first and fetch the actors, episodes and artwork again only if they changed
+    providerInfo.getConfig().addBoolean("differentialRescrape", false);
     providerInfo.getConfig().load();
 
     return providerInfo;
@@ -117,30 +184,108 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
   private static synchronized void initAPI() throws Exception {
     if (tvdb == null) {
       try {
-        tvdb = new TheTvdb(ApiKey.decryptApikey("7bHHg4k0XhRERM8xd3l+ElhMUXOA5Ou4vQUEzYLGHt8=")) {
-          // tell the tmdb api to use our OkHttp client
-          private OkHttpClient okHttpClient;
-
-          @Override
-          protected synchronized OkHttpClient okHttpClient() {
-            if (this.okHttpClient == null) {
-              OkHttpClient.Builder builder = TmmHttpClient.newBuilder();
-              this.setOkHttpClientDefaults(builder);
-              this.okHttpClient = builder.build();
-            }
-
-            return this.okHttpClient;
-          }
-        };
-        TheTvDbConnectionCounter.trackConnections();
-        LanguagesResponse response = tvdb.languages().allAvailable().execute().body();
-        tvdbLanguages = response.data;
+        tvdb = new TheTvdbApi(ApiKey.decryptApikey("7bHHg4k0XhRERM8xd3l+ElhMUXOA5Ou4vQUEzYLGHt8="));
       }
       catch (Exception e) {
         LOGGER.error("TheTvDbMetadataProvider", e);
         throw e;
       }
+
+      // other processes with the same api key on this host share the rate limit
+      String sharedRateLimitFile = providerInfo.getConfig().getValue("sharedRateLimitFile");
+      if (StringUtils.isNotBlank(sharedRateLimitFile)) {
+        try {
+          sharedRateLimit = new TheTvDbSharedRateLimit(Paths.get(sharedRateLimitFile), TheTvDbConnectionCounter.MAX_CONNECTIONS,
+              TheTvDbConnectionCounter.TIME_WINDOW + TheTvDbConnectionCounter.SAFETY_MARGIN);
+          TheTvDbConnectionCounter.setBackend(sharedRateLimit);
+        }
+        catch (Exception e) {
+          LOGGER.warn("could not use the shared rate limit file " + sharedRateLimitFile + ": " + e.getMessage());
+        }
+      }
+
+      // other processes on this host share the fetched data
+      String sharedCacheFile = providerInfo.getConfig().getValue("sharedCacheFile");
+      if (StringUtils.isNotBlank(sharedCacheFile)) {
+        try {
+          int entries = Math.max(NumberUtils.toInt(providerInfo.getConfig().getValue("sharedCacheEntries"), 49152), 1);
+          long sizeMb = Math.max(NumberUtils.toLong(providerInfo.getConfig().getValue("sharedCacheSizeMb"), 256), 1);
+          // max 3/4 of the index slots are used
+          sharedCache = new TheTvDbSharedCache(Paths.get(sharedCacheFile), entries / 3 * 4 + 4, sizeMb * 1024 * 1024);
+        }
+        catch (Exception e) {
+          LOGGER.warn("could not use the shared cache file " + sharedCacheFile + ": " + e.getMessage());
+        }
+      }
+
+      // the bundled language list is used until the warm-up has fetched the live one
+      if (!isOffline()) {
+        warmUp();
+      }
+    }
+  }
+
+  /**
+   * drop the API instance, so that the next call creates a new one (e.g. after the API url has been redirected). The shared files are closed
+   * and opened again (with the current settings) by the next call too
+   */
+  static synchronized void resetAPI() {
+    tvdb = null;
+    warmUpThread = null;
+
+    if (sharedRateLimit != null) {
+      TheTvDbConnectionCounter.setBackend(new TheTvDbLocalRateLimit(TheTvDbConnectionCounter.TIME_WINDOW + TheTvDbConnectionCounter.SAFETY_MARGIN));
+      close(sharedRateLimit);
+      sharedRateLimit = null;
+    }
+    if (sharedCache != null) {
+      // running scrapes still holding the cache fail to write only
+      close(sharedCache);
+      sharedCache = null;
+    }
+  }
+
+  private static void close(Closeable closeable) {
+    try {
+      closeable.close();
     }
+    catch (IOException e) {
+      LOGGER.debug("could not close " + closeable + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * warm up the API in the background: create the http client, open the connection to the API, log in and refresh the language list. This
+   * can be called before the first scrape to move the startup costs off the scraping thread
+   */
+  public static synchronized void warmUp() {
+    if (warmUpThread != null) {
+      return;
+    }
+
+    warmUpThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        // nobody is waiting for the warm-up
+        TheTvDbConnectionCounter.setPriority(Priority.BACKGROUND);
+        try {
+          initAPI();
+          // the pre-warm request counts against the rate limit too
+          TheTvDbConnectionCounter.trackConnections();
+          TheTvDbTransport.prewarm(tvdb.okHttpClient(), TheTvDbTransport.getApiUrl());
+          TheTvDbConnectionCounter.trackConnections();
+          LanguagesResponse response = tvdb.languages().allAvailable().execute().body();
+          if (response != null) {
+            TheTvDbLanguages.update(response.data);
+          }
+        }
+        catch (Exception e) {
+          LOGGER.warn("warm-up failed - using bundled language list " + TheTvDbLanguages.getVersion() + ": " + e.getMessage());
+        }
+      }
+    }, "tvdb-warmup");
+    warmUpThread.setDaemon(true);
+    warmUpThread.start();
   }
 
   @Override
@@ -149,29 +294,129 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
   }
 
   @Override
-  public MediaMetadata getMetadata(MediaScrapeOptions mediaScrapeOptions) throws Exception {
+  public MediaMetadata getMetadata(final MediaScrapeOptions mediaScrapeOptions) throws Exception {
     // lazy initialization of the api
     initAPI();
 
     LOGGER.debug("getting metadata: " + mediaScrapeOptions);
-    switch (mediaScrapeOptions.getType()) {
-      case TV_SHOW:
-        return getTvShowMetadata(mediaScrapeOptions);
-
-      case TV_EPISODE:
-        return getEpisodeMetadata(mediaScrapeOptions);
-
-      default:
-        throw new UnsupportedMediaTypeException(mediaScrapeOptions.getType());
-    }
+    return serve("getMetadata", mediaScrapeOptions.toString(), new Callable<MediaMetadata>() {
+      @Override
+      public MediaMetadata call() throws Exception {
+        switch (mediaScrapeOptions.getType()) {
+          case TV_SHOW:
+            return getTvShowMetadata(mediaScrapeOptions);
+
+          case TV_EPISODE:
+            return getEpisodeMetadata(mediaScrapeOptions);
+
+          default:
+            throw new UnsupportedMediaTypeException(mediaScrapeOptions.getType());
+        }
+      }
+    });
   }
 
   @Override
-  public List<MediaSearchResult> search(MediaSearchOptions options) throws Exception {
+  public List<MediaSearchResult> search(final MediaSearchOptions options) throws Exception {
     // lazy initialization of the api
     initAPI();
 
     LOGGER.debug("search() " + options.toString());
+    return serve("search", options.toString(), new Callable<List<MediaSearchResult>>() {
+      @Override
+      public List<MediaSearchResult> call() throws Exception {
+        return searchTvShows(options);
+      }
+    });
+  }
+
+  /**
+   * run the scrape of an entry point: traced (see {@link TheTvDbTrace}), admitted if the wait for the rate limit fits into the budget of the
+   * caller (see {@link TheTvDbAdmission}) and answered from the caches if activated
+   */
+  private <T> T serve(String operation, String options, Callable<T> scrape) throws Exception {
+    MediaProviderConfig config = providerInfo.getConfig();
+    TheTvDbTrace.Span trace = TheTvDbTrace.startTrace(operation, NumberUtils.toDouble(config.getValue("traceSampleRate")),
+        NumberUtils.toLong(config.getValue("traceSlowMs")), config.getValue("traceFile"));
+    trace.attribute("options", options);
+    try {
+      boolean admitted = TheTvDbAdmission.admit(operation, TheTvDbAdmission.getBudget(NumberUtils.toLong(config.getValue("admissionBudgetMs"))),
+          Boolean.TRUE.equals(config.getValueAsBool("admissionDegrade")));
+      if (!admitted) {
+        LOGGER.debug("rate limit backlog exceeds the budget - answering " + operation + " from the caches");
+        LOGGER.trace(TheTvDbAdmission.getStatistics());
+      }
+      return serveFromCaches(operation + " " + options, scrape, !admitted);
+    }
+    finally {
+      trace.end();
+    }
+  }
+
+  /**
+   * answer the call from the caches if activated (see {@link TheTvDbStaleness}):<br>
+   * - offline: the scrape never calls the api, data which is not cached is missing in the result<br>
+   * - serve stale: the scrape is answered from the caches at once if all data is cached (even if expired); the expired data is fetched again in
+   * the background. If anything is not cached, the scrape calls the api as usual<br>
+   * Metadata served from the caches gets the age of the data as extra data. Scrapes which have not been admitted are answered like offline
+   */
+  private <T> T serveFromCaches(String key, Callable<T> scrape, boolean cacheOnly) throws Exception {
+    boolean offline = cacheOnly || isOffline();
+    if (!offline && !Boolean.TRUE.equals(providerInfo.getConfig().getValueAsBool("serveStale"))) {
+      return scrape.call();
+    }
+
+    TheTvDbStaleness staleness = TheTvDbStaleness.begin();
+    TheTvDbTrace.Span span = TheTvDbTrace.start("cache only");
+    T result;
+    try {
+      result = scrape.call();
+    }
+    finally {
+      TheTvDbStaleness.end();
+      span.attribute("missing", staleness.getMissing()).attribute("stale", staleness.isStale()).end();
+    }
+
+    if (staleness.getMissing() > 0) {
+      if (!offline) {
+        LOGGER.debug("not everything is cached - scraping " + key);
+        return scrape.call();
+      }
+      LOGGER.debug("offline: " + staleness.getMissing() + " api calls skipped for " + key);
+    }
+    else if (staleness.isStale() && !offline) {
+      REVALIDATOR.revalidate(key, scrape);
+      LOGGER.trace(REVALIDATOR.getStatistics());
+    }
+
+    LOGGER.debug("served " + key + " from the caches (data age " + staleness.getAge() / 1000 + "s)");
+    if (result instanceof MediaMetadata) {
+      addStaleness((MediaMetadata) result, staleness);
+    }
+    else if (result instanceof TheTvDbSeriesBundle) {
+      addStaleness(((TheTvDbSeriesBundle) result).getMetadata(), staleness);
+    }
+    else if (result instanceof Map || result instanceof Collection) {
+      Collection<?> values = result instanceof Map ? ((Map<?, ?>) result).values() : (Collection<?>) result;
+      for (Object value : values) {
+        if (value instanceof MediaMetadata) {
+          addStaleness((MediaMetadata) value, staleness);
+        }
+      }
+    }
+    return result;
+  }
+
+  private static void addStaleness(MediaMetadata md, TheTvDbStaleness staleness) {
+    md.addExtraData(DATA_AGE, staleness.getAge());
+    md.addExtraData(STALE, staleness.isStale());
+  }
+
+  private static boolean isOffline() {
+    return Boolean.TRUE.equals(providerInfo.getConfig().getValueAsBool("offline"));
+  }
+
+  private List<MediaSearchResult> searchTvShows(MediaSearchOptions options) throws Exception {
     List<MediaSearchResult> results = new ArrayList<>();
 
     if (options.getMediaType() != MediaType.TV_SHOW) {
@@ -190,281 +435,725 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
     }
 
     String language = options.getLanguage().getLanguage();
-    String fallbackLanguage = MediaLanguages.get(providerInfo.getConfig().getValue("fallbackLanguage")).getLanguage();
+    String fallbackLanguage = getFallbackLanguage();
     String country = options.getCountry().name(); // for passing the country to the scrape
 
-    // search via the api; 2 times if the language of the options and fallback language differ
+    // repeated (or nearly equal) queries are answered from the search cache
+    String cacheKey = TheTvDbSearchCache.createKey(searchString, language, fallbackLanguage);
+    List<MediaSearchResult> candidates = SEARCH_CACHE.get(cacheKey);
+    if (candidates != null) {
+      LOGGER.debug("found " + candidates.size() + " results in the search cache");
+      return scoreResults(searchString, options, candidates);
+    }
+
+    // shows we know already are found in the local search index; the api is only asked if there is no confident match
+    results = scoreResults(searchString, options, searchIndex(searchString, language, fallbackLanguage, options.getMediaType()));
+    if (isConfident(results, options.getYear())) {
+      LOGGER.debug("found " + results.get(0).getTitle() + " in the local search index");
+      // series which have been fetched directly (not found by a search) have no poster in the index yet
+      if (StringUtils.isBlank(results.get(0).getPosterUrl())) {
+        int id = Integer.parseInt(results.get(0).getId());
+        results.get(0).setPosterUrl(getPosterUrl(id));
+        SEARCH_INDEX.setPosterUrl(id, results.get(0).getPosterUrl());
+      }
+      LOGGER.trace(SEARCH_INDEX.getStatistics());
+      return results;
+    }
+
+    // no api: the matches of the local index are all we have
+    if (TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbStaleness.recordMissing();
+      return results;
+    }
+
+    candidates = searchSeries(searchString, language, fallbackLanguage, options.getMediaType(), cacheKey);
+    return scoreResults(searchString, options, candidates);
+  }
+
+  /**
+   * score and sort the search results (on a copy - the given results may be cached and must not be changed)
+   */
+  private List<MediaSearchResult> scoreResults(String searchString, MediaSearchOptions options, List<MediaSearchResult> candidates) {
+    TheTvDbTrace.Span span = TheTvDbTrace.start("map search results").attribute("results", candidates.size());
+    try {
+      List<MediaSearchResult> results = new ArrayList<>();
+      for (MediaSearchResult candidate : candidates) {
+        MediaSearchResult result = new MediaSearchResult(providerInfo.getId(), options.getMediaType());
+        result.setId(candidate.getId());
+        result.setTitle(candidate.getTitle());
+        result.setYear(candidate.getYear());
+        result.setPosterUrl(candidate.getPosterUrl());
+
+        float score = MetadataUtil.calculateScore(searchString, candidate.getTitle());
+        if (yearDiffers(options.getYear(), result.getYear())) {
+          float diff = (float) Math.abs(options.getYear() - result.getYear()) / 100;
+          LOGGER.debug("parsed year does not match search result year - downgrading score by " + diff);
+          score -= diff;
+        }
+        result.setScore(score);
+        results.add(result);
+      }
+
+      // sort
+      Collections.sort(results);
+      Collections.reverse(results);
+
+      return results;
+    }
+    finally {
+      span.end();
+    }
+  }
+
+  /**
+   * whether the best of the scored results is a confident match: a high score, no other result with the same score and the year of the search.
+   * Without a year the name alone does not tell series with the same name apart (the index may not know all of them)
+   */
+  private boolean isConfident(List<MediaSearchResult> results, int year) {
+    if (results.isEmpty() || results.get(0).getScore() < TheTvDbSearchIndex.CONFIDENT_SCORE) {
+      return false;
+    }
+    if (year <= 0 || results.get(0).getYear() != year) {
+      return false;
+    }
+    return results.size() == 1 || results.get(1).getScore() < results.get(0).getScore();
+  }
+
+  /**
+   * search the series in the local index of all fetched series names (unscored)
+   */
+  private List<MediaSearchResult> searchIndex(String searchString, String language, String fallbackLanguage, MediaType type) {
+    List<MediaSearchResult> results = new ArrayList<>();
+    for (TheTvDbSearchIndex.Entry entry : SEARCH_INDEX.search(searchString, Arrays.asList(language, fallbackLanguage))) {
+      MediaSearchResult result = new MediaSearchResult(providerInfo.getId(), type);
+      result.setId(String.valueOf(entry.id));
+      result.setTitle(entry.title);
+      if (entry.year > 0) {
+        result.setYear(entry.year);
+      }
+      result.setPosterUrl(entry.posterUrl);
+      results.add(result);
+    }
+    return results;
+  }
+
+  /**
+   * search via the api; 2 times if the language of the options and fallback language differ. The (unscored) results are put into the search
+   * cache if all calls were successful
+   */
+  private List<MediaSearchResult> searchSeries(String searchString, String language, String fallbackLanguage, MediaType type, String cacheKey) {
     List<Series> series = new ArrayList<>();
-    synchronized (tvdb) {
-      // first with the desired scraping language
-      TheTvDbConnectionCounter.trackConnections();
-      try {
-        SeriesResultsResponse response = tvdb.search().series(searchString, null, null, language).execute().body();
+    // the language of the names of the found series
+    List<String> seriesLanguages = new ArrayList<>();
+    boolean successful = true;
+    TheTvDbTrace.Span span = TheTvDbTrace.start("search series").attribute("name", searchString);
+    // first with the desired scraping language
+    TheTvDbConnectionCounter.trackConnections();
+    try {
+      SeriesResultsResponse response = tvdb.search().series(searchString, null, null, language).execute().body();
+      // no response: nothing found
+      if (response != null) {
         series.addAll(response.data);
+        seriesLanguages.addAll(Collections.nCopies(response.data.size(), language));
       }
-      catch (Exception e) {
-        LOGGER.error("problem getting data vom tvdb: " + e.getMessage());
-      }
+    }
+    catch (Exception e) {
+      LOGGER.error("problem getting data vom tvdb: " + e.getMessage());
+      successful = false;
+    }
 
-      // second with the fallback language
-      if (!fallbackLanguage.equals(language)) {
-        TheTvDbConnectionCounter.trackConnections();
-        try {
-          SeriesResultsResponse response = tvdb.search().series(searchString, null, null, fallbackLanguage).execute().body();
+    // second with the fallback language
+    if (!fallbackLanguage.equals(language)) {
+      TheTvDbConnectionCounter.trackConnections();
+      try {
+        SeriesResultsResponse response = tvdb.search().series(searchString, null, null, fallbackLanguage).execute().body();
+        if (response != null) {
           series.addAll(response.data);
-        }
-        catch (Exception e) {
-          LOGGER.error("problem getting data vom tvdb: " + e.getMessage());
+          seriesLanguages.addAll(Collections.nCopies(response.data.size(), fallbackLanguage));
         }
       }
-
-      LOGGER.debug("found " + series.size() + " results with TMDB id");
+      catch (Exception e) {
+        LOGGER.error("problem getting data vom tvdb: " + e.getMessage());
+        successful = false;
+      }
     }
+    span.attribute("results", series.size()).end();
 
-    if (series.isEmpty()) {
-      return results;
-    }
+    LOGGER.debug("found " + series.size() + " results with TMDB id");
 
     // make sure there are no duplicates (e.g. if a show has been found in both languages)
-    Map<Integer, MediaSearchResult> resultMap = new HashMap<>();
+    Map<Integer, MediaSearchResult> resultMap = new LinkedHashMap<>();
 
-    for (Series show : series) {
+    for (int i = 0; i < series.size(); i++) {
+      Series show = series.get(i);
       // check if that show has already a result
       if (resultMap.containsKey(show.id)) {
+        SEARCH_INDEX.add(show.id, seriesLanguages.get(i), show.seriesName, show.aliases, TheTvDbSearchIndex.parseYear(show.firstAired),
+            resultMap.get(show.id).getPosterUrl());
         continue;
       }
 
       // build up a new result
-      MediaSearchResult result = new MediaSearchResult(providerInfo.getId(), options.getMediaType());
+      MediaSearchResult result = new MediaSearchResult(providerInfo.getId(), type);
       result.setId(show.id.toString());
       result.setTitle(show.seriesName);
-      try {
-        result.setYear(Integer.parseInt(show.firstAired.substring(0, 4)));
-      }
-      catch (Exception ignored) {
+      int year = TheTvDbSearchIndex.parseYear(show.firstAired);
+      if (year > 0) {
+        result.setYear(year);
       }
 
-      // for how the api responds only a banner - we would like to have a poster here;
-      // just try to fetch the poster url
-      try {
-        SeriesImageQueryResultResponse response = tvdb.series().imagesQuery(show.id, "poster", null, null, null).execute().body();
-        if (response != null && !response.data.isEmpty()) {
-          result.setPosterUrl(artworkUrl + response.data.get(0).fileName);
-        }
-      }
-      catch (Exception e) {
-        LOGGER.warn("could not get poster for search result: " + e.getMessage());
-      }
+      // for how the api responds only a banner - we would like to have a poster here
+      result.setPosterUrl(getPosterUrl(show.id));
 
-      float score = MetadataUtil.calculateScore(searchString, show.seriesName);
-      if (yearDiffers(options.getYear(), result.getYear())) {
-        float diff = (float) Math.abs(options.getYear() - result.getYear()) / 100;
-        LOGGER.debug("parsed year does not match search result year - downgrading score by " + diff);
-        score -= diff;
-      }
-      result.setScore(score);
-
-      // results.add(result);
+      SEARCH_INDEX.add(show.id, seriesLanguages.get(i), show.seriesName, show.aliases, year, result.getPosterUrl());
       resultMap.put(show.id, result);
     }
 
-    // and convert all entries from the map to a list
-    results.addAll(resultMap.values());
-
-    // sort
-    Collections.sort(results);
-    Collections.reverse(results);
-
+    List<MediaSearchResult> results = new ArrayList<>(resultMap.values());
+    if (successful) {
+      SEARCH_CACHE.put(cacheKey, results);
+    }
+    LOGGER.trace(SEARCH_CACHE.getStatistics());
     return results;
   }
 
   private MediaMetadata getTvShowMetadata(MediaScrapeOptions options) throws Exception {
     MediaMetadata md = new MediaMetadata(providerInfo.getId());
-    Integer id = 0;
-
-    // id from result
-    if (options.getResult() != null) {
-      try {
-        id = Integer.parseInt(options.getResult().getId());
-      }
-      catch (Exception ignored) {
-      }
+    int id = getTvdbId(options);
+    if (id == 0) {
+      return md;
     }
 
-    // do we have an id from the options?
-    if (id == 0) {
-      try {
-        id = Integer.parseInt(options.getId(providerInfo.getId()));
-      }
-      catch (Exception ignored) {
-      }
+    String language = options.getLanguage().getLanguage();
+    checkForChanges(id, language, options);
+    LocalizedText text = getSeriesText(id, language);
+    Series show = getSeries(id, language);
+    if (text == null || show == null) {
+      return md;
     }
 
-    // do we have the id in the alternate form?
-    if (id == 0) {
-      try {
-        id = Integer.parseInt(options.getId("tvdb"));
-      }
-      catch (Exception ignored) {
+    // if there is no localized content and we have a fallback language, rescrape in the fallback language (if the texts are requested)
+    Set<TheTvDbField> fields = TheTvDbField.getFields(options);
+    int saved = 0;
+    String fallbackLanguage = getFallbackLanguage();
+    if (StringUtils.isAnyBlank(text.title, text.overview) && !fallbackLanguage.equals(language)) {
+      LocalizedText fallbackText = needsFallbackText(text, fields) ? getSeriesText(id, fallbackLanguage)
+          : DATA_CACHE.getSeriesText(id, fallbackLanguage);
+      if (fallbackText == null && !needsFallbackText(text, fields)) {
+        saved++;
       }
+      text = mergeTexts(text, fallbackText);
     }
 
-    if (id == 0) {
-      return md;
+    // the actors only feed the cast
+    List<Actor> actors = new ArrayList<>();
+    if (fields.contains(TheTvDbField.CAST)) {
+      actors = getActors(id);
+    }
+    else if (DATA_CACHE.getActors(id) == null) {
+      saved++;
     }
 
-    Series show = null;
-    synchronized (tvdb) {
-      try {
-        TheTvDbConnectionCounter.trackConnections();
-        SeriesResponse response = tvdb.series().series(id, options.getLanguage().getLanguage()).execute().body();
-        show = response.data;
+    fillTvShowMetadata(md, show, text, actors);
+    reportSavedCalls(Collections.singletonList(md), saved);
+    prefetch(id, Collections.singletonList(language));
+    return md;
+  }
+
+  /**
+   * scrape the TV show metadata in several languages in one pass: the language independent data (actors, the fallback language) is fetched only
+   * once and the localized series data of all languages is fetched in parallel
+   *
+   * @param options
+   *          the scrape options (the language of the options is not used)
+   * @param languages
+   *          the languages to scrape
+   * @return the metadata per language (in the order of the given languages)
+   * @throws Exception
+   *           any exception while scraping
+   */
+  public Map<Locale, MediaMetadata> getTvShowMetadata(final MediaScrapeOptions options, final Collection<Locale> languages) throws Exception {
+    // lazy initialization of the api
+    initAPI();
+
+    LOGGER.debug("getting metadata in " + languages + ": " + options);
+    return serve("getTvShowMetadata", languages + " " + options, new Callable<Map<Locale, MediaMetadata>>() {
+      @Override
+      public Map<Locale, MediaMetadata> call() throws Exception {
+        return scrapeTvShowMetadata(options, languages);
       }
-      catch (Exception e) {
-        LOGGER.error("failed to get meta data: " + e.getMessage());
+    });
+  }
+
+  private Map<Locale, MediaMetadata> scrapeTvShowMetadata(MediaScrapeOptions options, Collection<Locale> languages) throws Exception {
+    Map<Locale, MediaMetadata> result = new LinkedHashMap<>();
+
+    final int id = getTvdbId(options);
+    if (id == 0) {
+      for (Locale locale : languages) {
+        result.put(locale, new MediaMetadata(providerInfo.getId()));
       }
+      return result;
     }
 
-    if (show == null) {
-      return md;
-    }
+    checkForChanges(id, getFallbackLanguage(), options);
 
-    // if there is no localized content and we have a fallback language, rescrape in the fallback language
-    String fallbackLanguage = MediaLanguages.get(providerInfo.getConfig().getValue("fallbackLanguage")).getLanguage();
-    if (StringUtils.isAnyBlank(show.seriesName, show.overview) && !fallbackLanguage.equals(options.getLanguage().getLanguage())) {
-      synchronized (tvdb) {
-        try {
-          TheTvDbConnectionCounter.trackConnections();
-          SeriesResponse response = tvdb.series().series(id, fallbackLanguage).execute().body();
-          Series fallBackShow = response.data;
-          if (StringUtils.isBlank(show.seriesName) && StringUtils.isNotBlank(fallBackShow.seriesName)) {
-            show.seriesName = fallBackShow.seriesName;
-          }
-          if (StringUtils.isBlank(show.overview) && StringUtils.isNotBlank(fallBackShow.overview)) {
-            show.overview = fallBackShow.overview;
-          }
+    // the localized data - in parallel
+    Map<Locale, Future<LocalizedText>> texts = new LinkedHashMap<>();
+    for (final Locale locale : languages) {
+      texts.put(locale, submit(new Callable<LocalizedText>() {
+        @Override
+        public LocalizedText call() throws Exception {
+          return getSeriesText(id, locale.getLanguage());
         }
-        catch (Exception e) {
-          LOGGER.error("failed to get meta data: " + e.getMessage());
+      }));
+    }
+
+    // the language independent data - only once (and only if the cast is requested)
+    Set<TheTvDbField> fields = TheTvDbField.getFields(options);
+    int saved = 0;
+    List<Actor> actors = new ArrayList<>();
+    if (fields.contains(TheTvDbField.CAST)) {
+      actors = getActors(id);
+    }
+    else if (DATA_CACHE.getActors(id) == null) {
+      saved++;
+    }
+
+    // the fallback texts are taken from the cache if the fallback language has been requested too
+    String fallbackLanguage = getFallbackLanguage();
+    boolean fallbackSkipped = false;
+    for (Map.Entry<Locale, Future<LocalizedText>> entry : texts.entrySet()) {
+      MediaMetadata md = new MediaMetadata(providerInfo.getId());
+      LocalizedText text = entry.getValue().get();
+      Series show = getSeries(id, entry.getKey().getLanguage());
+      if (text != null && show != null) {
+        if (StringUtils.isAnyBlank(text.title, text.overview) && !fallbackLanguage.equals(entry.getKey().getLanguage())) {
+          LocalizedText fallbackText = needsFallbackText(text, fields) ? getSeriesText(id, fallbackLanguage)
+              : DATA_CACHE.getSeriesText(id, fallbackLanguage);
+          fallbackSkipped |= fallbackText == null && !needsFallbackText(text, fields);
+          text = mergeTexts(text, fallbackText);
         }
+        fillTvShowMetadata(md, show, text, actors);
       }
+      result.put(entry.getKey(), md);
     }
-
-    // populate metadata
-    md.setId(providerInfo.getId(), show.id);
-    md.setTitle(show.seriesName);
-    if (StringUtils.isNotBlank(show.imdbId)) {
-      md.setId(MediaMetadata.IMDB, show.imdbId);
+    if (fallbackSkipped && DATA_CACHE.getSeriesText(id, fallbackLanguage) == null) {
+      saved++;
     }
-    md.setPlot(show.overview);
+    reportSavedCalls(result.values(), saved);
 
-    try {
-      md.setRuntime(Integer.valueOf(show.runtime));
+    List<String> prefetchLanguages = new ArrayList<>();
+    for (Locale locale : languages) {
+      prefetchLanguages.add(locale.getLanguage());
     }
-    catch (NumberFormatException e) {
-      md.setRuntime(0);
+    prefetch(id, prefetchLanguages);
+    return result;
+  }
+
+  /**
+   * prefetch the data which is usually requested after the series (the episode listing and the artwork) in the background (if activated)
+   */
+  private void prefetch(final int id, Collection<String> languages) {
+    // no prefetches for scrapes which must not call the api
+    if (!Boolean.TRUE.equals(providerInfo.getConfig().getValueAsBool("prefetch")) || TheTvDbStaleness.isCacheOnly()) {
+      return;
+    }
+
+    Set<String> listingLanguages = new LinkedHashSet<>(languages);
+    listingLanguages.add(getFallbackLanguage());
+    for (final String language : listingLanguages) {
+      PREFETCHER.prefetch("episodes/" + id + "/" + language, new Callable<TheTvDbEpisodeIndex>() {
+        @Override
+        public TheTvDbEpisodeIndex call() throws Exception {
+          return getEpisodeIndex(id, language);
+        }
+      });
+    }
+
+    // the images end up in the data cache
+    for (final String language : languages) {
+      PREFETCHER.prefetch("artwork/" + id + "/" + language, new Callable<Boolean>() {
+        @Override
+        public Boolean call() throws Exception {
+          for (SeriesImagesQueryParam param : getImageTypes(id)) {
+            if (!"seasonwide".equals(param.keyType)) {
+              getImages(id, param.keyType, language);
+              getImages(id, param.keyType, null);
+            }
+          }
+          return Boolean.TRUE;
+        }
+      });
     }
+    LOGGER.trace(PREFETCHER.getStatistics());
+  }
 
-    md.setRating(show.siteRating);
-    md.setVoteCount(TvUtils.parseInt(show.siteRatingCount));
+  /**
+   * get the language independent record of the series (from the cache or fetched in the given language)
+   *
+   * @return the series or null if it could not be fetched
+   */
+  private Series getSeries(int id, String language) {
+    Series show = DATA_CACHE.getSeries(id);
+    if (show == null) {
+      show = fetchSeries(id, language);
+    }
+    return show;
+  }
 
-    try {
-      md.setReleaseDate(StrgUtils.parseDate(show.firstAired));
+  /**
+   * get the texts of the series in the given language (from the cache or fetched)
+   *
+   * @return the texts or null if the series could not be fetched
+   */
+  private LocalizedText getSeriesText(int id, String language) {
+    LocalizedText text = DATA_CACHE.getSeriesText(id, language);
+    if (text == null) {
+      Series show = fetchSeries(id, language);
+      if (show != null) {
+        text = new LocalizedText(show.seriesName, show.overview);
+      }
     }
-    catch (ParseException ignored) {
+    return text;
+  }
+
+  /**
+   * differential rescrape (if activated): fetch the series record as the cheap marker and compare its lastUpdated stamp with the one of the last
+   * scrape (or the one the caller passed as id {@link #LAST_UPDATED}). The cached data of the series is verified against the current stamp: data
+   * fetched after the last update is used again (even if expired) - in the data cache and in the shared cache, older data is fetched again. The
+   * stamp of the caller only decides whether the series is reported as changed: fetches are only saved for data the provider (or the shared
+   * cache) still has. A series is checked at most once per check interval, so the entry points of one rescrape share the check
+   */
+  private void checkForChanges(int id, String language, MediaScrapeOptions options) {
+    if (!isDifferential() || TheTvDbStaleness.isCacheOnly() || !CHANGES.startCheck(id)) {
+      return;
     }
 
+    TheTvDbTrace.Span span = TheTvDbTrace.start("check for changes").attribute("id", id);
     try {
-      Date date = StrgUtils.parseDate(show.firstAired);
-      Calendar calendar = Calendar.getInstance();
-      calendar.setTime(date);
-      int y = calendar.get(Calendar.YEAR);
-      md.setYear(y);
-      if (y != 0 && md.getTitle().contains(String.valueOf(y))) {
-        LOGGER.debug("Weird TVDB entry - removing date " + y + " from title");
-        String t = show.seriesName.replaceAll(String.valueOf(y), "").replaceAll("\\(\\)", "").trim();
-        md.setTitle(t);
+      Series show = fetchSeries(id, language, TheTvDbChangeTracker.CHECK_INTERVAL);
+      if (show == null || show.lastUpdated == null) {
+        return;
       }
+      long known = options == null ? 0 : NumberUtils.toLong(options.getId(LAST_UPDATED));
+      Change change = CHANGES.checkSeries(id, show.lastUpdated, known > 0 ? known : null);
+      int renewed = DATA_CACHE.verifySeries(id, show.lastUpdated * 1000 + TheTvDbChangeTracker.CLOCK_MARGIN);
+      CHANGES.savedCalls(renewed);
+      span.attribute("change", change).attribute("renewed", renewed);
+      LOGGER.trace(CHANGES.getStatistics());
     }
-    catch (Exception ignored) {
+    finally {
+      span.end();
     }
+  }
 
-    md.setStatus(show.status);
-    md.addProductionCompany(show.network);
+  private static boolean isDifferential() {
+    return Boolean.TRUE.equals(providerInfo.getConfig().getValueAsBool("differentialRescrape"));
+  }
 
-    List<Actor> actors = new ArrayList<>();
-    synchronized (tvdb) {
+  private Series fetchSeries(int id, String language) {
+    return fetchSeries(id, language, TheTvDbDataCache.LOCALIZED_TTL);
+  }
+
+  /**
+   * fetch the series in the given language; a response of the shared cache is taken if it is not older than maxAge (ms)
+   */
+  private Series fetchSeries(int id, String language, long maxAge) {
+    String key = "series/" + id + "/" + language;
+    Series show = getShared(key, maxAge, Series.class, id);
+    // responses of the shared cache are not copied into the data cache (it is read from the shared file again if needed)
+    boolean shared = show != null;
+    if (show == null && TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbStaleness.recordMissing();
+    }
+    else if (show == null) {
+      TheTvDbTrace.Span span = TheTvDbTrace.start("fetch series").attribute("id", id).attribute("language", language);
       try {
         TheTvDbConnectionCounter.trackConnections();
-        ActorsResponse response = tvdb.series().actors(id).execute().body();
-        actors.addAll(response.data);
+        SeriesResponse response = tvdb.series().series(id, language).execute().body();
+        if (response != null) {
+          show = response.data;
+          putShared(key, show);
+        }
       }
       catch (Exception e) {
-        LOGGER.error("failed to get actors: " + e.getMessage());
+        LOGGER.error("failed to get meta data: " + e.getMessage());
+      }
+      finally {
+        span.end();
       }
     }
 
-    for (Actor actor : actors) {
-      MediaCastMember member = new MediaCastMember(CastType.ACTOR);
-      member.setName(actor.name);
-      member.setCharacter(actor.role);
-      if (StringUtils.isNotBlank(actor.image)) {
-        member.setImageUrl(artworkUrl + actor.image);
+    if (show != null) {
+      if (!shared) {
+        DATA_CACHE.putSeries(show, language);
       }
+      EPISODE_MISSES.updateLastUpdated(id, show.lastUpdated);
+      SEARCH_INDEX.add(id, language, show.seriesName, show.aliases, TheTvDbSearchIndex.parseYear(show.firstAired), null);
+    }
+    return show;
+  }
 
-      md.addCastMember(member);
+  /**
+   * get the actors of the series (they do not depend on the language)
+   */
+  private List<Actor> getActors(int id) {
+    List<Actor> actors = DATA_CACHE.getActors(id);
+    if (actors != null) {
+      return actors;
     }
 
-    md.addCertification(Certification.findCertification(show.rating));
+    String key = "actors/" + id;
+    actors = getShared(key, TheTvDbDataCache.CORE_TTL, new TypeToken<List<Actor>>() {
+    }.getType(), id);
+    if (actors != null) {
+      return actors;
+    }
 
-    // genres
-    for (String genreAsString : show.genre) {
-      md.addGenre(getTmmGenre(genreAsString));
+    actors = new ArrayList<>();
+    if (TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbStaleness.recordMissing();
+      return actors;
+    }
+    TheTvDbTrace.Span span = TheTvDbTrace.start("fetch actors").attribute("id", id);
+    try {
+      TheTvDbConnectionCounter.trackConnections();
+      ActorsResponse response = tvdb.series().actors(id).execute().body();
+      if (response != null) {
+        actors.addAll(response.data);
+        DATA_CACHE.putActors(id, actors);
+        putShared(key, actors);
+      }
+    }
+    catch (Exception e) {
+      LOGGER.error("failed to get actors: " + e.getMessage());
+    }
+    finally {
+      span.end();
     }
+    return actors;
+  }
 
-    return md;
+  /**
+   * take over the texts from the fallback language if there is no localized content
+   */
+  private LocalizedText mergeTexts(LocalizedText text, LocalizedText fallbackText) {
+    if (fallbackText == null) {
+      return text;
+    }
+    String title = text.title;
+    if (StringUtils.isBlank(title) && StringUtils.isNotBlank(fallbackText.title)) {
+      title = fallbackText.title;
+    }
+    String overview = text.overview;
+    if (StringUtils.isBlank(overview) && StringUtils.isNotBlank(fallbackText.overview)) {
+      overview = fallbackText.overview;
+    }
+    return new LocalizedText(title, overview);
   }
 
-  private MediaMetadata getEpisodeMetadata(MediaScrapeOptions options) throws Exception {
-    MediaMetadata md = new MediaMetadata(providerInfo.getId());
+  /**
+   * whether the texts of the fallback language feed a requested part: the title is always needed, the plot only if requested
+   */
+  private static boolean needsFallbackText(LocalizedText text, Set<TheTvDbField> fields) {
+    return StringUtils.isBlank(text.title) || (fields.contains(TheTvDbField.PLOT) && StringUtils.isBlank(text.overview));
+  }
 
-    boolean useDvdOrder = false;
-    Integer id = 0;
+  /**
+   * report the API calls which have been skipped because they only feed parts of the metadata which have not been requested
+   */
+  private static void reportSavedCalls(Collection<MediaMetadata> metadata, int saved) {
+    for (MediaMetadata md : metadata) {
+      md.addExtraData(CALLS_SAVED, saved);
+    }
+    if (saved > 0) {
+      TheTvDbTrace.Span span = TheTvDbTrace.current();
+      if (span != null) {
+        // the steps and the workers of a batch report into the same span
+        span.add("calls saved", saved);
+      }
+      LOGGER.trace("field projection: " + saved + " calls saved, " + SAVED_CALLS.addAndGet(saved) + " in total");
+    }
+  }
+
+  private void fillTvShowMetadata(MediaMetadata md, Series show, LocalizedText text, List<Actor> actors) {
+    TheTvDbTrace.Span span = TheTvDbTrace.start("map series").attribute("id", show.id);
+    try {
+      // populate metadata
+      md.setId(providerInfo.getId(), show.id);
+      if (show.lastUpdated != null) {
+        md.addExtraData(LAST_UPDATED, show.lastUpdated);
+      }
+      Change change = CHANGES.getChange(show.id);
+      if (isDifferential() && change != null && change != Change.UNKNOWN) {
+        md.addExtraData(CHANGED, change == Change.CHANGED);
+      }
+      md.setTitle(text.title);
+      if (StringUtils.isNotBlank(show.imdbId)) {
+        md.setId(MediaMetadata.IMDB, show.imdbId);
+      }
+      md.setPlot(text.overview);
 
-    // id from result
-    if (options.getResult() != null) {
       try {
-        id = Integer.parseInt(options.getResult().getId());
+        md.setRuntime(Integer.valueOf(show.runtime));
       }
-      catch (Exception ignored) {
+      catch (NumberFormatException e) {
+        md.setRuntime(0);
       }
-    }
 
-    // do we have an id from the options?
-    if (id == 0) {
+      md.setRating(show.siteRating);
+      md.setVoteCount(TvUtils.parseInt(show.siteRatingCount));
+
       try {
-        id = Integer.parseInt(options.getId(providerInfo.getId()));
+        md.setReleaseDate(StrgUtils.parseDate(show.firstAired));
+      }
+      catch (ParseException ignored) {
+      }
+
+      try {
+        Date date = StrgUtils.parseDate(show.firstAired);
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(date);
+        int y = calendar.get(Calendar.YEAR);
+        md.setYear(y);
+        if (y != 0 && md.getTitle().contains(String.valueOf(y))) {
+          LOGGER.debug("Weird TVDB entry - removing date " + y + " from title");
+          String t = text.title.replaceAll(String.valueOf(y), "").replaceAll("\\(\\)", "").trim();
+          md.setTitle(t);
+        }
       }
       catch (Exception ignored) {
       }
+
+      md.setStatus(TheTvDbStringPool.intern(show.status));
+      md.addProductionCompany(TheTvDbStringPool.intern(show.network));
+
+      List<String> actorImages = new ArrayList<>();
+      for (Actor actor : actors) {
+        MediaCastMember member = new MediaCastMember(CastType.ACTOR);
+        member.setName(TheTvDbStringPool.intern(actor.name));
+        member.setCharacter(TheTvDbStringPool.intern(actor.role));
+        if (StringUtils.isNotBlank(actor.image)) {
+          String image = artworkUrl + actor.image;
+          member.setImageUrl(image);
+          actorImages.add(image);
+        }
+
+        md.addCastMember(member);
+      }
+      if (isPrefetchArtwork()) {
+        getArtworkCache().prefetch(actorImages);
+      }
+
+      md.addCertification(Certification.findCertification(show.rating));
+
+      // genres
+      for (String genreAsString : show.genre) {
+        md.addGenre(getTmmGenre(genreAsString));
+      }
+
+      LOGGER.trace(TheTvDbStringPool.getStatistics());
+      LOGGER.trace(DATA_CACHE.getStatistics());
     }
+    finally {
+      span.end();
+    }
+  }
 
-    // do we have the id in the alternate form?
-    if (id == 0) {
+  /**
+   * scrape the metadata of several episodes (e.g. of a whole season) in one pass: the episode listing of every series is fetched once and the
+   * episodes are looked up in it (instead of one episode query per episode); the details of the episodes (directors, writers, guest stars) are
+   * fetched in parallel and only if needed (see {@link TheTvDbField})
+   *
+   * @param episodes
+   *          the scrape options of the episodes, as for {@link #getMetadata(MediaScrapeOptions)} (season/episode, DVD season/episode, absolute
+   *          number or first aired date)
+   * @return the metadata of the episodes in the order of the given options (empty metadata for episodes which could not be found)
+   * @throws Exception
+   *           any exception while scraping
+   */
+  public List<MediaMetadata> getEpisodeMetadata(final List<MediaScrapeOptions> episodes) throws Exception {
+    // lazy initialization of the api
+    initAPI();
+
+    LOGGER.debug("getting metadata of " + episodes.size() + " episodes");
+    return serve("getEpisodeMetadata", episodes.toString(), new Callable<List<MediaMetadata>>() {
+      @Override
+      public List<MediaMetadata> call() throws Exception {
+        return scrapeEpisodeMetadata(episodes);
+      }
+    });
+  }
+
+  private List<MediaMetadata> scrapeEpisodeMetadata(List<MediaScrapeOptions> episodes) throws Exception {
+    // one listing per series and language - in parallel
+    Map<String, Future<TheTvDbEpisodeIndex>> listings = new LinkedHashMap<>();
+    for (MediaScrapeOptions options : episodes) {
+      final int id = getTvdbId(options);
+      final String language = options.getLanguage().getLanguage();
+      if (id != 0 && !listings.containsKey(id + "/" + language)) {
+        listings.put(id + "/" + language, submit(new Callable<TheTvDbEpisodeIndex>() {
+          @Override
+          public TheTvDbEpisodeIndex call() throws Exception {
+            return getPrefetchedEpisodeIndex(id, language);
+          }
+        }));
+      }
+    }
+    for (Future<TheTvDbEpisodeIndex> listing : listings.values()) {
+      listing.get();
+    }
+
+    // the episodes are found in the listings now; only the details are fetched - in parallel
+    List<Future<MediaMetadata>> results = new ArrayList<>();
+    for (final MediaScrapeOptions options : episodes) {
+      results.add(submit(new Callable<MediaMetadata>() {
+        @Override
+        public MediaMetadata call() throws Exception {
+          return getEpisodeMetadata(options);
+        }
+      }));
+    }
+
+    List<MediaMetadata> metadata = new ArrayList<>();
+    for (Future<MediaMetadata> result : results) {
       try {
-        id = Integer.parseInt(options.getId("tvdb"));
+        metadata.add(result.get());
       }
-      catch (Exception ignored) {
+      catch (ExecutionException e) {
+        LOGGER.error("failed to get meta data: " + e.getCause().getMessage());
+        metadata.add(new MediaMetadata(providerInfo.getId()));
       }
     }
+    return metadata;
+  }
+
+  private MediaMetadata getEpisodeMetadata(MediaScrapeOptions options) throws Exception {
+    MediaMetadata md = new MediaMetadata(providerInfo.getId());
+
+    boolean useDvdOrder = false;
+    int id = getTvdbId(options);
 
     if (id == 0) {
       return md;
     }
+    checkForChanges(id, options.getLanguage().getLanguage(), options);
 
-    // get episode number and season number
+    // get episode number and season number (or the absolute number)
     int seasonNr = -1;
     int episodeNr = -1;
+    int absoluteNr = -1;
+
+    try {
+      String option = options.getId(ABSOLUTE_NR);
+      if (option != null) {
+        absoluteNr = Integer.parseInt(option);
+      }
+    }
+    catch (Exception e) {
+      LOGGER.warn("error parsing absolute number");
+    }
 
     try {
       String option = options.getId(MediaMetadata.SEASON_NR);
@@ -479,7 +1168,9 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
       }
     }
     catch (Exception e) {
-      LOGGER.warn("error parsing season/episode number");
+      if (absoluteNr <= 0) {
+        LOGGER.warn("error parsing season/episode number");
+      }
     }
 
     String aired = "";
@@ -487,112 +1178,142 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
       Format formatter = new SimpleDateFormat("yyyy-MM-dd");
       aired = formatter.format(options.getMetadata().getReleaseDate());
     }
-    if (aired.isEmpty() && (seasonNr == -1 || episodeNr == -1)) {
+    if (aired.isEmpty() && (seasonNr == -1 || episodeNr == -1) && absoluteNr <= 0) {
       return md; // not even date set? return
     }
 
-    Episode.FullEpisode episode = null;
-    synchronized (tvdb) {
+    // the position of the episode in the series does not depend on the language
+    String language = options.getLanguage().getLanguage();
+    Integer episodeId = null;
+    if (seasonNr > -1 && episodeNr > -1) {
+      episodeId = DATA_CACHE.getEpisodeId(id, useDvdOrder, seasonNr, episodeNr);
+    }
+
+    // resolve it from the local episode index if possible (no api call needed)
+    if (episodeId == null) {
+      episodeId = findInEpisodeIndex(id, language, useDvdOrder, seasonNr, episodeNr, absoluteNr, aired);
+    }
+
+    // the absolute number can only be looked up in the episode index
+    if (episodeId == null && aired.isEmpty() && (seasonNr == -1 || episodeNr == -1)) {
+      return md;
+    }
+
+    // lookups which did not find anything before (and the listing did not change since then) are not repeated
+    String lookup = (useDvdOrder ? "dvd_" : "aired_") + seasonNr + "_" + episodeNr + "_" + aired;
+    if (episodeId == null && EPISODE_MISSES.isMiss(id, lookup)) {
+      LOGGER.debug("episode lookup " + lookup + " of " + id + " did not find anything before - skipping");
+      return md;
+    }
+
+    if (episodeId == null && TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbStaleness.recordMissing();
+      return md;
+    }
+
+    // the basic record of the episode found by the query
+    Episode queried = null;
+    if (episodeId == null) {
+      int calls = 0;
+      TheTvDbTrace.Span span = TheTvDbTrace.start("find episode").attribute("id", id).attribute("season", seasonNr).attribute("episode",
+          episodeNr);
       try {
         // TheTvDbConnectionCounter.trackConnections();
         EpisodesResponse response = null;
 
         // get by season/ep number
+        calls++;
         if (useDvdOrder) {
           TheTvDbConnectionCounter.trackConnections();
-          response = tvdb.series()
-              .episodesQuery(id, null, null, null, seasonNr, (double) episodeNr, null, null, 1, options.getLanguage().getLanguage()).execute().body();
+          response = tvdb.series().episodesQuery(id, null, null, null, seasonNr, (double) episodeNr, null, null, 1, language).execute().body();
         }
         else {
           TheTvDbConnectionCounter.trackConnections();
-          response = tvdb.series().episodesQuery(id, null, seasonNr, episodeNr, null, null, null, null, 1, options.getLanguage().getLanguage())
-              .execute().body();
+          response = tvdb.series().episodesQuery(id, null, seasonNr, episodeNr, null, null, null, null, 1, language).execute().body();
         }
 
-        // not found? try to match by date
-        if (response == null && !aired.isEmpty()) {
-          TheTvDbConnectionCounter.trackConnections();
-          response = tvdb.series().episodesQuery(id, null, null, null, null, null, null, aired, 1, options.getLanguage().getLanguage()).execute()
-              .body();
+        if (response != null && !response.data.isEmpty()) {
+          queried = response.data.get(0);
+          episodeId = queried.id;
+          DATA_CACHE.putEpisodeId(id, useDvdOrder, seasonNr, episodeNr, episodeId);
         }
 
-        if (response != null && !response.data.isEmpty()) {
+        // not found? try to match by date
+        if (episodeId == null && !aired.isEmpty()) {
+          calls++;
           TheTvDbConnectionCounter.trackConnections();
-          EpisodeResponse response1 = tvdb.episodes().get(response.data.get(0).id, options.getLanguage().getLanguage()).execute().body();
-          episode = response1.data;
+          response = tvdb.series().episodesQuery(id, null, null, null, null, null, null, aired, 1, language).execute().body();
+          if (response != null && !response.data.isEmpty()) {
+            queried = response.data.get(0);
+            episodeId = queried.id;
+          }
         }
 
+        // nothing found (no error)
+        if (episodeId == null) {
+          EPISODE_MISSES.putMiss(id, lookup, calls);
+        }
       }
       catch (Exception e) {
         LOGGER.error("failed to get meta data: " + e.getMessage());
       }
+      finally {
+        span.attribute("found", episodeId != null).end();
+      }
+      LOGGER.trace(EPISODE_MISSES.getStatistics());
     }
 
-    if (episode == null) {
+    if (episodeId == null) {
       return md;
     }
 
-    // if there is no localized content and we have a fallback language, rescrape in the fallback language
-    String fallbackLanguage = MediaLanguages.get(providerInfo.getConfig().getValue("fallbackLanguage")).getLanguage();
-    if (StringUtils.isAnyBlank(episode.episodeName, episode.overview) && !fallbackLanguage.equals(options.getLanguage().getLanguage())) {
-      synchronized (tvdb) {
-        try {
-          // TheTvDbConnectionCounter.trackConnections();
-          EpisodesResponse response = null;
-
-          // get by season/ep number
-          if (useDvdOrder) {
-            TheTvDbConnectionCounter.trackConnections();
-            response = tvdb.series().episodesQuery(id, null, null, null, seasonNr, (double) episodeNr, null, null, 1, fallbackLanguage).execute()
-                .body();
-          }
-          else {
-            TheTvDbConnectionCounter.trackConnections();
-            response = tvdb.series().episodesQuery(id, null, seasonNr, episodeNr, null, null, null, null, 1, fallbackLanguage).execute().body();
-          }
-
-          // not found? try to match by date
-          if (response == null && !aired.isEmpty()) {
-            TheTvDbConnectionCounter.trackConnections();
-            response = tvdb.series().episodesQuery(id, null, null, null, null, null, null, aired, 1, fallbackLanguage).execute().body();
-          }
+    // the numbering, title and plot are in the episode listing and the query result too: the full record is only fetched if other parts are
+    // requested (or it is in the cache anyway)
+    Set<TheTvDbField> fields = TheTvDbField.getFields(options);
+    int saved = 0;
+    Episode listed = null;
+    if (!TheTvDbField.needsFullEpisode(fields) && DATA_CACHE.getEpisode(episodeId) == null) {
+      listed = getListedEpisode(id, episodeId, language);
+      if (listed == null && queried != null && episodeId.equals(queried.id)) {
+        listed = queried;
+      }
+    }
 
-          if (response != null && !response.data.isEmpty()) {
-            TheTvDbConnectionCounter.trackConnections();
-            EpisodeResponse response1 = tvdb.episodes().get(response.data.get(0).id, fallbackLanguage).execute().body();
-            if (StringUtils.isBlank(episode.episodeName) && StringUtils.isNotBlank(response1.data.episodeName)) {
-              episode.episodeName = response1.data.episodeName;
-            }
-            if (StringUtils.isBlank(episode.overview) && StringUtils.isNotBlank(response1.data.overview)) {
-              episode.overview = response1.data.overview;
-            }
-            episode = response1.data;
-          }
+    LocalizedText text;
+    Episode.FullEpisode episode = null;
+    if (listed != null) {
+      text = new LocalizedText(listed.episodeName, listed.overview);
+      saved++;
+    }
+    else {
+      text = getEpisodeText(episodeId, language);
+      episode = getEpisode(episodeId, language);
+      if (text == null || episode == null) {
+        return md;
+      }
+    }
 
-        }
-        catch (Exception e) {
-          LOGGER.error("failed to get meta data: " + e.getMessage());
-        }
+    // if there is no localized content and we have a fallback language, rescrape in the fallback language (if the texts are requested)
+    String fallbackLanguage = getFallbackLanguage();
+    if (StringUtils.isAnyBlank(text.title, text.overview) && !fallbackLanguage.equals(language)) {
+      LocalizedText fallbackText = needsFallbackText(text, fields) ? getEpisodeText(episodeId, fallbackLanguage)
+          : DATA_CACHE.getEpisodeText(episodeId, fallbackLanguage);
+      if (fallbackText == null && !needsFallbackText(text, fields)) {
+        saved++;
       }
+      text = mergeTexts(text, fallbackText);
     }
 
-    md.setEpisodeNumber(TvUtils.getEpisodeNumber(episode.airedEpisodeNumber));
-    md.setSeasonNumber(TvUtils.getSeasonNumber(episode.airedSeason));
-    md.setDvdEpisodeNumber(TvUtils.getEpisodeNumber(episode.dvdEpisodeNumber));
-    md.setDvdSeasonNumber(TvUtils.getSeasonNumber(episode.dvdSeason));
-    md.setAbsoluteNumber(TvUtils.getEpisodeNumber(episode.absoluteNumber));
+    if (listed != null) {
+      fillEpisodeMetadata(md, listed, text);
+      reportSavedCalls(Collections.singletonList(md), saved);
+      return md;
+    }
 
-    md.setTitle(episode.episodeName);
-    md.setPlot(episode.overview);
+    TheTvDbTrace.Span span = TheTvDbTrace.start("map episode").attribute("id", episode.id);
+    fillEpisodeMetadata(md, episode, text);
     md.setRating(episode.siteRating);
     md.setVoteCount(TvUtils.parseInt(episode.siteRatingCount));
-
-    try {
-      md.setReleaseDate(StrgUtils.parseDate(episode.firstAired));
-    }
-    catch (ParseException ignored) {
-    }
-    md.setId(providerInfo.getId(), episode.id);
     if (StringUtils.isNotBlank(episode.imdbId)) {
       md.setId(MediaMetadata.IMDB, episode.imdbId);
     }
@@ -600,112 +1321,264 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
     // directors
     for (String director : episode.directors) {
       MediaCastMember cm = new MediaCastMember(CastType.DIRECTOR);
-      cm.setName(director);
+      cm.setName(TheTvDbStringPool.intern(director));
       md.addCastMember(cm);
     }
 
     // writers
     for (String writer : episode.writers) {
       MediaCastMember cm = new MediaCastMember(CastType.WRITER);
-      cm.setName(writer);
+      cm.setName(TheTvDbStringPool.intern(writer));
       md.addCastMember(cm);
     }
 
     // actors (guests?)
     for (String guest : episode.guestStars) {
       MediaCastMember cm = new MediaCastMember(CastType.ACTOR);
-      cm.setName(guest);
+      cm.setName(TheTvDbStringPool.intern(guest));
       md.addCastMember(cm);
     }
 
     // Thumb
     if (StringUtils.isNotBlank(episode.filename) && options.getArtworkType() == ALL || options.getArtworkType() == MediaArtworkType.THUMB) {
       MediaArtwork ma = new MediaArtwork(providerInfo.getId(), MediaArtworkType.THUMB);
-      ma.setPreviewUrl(artworkUrl + episode.filename);
-      ma.setDefaultUrl(artworkUrl + episode.filename);
+      String url = artworkUrl + episode.filename;
+      ma.setPreviewUrl(url);
+      ma.setDefaultUrl(url);
       md.addMediaArt(ma);
+      if (isPrefetchArtwork()) {
+        getArtworkCache().prefetch(Collections.singletonList(url));
+      }
     }
+    span.end();
 
+    reportSavedCalls(Collections.singletonList(md), saved);
     return md;
   }
 
-  @Override
-  public List<MediaArtwork> getArtwork(MediaScrapeOptions options) throws Exception {
-    // lazy initialization of the api
-    initAPI();
+  /**
+   * fill the numbering, the texts and the first aired date of the episode
+   */
+  private void fillEpisodeMetadata(MediaMetadata md, Episode episode, LocalizedText text) {
+    md.setEpisodeNumber(TvUtils.getEpisodeNumber(episode.airedEpisodeNumber));
+    md.setSeasonNumber(TvUtils.getSeasonNumber(episode.airedSeason));
+    md.setDvdEpisodeNumber(TvUtils.getEpisodeNumber(episode.dvdEpisodeNumber));
+    md.setDvdSeasonNumber(TvUtils.getSeasonNumber(episode.dvdSeason));
+    md.setAbsoluteNumber(TvUtils.getEpisodeNumber(episode.absoluteNumber));
 
-    LOGGER.debug("getting artwork: " + options);
-    List<MediaArtwork> artwork = new ArrayList<>();
-    Integer id = 0;
+    md.setTitle(text.title);
+    md.setPlot(text.overview);
 
-    // id from result
-    if (options.getResult() != null) {
-      try {
-        id = Integer.parseInt(options.getResult().getId());
-      }
-      catch (Exception ignored) {
-      }
+    try {
+      md.setReleaseDate(StrgUtils.parseDate(episode.firstAired));
+    }
+    catch (ParseException ignored) {
     }
+    md.setId(providerInfo.getId(), episode.id);
+    if (episode.lastUpdated != null) {
+      md.addExtraData(LAST_UPDATED, episode.lastUpdated);
+    }
+  }
 
-    // do we have an id from the options?
-    if (id == 0) {
-      try {
-        id = Integer.parseInt(options.getId(providerInfo.getId()));
-      }
-      catch (Exception ignored) {
+  /**
+   * get the basic record of the episode from the episode listing in the given language (if it has been fetched)
+   *
+   * @return the episode or null if it is not in a listing
+   */
+  private Episode getListedEpisode(int id, int episodeId, String language) {
+    TheTvDbEpisodeIndex index = DATA_CACHE.getEpisodeIndex(id, language);
+    int position = index == null ? -1 : index.findId(episodeId);
+    if (position < 0) {
+      return null;
+    }
+
+    Episode episode = new Episode();
+    episode.id = episodeId;
+    episode.airedSeason = index.getSeason(position);
+    episode.airedEpisodeNumber = index.getEpisode(position);
+    episode.dvdSeason = index.getDvdSeason(position);
+    episode.dvdEpisodeNumber = index.getDvdEpisode(position) < 0 ? null : Double.valueOf(index.getDvdEpisode(position));
+    episode.absoluteNumber = index.getAbsoluteNumber(position);
+    episode.firstAired = index.getFirstAired(position);
+    episode.episodeName = index.getTitle(position);
+    episode.overview = index.getPlot(position);
+    episode.lastUpdated = index.getLastUpdated(position);
+    return episode;
+  }
+
+  /**
+   * find the episode in the episode index of the series (by absolute number, by season/episode in the chosen order, by the exact first aired date
+   * or - without season/episode - by the only episode aired within one day of the date). The index is only fetched for lookups by the absolute
+   * number; otherwise the one of a previously fetched episode list is used
+   *
+   * @return the episode id or null if not found
+   */
+  private Integer findInEpisodeIndex(int id, String language, boolean useDvdOrder, int seasonNr, int episodeNr, int absoluteNr, String aired) {
+    TheTvDbEpisodeIndex index = DATA_CACHE.getEpisodeIndex(id);
+    if (index == null && absoluteNr > 0) {
+      index = getEpisodeIndex(id, language);
+    }
+    if (index == null) {
+      return null;
+    }
+
+    int position = -1;
+    if (absoluteNr > 0) {
+      position = index.findAbsolute(absoluteNr);
+    }
+    if (position < 0 && seasonNr > -1 && episodeNr > -1) {
+      position = useDvdOrder ? index.findDvd(seasonNr, episodeNr) : index.findAired(seasonNr, episodeNr);
+    }
+    if (position < 0 && !aired.isEmpty()) {
+      position = index.findFirstAired(aired);
+    }
+    if (position < 0 && !aired.isEmpty() && (seasonNr == -1 || episodeNr == -1)) {
+      // the date may be shifted by the time zone; a neighbouring day is only taken if it is unambiguous (otherwise the api is queried)
+      position = index.findUniqueFirstAired(aired, 1);
+    }
+
+    return position < 0 ? null : index.getId(position);
+  }
+
+  /**
+   * get the language independent record of the episode (from the cache or fetched in the given language)
+   */
+  private Episode.FullEpisode getEpisode(int episodeId, String language) {
+    Episode.FullEpisode episode = DATA_CACHE.getEpisode(episodeId);
+    if (episode == null && reviveEpisode(episodeId)) {
+      episode = DATA_CACHE.getEpisode(episodeId);
+    }
+    if (episode == null) {
+      episode = fetchEpisode(episodeId, language);
+    }
+    return episode;
+  }
+
+  /**
+   * get the texts of the episode in the given language (from the cache or fetched)
+   */
+  private LocalizedText getEpisodeText(int episodeId, String language) {
+    LocalizedText text = DATA_CACHE.getEpisodeText(episodeId, language);
+    if (text == null && reviveEpisode(episodeId)) {
+      text = DATA_CACHE.getEpisodeText(episodeId, language);
+    }
+    if (text == null) {
+      Episode.FullEpisode episode = fetchEpisode(episodeId, language);
+      if (episode != null) {
+        text = new LocalizedText(episode.episodeName, episode.overview);
       }
     }
+    return text;
+  }
 
-    // do we have the id in the alternate form?
-    if (id == 0) {
+  /**
+   * differential rescrape (if activated): an expired episode is used again if its lastUpdated stamp is the same as the one in the (verified)
+   * episode listing of the series
+   *
+   * @return true if the episode has been renewed in the cache
+   */
+  private boolean reviveEpisode(int episodeId) {
+    if (!isDifferential() || TheTvDbStaleness.isCacheOnly()) {
+      return false;
+    }
+    Episode.FullEpisode cached = DATA_CACHE.peekEpisode(episodeId);
+    if (cached == null || cached.seriesId == null) {
+      return false;
+    }
+    TheTvDbEpisodeIndex index = DATA_CACHE.getEpisodeIndex(cached.seriesId);
+    int position = index == null ? -1 : index.findId(episodeId);
+    if (position < 0 || !CHANGES.checkEpisode(index.getLastUpdated(position), cached.lastUpdated)) {
+      return false;
+    }
+    DATA_CACHE.renewEpisode(episodeId);
+    CHANGES.savedCalls(1);
+    return true;
+  }
+
+  private Episode.FullEpisode fetchEpisode(int episodeId, String language) {
+    String key = "episode/" + episodeId + "/" + language;
+    Episode.FullEpisode episode = getShared(key, TheTvDbDataCache.LOCALIZED_TTL, Episode.FullEpisode.class, 0);
+    if (episode != null) {
+      return episode;
+    }
+    if (TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbStaleness.recordMissing();
+    }
+    else {
+      TheTvDbTrace.Span span = TheTvDbTrace.start("fetch episode").attribute("id", episodeId).attribute("language", language);
       try {
-        id = Integer.parseInt(options.getId("tvdb"));
+        TheTvDbConnectionCounter.trackConnections();
+        EpisodeResponse response = tvdb.episodes().get(episodeId, language).execute().body();
+        if (response != null) {
+          episode = response.data;
+          putShared(key, episode);
+        }
       }
-      catch (Exception ignored) {
+      catch (Exception e) {
+        LOGGER.error("failed to get meta data: " + e.getMessage());
+      }
+      finally {
+        span.end();
       }
     }
 
+    if (episode != null) {
+      DATA_CACHE.putEpisode(episode, language);
+    }
+    return episode;
+  }
+
+  @Override
+  public List<MediaArtwork> getArtwork(final MediaScrapeOptions options) throws Exception {
+    // lazy initialization of the api
+    initAPI();
+
+    LOGGER.debug("getting artwork: " + options);
+    return serve("getArtwork", options.toString(), new Callable<List<MediaArtwork>>() {
+      @Override
+      public List<MediaArtwork> call() throws Exception {
+        return scrapeArtwork(options);
+      }
+    });
+  }
+
+  private List<MediaArtwork> scrapeArtwork(MediaScrapeOptions options) {
+    List<MediaArtwork> artwork = new ArrayList<>();
+    int id = getTvdbId(options);
+
     if (id == 0) {
       return artwork;
     }
+    checkForChanges(id, options.getLanguage().getLanguage(), options);
+
+    // the prefetch fills the data cache (a running one is not awaited); scrapes which must be answered from the caches do not cancel a queued one
+    if (!TheTvDbStaleness.isCacheOnly()) {
+      PREFETCHER.take("artwork/" + id + "/" + options.getLanguage().getLanguage());
+    }
 
     // get artwork from thetvdb
     Set<SeriesImageQueryResult> images = new TreeSet<>(new ImageComparator(options.getLanguage().getLanguage()));
-    synchronized (tvdb) {
-      try {
-        TheTvDbConnectionCounter.trackConnections();
-
-        // get all types of artwork we can get
-        SeriesImagesQueryParamResponse response = tvdb.series().imagesQueryParams(id).execute().body();
-        for (SeriesImagesQueryParam param : response.data) {
-          // season wide not used atm
-          if ("seasonwide".equals(param.keyType)) {
-            continue;
-          }
-          if (options.getArtworkType() == ALL || ("fanart".equals(param.keyType) && options.getArtworkType() == BACKGROUND)
-              || ("poster".equals(param.keyType) && options.getArtworkType() == POSTER)
-              || ("season".equals(param.keyType) && options.getArtworkType() == SEASON)
-              // || ("seasonwide".equals(param.keyType) && options.getArtworkType() == SEASON) // not used atm
-              || ("series".equals(param.keyType) && options.getArtworkType() == BANNER)) {
-            // artwork with the chosen language
-            TheTvDbConnectionCounter.trackConnections();
-            SeriesImageQueryResultResponse response1 = tvdb.series().imagesQuery(id, param.keyType, null, null, options.getLanguage().getLanguage())
-                .execute().body();
-            if (response1 != null) {
-              images.addAll(response1.data);
-            }
-            // artwork with _default_language
-            TheTvDbConnectionCounter.trackConnections();
-            response1 = tvdb.series().imagesQuery(id, param.keyType, null, null, null).execute().body();
-            if (response1 != null) {
-              images.addAll(response1.data);
-            }
-          }
+    try {
+      // get all types of artwork we can get
+      for (SeriesImagesQueryParam param : getImageTypes(id)) {
+        // season wide not used atm
+        if ("seasonwide".equals(param.keyType)) {
+          continue;
+        }
+        if (options.getArtworkType() == ALL || ("fanart".equals(param.keyType) && options.getArtworkType() == BACKGROUND)
+            || ("poster".equals(param.keyType) && options.getArtworkType() == POSTER)
+            || ("season".equals(param.keyType) && options.getArtworkType() == SEASON)
+            // || ("seasonwide".equals(param.keyType) && options.getArtworkType() == SEASON) // not used atm
+            || ("series".equals(param.keyType) && options.getArtworkType() == BANNER)) {
+          // artwork with the chosen language
+          images.addAll(getImages(id, param.keyType, options.getLanguage().getLanguage()));
+          // artwork with _default_language
+          images.addAll(getImages(id, param.keyType, null));
         }
       }
-      catch (Exception e) {
-        LOGGER.error("failed to get artwork: " + e.getMessage());
-      }
+    }
+    catch (Exception e) {
+      LOGGER.error("failed to get artwork: " + e.getMessage());
     }
 
     if (images.isEmpty()) {
@@ -715,9 +1588,27 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
     // sort it
     // Collections.sort(images, new ImageComparator(options.getLanguage().getLanguage()));
 
+    artwork.addAll(buildArtwork(images));
+
+    if (isPrefetchArtwork()) {
+      prefetchArtwork(artwork);
+    }
+
+    return artwork;
+  }
+
+  /**
+   * map the (sorted) images to MediaArtwork
+   */
+  private List<MediaArtwork> buildArtwork(Set<SeriesImageQueryResult> images) {
+    List<MediaArtwork> artwork = new ArrayList<>();
+
     // build output
+    TheTvDbTrace.Span span = TheTvDbTrace.start("map artwork").attribute("images", images.size());
     for (SeriesImageQueryResult image : images) {
       MediaArtwork ma = null;
+      // only one instance of the url per image
+      String url = artworkUrl + image.fileName;
 
       // set artwork type
       switch (image.keyType) {
@@ -760,7 +1651,7 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
           if (matcher.matches() && matcher.groupCount() > 1) {
             int width = Integer.parseInt(matcher.group(1));
             int height = Integer.parseInt(matcher.group(2));
-            ma.addImageSize(width, height, artworkUrl + image.fileName);
+            ma.addImageSize(width, height, url);
 
             // set image size
             switch (ma.getType()) {
@@ -809,7 +1700,7 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
         ma.setSizeOrder(MediaArtwork.FanartSizes.MEDIUM.getOrder());
       }
 
-      ma.setDefaultUrl(artworkUrl + image.fileName);
+      ma.setDefaultUrl(url);
       if (StringUtils.isNotBlank(image.thumbnail)) {
         ma.setPreviewUrl(artworkUrl + image.thumbnail);
       }
@@ -821,18 +1712,495 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
 
       artwork.add(ma);
     }
-
+    span.end();
     return artwork;
   }
 
+  /**
+   * get the types of artwork which are available for the series
+   */
+  private List<SeriesImagesQueryParam> getImageTypes(int id) throws IOException {
+    List<SeriesImagesQueryParam> imageTypes = DATA_CACHE.getImageTypes(id);
+    if (imageTypes != null) {
+      return imageTypes;
+    }
+
+    imageTypes = getShared("imagetypes/" + id, TheTvDbDataCache.CORE_TTL, new TypeToken<List<SeriesImagesQueryParam>>() {
+    }.getType(), id);
+    if (imageTypes != null) {
+      return imageTypes;
+    }
+    if (TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbStaleness.recordMissing();
+      return new ArrayList<>();
+    }
+    TheTvDbTrace.Span span = TheTvDbTrace.start("fetch image types").attribute("id", id);
+    try {
+      TheTvDbConnectionCounter.trackConnections();
+      SeriesImagesQueryParamResponse response = tvdb.series().imagesQueryParams(id).execute().body();
+      // series without artwork have no image types
+      imageTypes = response == null || response.data == null ? new ArrayList<SeriesImagesQueryParam>() : response.data;
+      putShared("imagetypes/" + id, imageTypes);
+    }
+    finally {
+      span.end();
+    }
+    DATA_CACHE.putImageTypes(id, imageTypes);
+    return imageTypes;
+  }
+
+  /**
+   * get the images of the given type and language (from the cache or fetched)
+   */
+  private List<SeriesImageQueryResult> getImages(int id, String keyType, String language) throws IOException {
+    List<SeriesImageQueryResult> images = DATA_CACHE.getImages(id, keyType, language);
+    if (images != null) {
+      return images;
+    }
+
+    // images without a language are language independent
+    String key = "images/" + id + "/" + keyType + "/" + (language == null ? "default" : language);
+    images = getShared(key, language == null ? TheTvDbDataCache.CORE_TTL : TheTvDbDataCache.LOCALIZED_TTL,
+        new TypeToken<List<SeriesImageQueryResult>>() {
+        }.getType(), id);
+    if (images != null) {
+      return images;
+    }
+    if (TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbStaleness.recordMissing();
+      return new ArrayList<>();
+    }
+    images = new ArrayList<>();
+    TheTvDbTrace.Span span = TheTvDbTrace.start("fetch images").attribute("id", id).attribute("type", keyType).attribute("language", language);
+    try {
+      TheTvDbConnectionCounter.trackConnections();
+      TheTvDbJsonDecoder.fetchImages(tvdb.okHttpClient(), id, keyType, language, images);
+      putShared(key, images);
+    }
+    finally {
+      span.attribute("images", images.size()).end();
+    }
+    DATA_CACHE.putImages(id, keyType, language, images);
+    return images;
+  }
+
+  /**
+   * get a response from the cache shared with the other processes on this host (if activated). The response is decoded from the shared file
+   * each time; it is not copied into the data cache
+   *
+   * @param seriesId
+   *          the series the response belongs to (0 if none): if its lastUpdated stamp has just been checked (differential rescrape), a response
+   *          written after the last update is taken even if it is older than maxAge
+   */
+  private static <T> T getShared(String key, long maxAge, Type type, int seriesId) {
+    // the cache is dropped by resetAPI
+    TheTvDbSharedCache cache = sharedCache;
+    if (cache == null) {
+      return null;
+    }
+    if (!TheTvDbStaleness.isCacheOnly()) {
+      Long lastUpdated = seriesId > 0 ? CHANGES.getCheckedLastUpdated(seriesId) : null;
+      if (lastUpdated == null) {
+        return cache.get(key, maxAge, type);
+      }
+      long sinceUpdate = System.currentTimeMillis() - lastUpdated * 1000 - TheTvDbChangeTracker.CLOCK_MARGIN;
+      T value = cache.get(key, Math.max(maxAge, sinceUpdate), type);
+      if (value != null && cache.getAge(key) > maxAge) {
+        CHANGES.savedCalls(1);
+      }
+      return value;
+    }
+
+    // scrapes which must be answered from the caches take expired entries too
+    T value = cache.get(key, Long.MAX_VALUE / 2, type);
+    if (value != null) {
+      long age = cache.getAge(key);
+      TheTvDbStaleness.record(age, age > maxAge);
+    }
+    return value;
+  }
+
+  /**
+   * put a response into the cache shared with the other processes on this host (if activated)
+   */
+  private static void putShared(String key, Object value) {
+    TheTvDbSharedCache cache = sharedCache;
+    if (cache != null) {
+      cache.put(key, value);
+    }
+  }
+
+  /**
+   * get the local artwork cache (used if prefetching of artwork is activated)
+   *
+   * @return the artwork cache
+   */
+  public static synchronized TheTvDbArtworkCache getArtworkCache() {
+    if (artworkCache == null) {
+      // not relative to the working directory: the cache must be found again, no matter where the process has been started
+      String folder = providerInfo.getConfig().getValue("artworkCacheFolder");
+      Path cacheDir = StringUtils.isNotBlank(folder) ? Paths.get(folder) : Paths.get(System.getProperty("java.io.tmpdir"), "thetvdb_artwork");
+      artworkCache = new TheTvDbArtworkCache(cacheDir, 500L * 1024 * 1024, 3, TheTvDbTransport.newBuilder().build());
+    }
+    return artworkCache;
+  }
+
+  /**
+   * whether the artwork (incl. actor images and episode thumbs) is downloaded into the local artwork cache in the background
+   */
+  private boolean isPrefetchArtwork() {
+    return Boolean.TRUE.equals(providerInfo.getConfig().getValueAsBool("prefetchArtwork")) && !TheTvDbStaleness.isCacheOnly();
+  }
+
+  /**
+   * download the preferred (first) image of every type/season into the local artwork cache
+   */
+  private void prefetchArtwork(List<MediaArtwork> artwork) {
+    Map<String, String> preferred = new LinkedHashMap<>();
+    for (MediaArtwork ma : artwork) {
+      String key = ma.getType() + "_" + ma.getSeason();
+      if (!preferred.containsKey(key)) {
+        preferred.put(key, ma.getDefaultUrl());
+      }
+    }
+    getArtworkCache().prefetch(preferred.values());
+  }
+
   @Override
-  public List<MediaEpisode> getEpisodeList(MediaScrapeOptions options) throws Exception {
+  public List<MediaEpisode> getEpisodeList(final MediaScrapeOptions options) throws Exception {
     // lazy initialization of the api
     initAPI();
 
     LOGGER.debug("getting episode list: " + options);
+    return serve("getEpisodeList", options.toString(), new Callable<List<MediaEpisode>>() {
+      @Override
+      public List<MediaEpisode> call() throws Exception {
+        return scrapeEpisodeList(options);
+      }
+    });
+  }
+
+  private List<MediaEpisode> scrapeEpisodeList(MediaScrapeOptions options) {
+    List<MediaEpisode> episodes = new ArrayList<>();
+    int id = getTvdbId(options);
+
+    if (id == 0) {
+      return episodes;
+    }
+
+    String language = options.getLanguage().getLanguage();
+    String fallbackLanguage = getFallbackLanguage();
+    checkForChanges(id, language, options);
+    TheTvDbEpisodeIndex eps = getPrefetchedEpisodeIndex(id, language);
+    TheTvDbEpisodeIndex fallbackEps = fallbackLanguage.equals(language) ? new TheTvDbEpisodeIndex() : getPrefetchedEpisodeIndex(id, fallbackLanguage);
+
+    if (eps.size() > 0) {
+      long bytes = eps.estimateMemoryUsage() + fallbackEps.estimateMemoryUsage();
+      LOGGER.debug("episode index of " + id + ": " + eps.size() + " episodes, ~" + bytes / eps.size() + " bytes per episode");
+    }
+
+    episodes.addAll(buildEpisodeList(eps, fallbackEps));
+    return episodes;
+  }
+
+  /**
+   * get the episode list in several languages in one pass: the listing in the fallback language is fetched only once and the listings of all
+   * languages are fetched in parallel
+   *
+   * @param options
+   *          the scrape options (the language of the options is not used)
+   * @param languages
+   *          the languages to scrape
+   * @return the episode list per language (in the order of the given languages)
+   * @throws Exception
+   *           any exception while scraping
+   */
+  public Map<Locale, List<MediaEpisode>> getEpisodeList(final MediaScrapeOptions options, final Collection<Locale> languages) throws Exception {
+    // lazy initialization of the api
+    initAPI();
+
+    LOGGER.debug("getting episode list in " + languages + ": " + options);
+    return serve("getEpisodeList", languages + " " + options, new Callable<Map<Locale, List<MediaEpisode>>>() {
+      @Override
+      public Map<Locale, List<MediaEpisode>> call() throws Exception {
+        return scrapeEpisodeLists(options, languages);
+      }
+    });
+  }
+
+  private Map<Locale, List<MediaEpisode>> scrapeEpisodeLists(MediaScrapeOptions options, Collection<Locale> languages) throws Exception {
+    Map<Locale, List<MediaEpisode>> result = new LinkedHashMap<>();
+
+    final int id = getTvdbId(options);
+    if (id == 0) {
+      for (Locale locale : languages) {
+        result.put(locale, new ArrayList<MediaEpisode>());
+      }
+      return result;
+    }
+
+    Map<String, Future<TheTvDbEpisodeIndex>> indexes = new LinkedHashMap<>();
+    String fallbackLanguage = getFallbackLanguage();
+    checkForChanges(id, fallbackLanguage, options);
+    Set<String> neededLanguages = new LinkedHashSet<>();
+    for (Locale locale : languages) {
+      neededLanguages.add(locale.getLanguage());
+    }
+    neededLanguages.add(fallbackLanguage);
+
+    // fetch them in parallel
+    for (final String language : neededLanguages) {
+      indexes.put(language, submit(new Callable<TheTvDbEpisodeIndex>() {
+        @Override
+        public TheTvDbEpisodeIndex call() throws Exception {
+          return getPrefetchedEpisodeIndex(id, language);
+        }
+      }));
+    }
+
+    TheTvDbEpisodeIndex fallbackEps = indexes.get(fallbackLanguage).get();
+    for (Locale locale : languages) {
+      TheTvDbEpisodeIndex eps = indexes.get(locale.getLanguage()).get();
+      result.put(locale, buildEpisodeList(eps, eps == fallbackEps ? new TheTvDbEpisodeIndex() : fallbackEps));
+    }
+
+    return result;
+  }
+
+  /**
+   * scrape everything needed to import a new show in one pass: the metadata of the series, the episode list and all artwork. The id is resolved
+   * once and the requests run as a dependency graph in the worker pool: the series, the actors, the episode listings and the image types at once,
+   * the image queries as soon as the image types are known
+   *
+   * @param options
+   *          the scrape options (the id, the language and the field projection are used)
+   * @return the combined result
+   * @throws Exception
+   *           any exception while scraping
+   */
+  public TheTvDbSeriesBundle getSeriesBundle(final MediaScrapeOptions options) throws Exception {
+    // lazy initialization of the api
+    initAPI();
+
+    LOGGER.debug("getting series bundle: " + options);
+    return serve("getSeriesBundle", options.toString(), new Callable<TheTvDbSeriesBundle>() {
+      @Override
+      public TheTvDbSeriesBundle call() throws Exception {
+        return scrapeSeriesBundle(options);
+      }
+    });
+  }
+
+  private TheTvDbSeriesBundle scrapeSeriesBundle(MediaScrapeOptions options) throws Exception {
+    MediaMetadata md = new MediaMetadata(providerInfo.getId());
     List<MediaEpisode> episodes = new ArrayList<>();
-    Integer id = 0;
+    List<MediaArtwork> artwork = new ArrayList<>();
+
+    final int id = getTvdbId(options);
+    if (id == 0) {
+      return new TheTvDbSeriesBundle(md, episodes, artwork);
+    }
+
+    final String language = options.getLanguage().getLanguage();
+    final String fallbackLanguage = getFallbackLanguage();
+    checkForChanges(id, language, options);
+    Set<TheTvDbField> fields = TheTvDbField.getFields(options);
+    int saved = 0;
+
+    // everything which only needs the id - at once
+    Future<LocalizedText> text = submit(new Callable<LocalizedText>() {
+      @Override
+      public LocalizedText call() throws Exception {
+        return getSeriesText(id, language);
+      }
+    });
+    Future<List<Actor>> actors = null;
+    if (fields.contains(TheTvDbField.CAST)) {
+      actors = submit(new Callable<List<Actor>>() {
+        @Override
+        public List<Actor> call() throws Exception {
+          return getActors(id);
+        }
+      });
+    }
+    else if (DATA_CACHE.getActors(id) == null) {
+      saved++;
+    }
+    Map<String, Future<TheTvDbEpisodeIndex>> indexes = new LinkedHashMap<>();
+    for (final String listingLanguage : new LinkedHashSet<>(Arrays.asList(language, fallbackLanguage))) {
+      indexes.put(listingLanguage, submit(new Callable<TheTvDbEpisodeIndex>() {
+        @Override
+        public TheTvDbEpisodeIndex call() throws Exception {
+          return getPrefetchedEpisodeIndex(id, listingLanguage);
+        }
+      }));
+    }
+    Future<List<SeriesImagesQueryParam>> imageTypes = submit(new Callable<List<SeriesImagesQueryParam>>() {
+      @Override
+      public List<SeriesImagesQueryParam> call() throws Exception {
+        return getImageTypes(id);
+      }
+    });
+
+    // the image queries need the image types
+    List<Future<List<SeriesImageQueryResult>>> imageQueries = new ArrayList<>();
+    try {
+      for (final SeriesImagesQueryParam param : imageTypes.get()) {
+        // season wide not used atm
+        if ("seasonwide".equals(param.keyType)) {
+          continue;
+        }
+        for (final String imageLanguage : Arrays.asList(language, null)) {
+          imageQueries.add(submit(new Callable<List<SeriesImageQueryResult>>() {
+            @Override
+            public List<SeriesImageQueryResult> call() throws Exception {
+              return getImages(id, param.keyType, imageLanguage);
+            }
+          }));
+        }
+      }
+    }
+    catch (ExecutionException e) {
+      LOGGER.error("failed to get artwork: " + e.getCause().getMessage());
+    }
+
+    // the series (the record is cached by the fetch of the localized texts; the fallback texts need the localized texts)
+    LocalizedText localizedText = text.get();
+    Series show = getSeries(id, language);
+    if (localizedText != null && show != null) {
+      if (StringUtils.isAnyBlank(localizedText.title, localizedText.overview) && !fallbackLanguage.equals(language)) {
+        LocalizedText fallbackText = needsFallbackText(localizedText, fields) ? getSeriesText(id, fallbackLanguage)
+            : DATA_CACHE.getSeriesText(id, fallbackLanguage);
+        if (fallbackText == null && !needsFallbackText(localizedText, fields)) {
+          saved++;
+        }
+        localizedText = mergeTexts(localizedText, fallbackText);
+      }
+      fillTvShowMetadata(md, show, localizedText, actors == null ? new ArrayList<Actor>() : actors.get());
+    }
+    reportSavedCalls(Collections.singletonList(md), saved);
+
+    // the episode list
+    TheTvDbEpisodeIndex eps = indexes.get(language).get();
+    TheTvDbEpisodeIndex fallbackEps = fallbackLanguage.equals(language) ? new TheTvDbEpisodeIndex() : indexes.get(fallbackLanguage).get();
+    episodes.addAll(buildEpisodeList(eps, fallbackEps));
+
+    // the artwork
+    Set<SeriesImageQueryResult> images = new TreeSet<>(new ImageComparator(language));
+    for (Future<List<SeriesImageQueryResult>> imageQuery : imageQueries) {
+      try {
+        images.addAll(imageQuery.get());
+      }
+      catch (ExecutionException e) {
+        LOGGER.error("failed to get artwork: " + e.getCause().getMessage());
+      }
+    }
+    artwork.addAll(buildArtwork(images));
+    if (isPrefetchArtwork()) {
+      prefetchArtwork(artwork);
+    }
+
+    return new TheTvDbSeriesBundle(md, episodes, artwork);
+  }
+
+  /**
+   * get the episode listing from the prefetcher or fetch it if it has not been prefetched
+   */
+  private TheTvDbEpisodeIndex getPrefetchedEpisodeIndex(int id, String language) {
+    TheTvDbEpisodeIndex index = null;
+    // a running prefetch is not awaited; scrapes which must be answered from the caches do not cancel a queued one
+    if (!TheTvDbStaleness.isCacheOnly()) {
+      index = PREFETCHER.take("episodes/" + id + "/" + language);
+    }
+    if (index == null || index.size() == 0) {
+      index = getEpisodeIndex(id, language);
+    }
+    return index;
+  }
+
+  /**
+   * get the whole episode listing (all pages) of the series in the given language. Scrapes which must be answered from the caches get the last
+   * fetched listing
+   */
+  private TheTvDbEpisodeIndex getEpisodeIndex(int id, String language) {
+    if (TheTvDbStaleness.isCacheOnly()) {
+      TheTvDbEpisodeIndex index = DATA_CACHE.getEpisodeIndex(id, language);
+      if (index == null) {
+        TheTvDbStaleness.recordMissing();
+        return new TheTvDbEpisodeIndex();
+      }
+      return index;
+    }
+
+    // differential rescrape: the cached listing is used as long as the series did not change
+    if (isDifferential()) {
+      checkForChanges(id, language, null);
+      TheTvDbEpisodeIndex cached = DATA_CACHE.getEpisodeIndex(id, language);
+      if (cached != null) {
+        // 100 episodes per page
+        CHANGES.savedCalls(cached.size() / 100 + 1);
+        return cached;
+      }
+    }
+
+    TheTvDbEpisodeIndex index = new TheTvDbEpisodeIndex();
+    TheTvDbTrace.Span span = TheTvDbTrace.start("fetch episode listing").attribute("id", id).attribute("language", language);
+    try {
+      // 100 results per page
+      int page = 1;
+      while (page > 0) {
+        TheTvDbConnectionCounter.trackConnections();
+        page = TheTvDbJsonDecoder.fetchEpisodes(tvdb.okHttpClient(), id, page, language, index);
+      }
+
+      // a changed listing invalidates the unsuccessful episode lookups of the series
+      if (index.size() > 0) {
+        EPISODE_MISSES.updateListing(id, index.getFingerprint());
+        // the numbers and dates of the listing are language independent, the texts are not
+        DATA_CACHE.putEpisodeIndex(id, language, index);
+      }
+    }
+    catch (Exception e) {
+      LOGGER.error("failed to get episode list: " + e.getMessage());
+    }
+    finally {
+      span.attribute("episodes", index.size()).end();
+    }
+    return index;
+  }
+
+  private List<MediaEpisode> buildEpisodeList(TheTvDbEpisodeIndex eps, TheTvDbEpisodeIndex fallbackEps) {
+    TheTvDbTrace.Span span = TheTvDbTrace.start("map episode list").attribute("episodes", eps.size());
+    try {
+      List<MediaEpisode> episodes = new ArrayList<>();
+      for (int i = 0; i < eps.size(); i++) {
+        MediaEpisode episode = eps.toMediaEpisode(i, providerInfo.getId());
+
+        // take the texts from the fallback language if there is no localized content
+        int fallback = fallbackEps.size() > 0 ? fallbackEps.findAired(episode.season, episode.episode) : -1;
+        if (StringUtils.isBlank(episode.title) && fallback >= 0) {
+          episode.title = fallbackEps.getTitle(fallback);
+        }
+        if (StringUtils.isBlank(episode.plot) && fallback >= 0) {
+          episode.plot = fallbackEps.getPlot(fallback);
+        }
+
+        episodes.add(episode);
+      }
+      return episodes;
+    }
+    finally {
+      span.end();
+    }
+  }
+
+  /**
+   * get the tvdb id from the scrape options (the id of the search result, our provider id or the alternate "tvdb" id)
+   *
+   * @return the id or 0 if there is no id
+   */
+  private int getTvdbId(MediaScrapeOptions options) {
+    int id = 0;
 
     // id from result
     if (options.getResult() != null) {
@@ -861,76 +2229,89 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
       }
     }
 
-    if (id == 0) {
-      return episodes;
-    }
-
-    List<Episode> eps = new ArrayList<>();
-    List<Episode> fallbackEps = new ArrayList<>();
-    synchronized (tvdb) {
-      try {
-        String fallbackLanguage = MediaLanguages.get(providerInfo.getConfig().getValue("fallbackLanguage")).getLanguage();
-
-        // 100 results per page
-        int counter = 1;
-        while (true) {
-          TheTvDbConnectionCounter.trackConnections();
-          EpisodesResponse response = tvdb.series().episodes(id, counter, options.getLanguage().getLanguage()).execute().body();
-
-          // and get the episode listing in the fallback language too
-          if (!fallbackLanguage.equals(options.getLanguage().getLanguage())) {
-            TheTvDbConnectionCounter.trackConnections();
-            EpisodesResponse responseFallback = tvdb.series().episodes(id, counter, fallbackLanguage).execute().body();
-            fallbackEps.addAll(responseFallback.data);
-          }
+    return id;
+  }
 
-          eps.addAll(response.data);
-          if (response.data.size() < 100) {
-            break;
-          }
+  private String getFallbackLanguage() {
+    return MediaLanguages.get(providerInfo.getConfig().getValue("fallbackLanguage")).getLanguage();
+  }
 
-          counter++;
-        }
-      }
-      catch (Exception e) {
-        LOGGER.error("failed to get episode list: " + e.getMessage());
-      }
-    }
+  /**
+   * seed the caches from a local dump of the API data (see {@link TheTvDbDumpImporter} for the format), so that a new node starts warm instead
+   * of crawling every series through the rate limit. The data ends up in the in memory caches, the local search index and - if activated - in
+   * the shared cache file. It is as old as the last update of its series: older data is used after the lastUpdated stamp of the series has been
+   * checked (differentialRescrape), so that only the changes need to be fetched. The differential rescrape is activated by the import
+   *
+   * @param dump
+   *          the dump file
+   * @return the count of imported records
+   * @throws Exception
+   *           any exception while reading the dump
+   */
+  public static long importDump(Path dump) throws Exception {
+    // the shared cache is opened with the api
+    initAPI();
 
-    // build the fallback language episode map for faster lookup
-    Map<String, Episode> fallbackEpsMap = new HashMap<>();
-    for (Episode ep : fallbackEps) {
-      fallbackEpsMap.put("S" + ep.airedSeason + "E" + ep.airedEpisodeNumber, ep);
+    if (!isDifferential()) {
+      // without the checks the imported data expires with the age of its series and would be fetched again (or served stale)
+      LOGGER.info("activating the differential rescrape: the imported data is used again once the lastUpdated stamp of its series is checked");
+      providerInfo.getConfig().setValue("differentialRescrape", true);
     }
 
-    for (Episode ep : eps) {
-      MediaEpisode episode = new MediaEpisode(providerInfo.getId());
-      episode.ids.put(providerInfo.getId(), ep.id);
-      episode.episode = TvUtils.getEpisodeNumber(ep.airedEpisodeNumber);
-      episode.season = TvUtils.getSeasonNumber(ep.airedSeason);
-      episode.dvdEpisode = TvUtils.getEpisodeNumber(ep.dvdEpisodeNumber);
-      episode.dvdSeason = TvUtils.getSeasonNumber(ep.dvdSeason);
-      episode.firstAired = ep.firstAired;
+    TheTvDbDumpImporter importer = new TheTvDbDumpImporter(DATA_CACHE, SEARCH_INDEX, EPISODE_MISSES, sharedCache, artworkUrl);
+    long imported = importer.importDump(dump, Runtime.getRuntime().availableProcessors());
+    LOGGER.info(importer.getStatistics());
+    return imported;
+  }
 
-      Episode fallbackEpisode = fallbackEpsMap.get("S" + ep.airedSeason + "E" + ep.airedEpisodeNumber);
-      if (StringUtils.isNotBlank(ep.episodeName)) {
-        episode.title = ep.episodeName;
-      }
-      else if (fallbackEpisode != null && StringUtils.isNotBlank(fallbackEpisode.episodeName)) {
-        episode.title = fallbackEpisode.episodeName;
-      }
+  /**
+   * the statistics of the differential rescrape (see the setting differentialRescrape): the count of checked and changed series and episodes and
+   * the count of api calls which were saved
+   */
+  public static String getChangeStatistics() {
+    return CHANGES.getStatistics();
+  }
 
-      if (StringUtils.isNotBlank(ep.overview)) {
-        episode.plot = ep.overview;
-      }
-      else if (fallbackEpisode != null && StringUtils.isNotBlank(fallbackEpisode.overview)) {
-        episode.plot = fallbackEpisode.overview;
-      }
+  /**
+   * drop all cached data of this JVM (e.g. to compare cold runs in load tests)
+   */
+  static void clearCaches() {
+    DATA_CACHE.clear();
+    SEARCH_CACHE.clear();
+    SEARCH_INDEX.clear();
+    EPISODE_MISSES.clear();
+    CHANGES.clear();
+  }
 
-      episodes.add(episode);
+  private static synchronized ExecutorService getExecutor() {
+    if (executor == null) {
+      executor = Executors.newFixedThreadPool(5, new TheTvDbThreadFactory("tvdb-worker"));
     }
+    return executor;
+  }
 
-    return episodes;
+  /**
+   * run the task in the worker pool with the priority, the cache only mode and the trace of the calling thread
+   */
+  private static <T> Future<T> submit(final Callable<T> task) {
+    final Priority priority = TheTvDbConnectionCounter.getPriority();
+    final TheTvDbStaleness staleness = TheTvDbStaleness.current();
+    final TheTvDbTrace.Span span = TheTvDbTrace.current();
+    return getExecutor().submit(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        TheTvDbConnectionCounter.setPriority(priority);
+        TheTvDbStaleness.join(staleness);
+        TheTvDbTrace.join(span);
+        try {
+          return task.call();
+        }
+        finally {
+          TheTvDbStaleness.end();
+          TheTvDbTrace.leave();
+        }
+      }
+    });
   }
 
   /**
@@ -1028,6 +2409,24 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
     return g;
   }
 
+  /**
+   * just try to fetch the poster url of the series
+   *
+   * @return the url of the first poster or null if there is none
+   */
+  private String getPosterUrl(int id) {
+    try {
+      List<SeriesImageQueryResult> posters = getImages(id, "poster", null);
+      if (!posters.isEmpty()) {
+        return artworkUrl + posters.get(0).fileName;
+      }
+    }
+    catch (Exception e) {
+      LOGGER.warn("could not get poster for search result: " + e.getMessage());
+    }
+    return null;
+  }
+
   /**
    * Is i1 != i2 (when >0)
    */
@@ -1038,19 +2437,39 @@ public class TheTvDbMetadataProvider implements ITvShowMetadataProvider, ITvShow
   /**********************************************************************
    * local helper classes
    **********************************************************************/
+  private static class TheTvdbApi extends TheTvdb {
+    private OkHttpClient okHttpClient;
+
+    private TheTvdbApi(String apiKey) {
+      super(apiKey);
+    }
+
+    // tell the tvdb api to use our OkHttp client (with the tvdb transport profile)
+    @Override
+    public synchronized OkHttpClient okHttpClient() {
+      if (this.okHttpClient == null) {
+        OkHttpClient.Builder builder = TheTvDbTransport.newBuilder();
+        this.setOkHttpClientDefaults(builder);
+        this.okHttpClient = builder.build();
+      }
+
+      return this.okHttpClient;
+    }
+
+    // the base url may be redirected (see TheTvDbTransport)
+    @Override
+    protected Retrofit.Builder retrofitBuilder() {
+      return super.retrofitBuilder().baseUrl(TheTvDbTransport.getApiUrl());
+    }
+  }
+
   private static class ImageComparator implements Comparator<SeriesImageQueryResult> {
     private int preferredLangu = 0;
     private int english        = 0;
 
     private ImageComparator(String language) {
-      for (Language lang : tvdbLanguages) {
-        if (language.equals(lang.abbreviation)) {
-          preferredLangu = lang.id;
-        }
-        if ("en".equals(lang.abbreviation)) {
-          english = lang.id;
-        }
-      }
+      preferredLangu = TheTvDbLanguages.getId(language);
+      english = TheTvDbLanguages.getId("en");
     }
 
     /*
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+/**
+ * The class TheTvDbPrefetcher fetches data which is likely needed next (e.g. the episode listing and the artwork after a series has been
+ * scraped) in the background. The prefetches run one after another in a single thread with background priority and only if there is spare budget
+ * in the rate limit. The results are kept for some minutes to be taken by the following calls; prefetches nobody has taken count as wasted
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbPrefetcher {
+  static final long                             MAX_AGE        = 10 * 60 * 1000;
+  static final int                              QUEUE_SIZE     = 50;
+
+  private static final Logger                   LOGGER         = LoggerFactory.getLogger(TheTvDbPrefetcher.class);
+
+  private final ConcurrentMap<String, Prefetch> prefetches     = new ConcurrentHashMap<>();
+  private final ThreadPoolExecutor              executor;
+  private final AtomicLong                      scheduled      = new AtomicLong();
+  private final AtomicLong                      skipped        = new AtomicLong();
+  private final AtomicLong                      used           = new AtomicLong();
+  private final AtomicLong                      unused         = new AtomicLong();
+  private final AtomicLong                      requests       = new AtomicLong();
+  private final AtomicLong                      wastedRequests = new AtomicLong();
+
+  TheTvDbPrefetcher() {
+    executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+        new TheTvDbThreadFactory("tvdb-prefetch"));
+  }
+
+  /**
+   * schedule a prefetch (if there is no prefetch with the same key yet)
+   *
+   * @param key
+   *          the key the result can be taken with
+   * @param task
+   *          the task fetching the data
+   * @return true if the prefetch has been scheduled
+   */
+  <T> boolean prefetch(String key, final Callable<T> task) {
+    expire();
+
+    final Prefetch prefetch = new Prefetch();
+    prefetch.future = new FutureTask<T>(new Callable<T>() {
+      @Override
+      public T call() throws Exception {
+        // interactive requests and requests of other threads come first
+        if (!TheTvDbConnectionCounter.hasSpareBudget()) {
+          skipped.incrementAndGet();
+          return null;
+        }
+
+        TheTvDbConnectionCounter.setPriority(Priority.BACKGROUND);
+        long before = TheTvDbConnectionCounter.getThreadRequests();
+        try {
+          return task.call();
+        }
+        finally {
+          prefetch.fetched = true;
+          prefetch.requests = TheTvDbConnectionCounter.getThreadRequests() - before;
+          requests.addAndGet(prefetch.requests);
+        }
+      }
+    }) {
+      @Override
+      public void run() {
+        // the prefetch runs only if no caller has taken it over before
+        if (prefetch.started.compareAndSet(false, true)) {
+          super.run();
+        }
+      }
+    };
+
+    if (prefetches.putIfAbsent(key, prefetch) != null) {
+      return false;
+    }
+    try {
+      executor.execute(prefetch.future);
+      scheduled.incrementAndGet();
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      // too much in the queue already
+      prefetches.remove(key, prefetch);
+      skipped.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * take the result of a finished prefetch; a queued one is cancelled. A running prefetch is not awaited (it runs with background priority):
+   * what it has fetched so far is in the caches already, the rest is fetched by the caller. The prefetch stays for later calls
+   *
+   * @param key
+   *          the key of the prefetch
+   * @return the result or null if there is none (the caller has to fetch the data itself)
+   */
+  @SuppressWarnings("unchecked")
+  <T> T take(String key) {
+    Prefetch prefetch = prefetches.get(key);
+    if (prefetch == null) {
+      return null;
+    }
+
+    // not started yet: the caller is faster on its own (and the prefetch will not start any more)
+    if (prefetch.started.compareAndSet(false, true)) {
+      prefetch.future.cancel(false);
+      prefetches.remove(key, prefetch);
+      skipped.incrementAndGet();
+      return null;
+    }
+    if (!prefetch.future.isDone() || !prefetches.remove(key, prefetch)) {
+      return null;
+    }
+
+    try {
+      Object result = prefetch.future.get();
+      if (result != null) {
+        used.incrementAndGet();
+      }
+      return (T) result;
+    }
+    catch (Exception e) {
+      LOGGER.debug("prefetch of " + key + " not usable: " + e.getMessage());
+      unused.incrementAndGet();
+      wastedRequests.addAndGet(prefetch.requests);
+      return null;
+    }
+  }
+
+  /**
+   * drop the prefetches nobody has taken in time
+   */
+  void expire() {
+    expire(System.currentTimeMillis());
+  }
+
+  void expire(long now) {
+    Iterator<Prefetch> it = prefetches.values().iterator();
+    while (it.hasNext()) {
+      Prefetch prefetch = it.next();
+      if (prefetch.future.isDone() && prefetch.created + MAX_AGE < now) {
+        it.remove();
+        // skipped prefetches did not cost anything
+        if (prefetch.fetched) {
+          unused.incrementAndGet();
+          wastedRequests.addAndGet(prefetch.requests);
+        }
+      }
+    }
+  }
+
+  /**
+   * the share of the finished prefetches which have been used (0..1)
+   */
+  double getAccuracy() {
+    long total = used.get() + unused.get();
+    return total == 0 ? 0 : (double) used.get() / total;
+  }
+
+  long getUsed() {
+    return used.get();
+  }
+
+  long getUnused() {
+    return unused.get();
+  }
+
+  long getWastedRequests() {
+    return wastedRequests.get();
+  }
+
+  /**
+   * a short statistic of the prefetches (for logging)
+   */
+  String getStatistics() {
+    return "prefetch: " + scheduled.get() + " scheduled, " + skipped.get() + " skipped, " + used.get() + " used, " + unused.get()
+        + " unused, accuracy " + Math.round(getAccuracy() * 100) + "%, " + requests.get() + " requests, " + wastedRequests.get() + " wasted";
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class Prefetch {
+    private final long          created  = System.currentTimeMillis();
+    // set by the prefetch thread when it starts or by the caller taking the prefetch over, whichever comes first
+    private final AtomicBoolean started  = new AtomicBoolean();
+    private FutureTask<?>       future;
+    private volatile boolean    fetched  = false;
+    private volatile long       requests = 0;
+  }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+/**
+ * The interface TheTvDbRateLimitBackend is used to store the connections of the current time window. The default backend keeps them in this JVM;
+ * other backends can share them with other processes (or hosts) using the same API key
+ *
+ * @author Manuel Laggner
+ */
+public interface TheTvDbRateLimitBackend {
+  /**
+   * take a slot for a new connection if the policy allows it; checking and taking the slot has to be atomic for all participants of the backend
+   *
+   * @param priority
+   *          the lane of the connection
+   * @param now
+   *          the current time
+   * @param policy
+   *          the policy deciding if the connection can be made
+   * @return 0 if the slot has been taken; otherwise the time (ms) to wait before the next try
+   */
+  long tryAcquire(Priority priority, long now, SlotPolicy policy);
+
+  /**
+   * get the count of connections per lane (index = ordinal of the priority) in the current time window
+   */
+  int[] getCounts(long now);
+
+  /**
+   * remove all connections
+   */
+  void clear();
+
+  /**
+   * the policy of the rate limit: may a connection of the given lane be made?
+   */
+  interface SlotPolicy {
+    /**
+     * @param priority
+     *          the lane of the connection
+     * @param counts
+     *          the count of connections per lane (index = ordinal of the priority) in the current time window
+     * @param nextExpiry
+     *          the time when the oldest connection leaves the time window (Long.MAX_VALUE if there is no connection)
+     * @param now
+     *          the current time
+     * @return 0 if the connection can be made; otherwise the time (ms) to wait
+     */
+    long getWaitTime(Priority priority, int[] counts, long nextExpiry, long now);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+/**
+ * The class TheTvDbRevalidator repeats scrapes which have been answered with expired data from the caches in the background, so that the
+ * caches are fresh for the next call. The scrapes run one after another in a single thread with background priority; a scrape which is already
+ * waiting is not queued twice
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbRevalidator {
+  static final int                 QUEUE_SIZE = 100;
+
+  private static final Logger      LOGGER     = LoggerFactory.getLogger(TheTvDbRevalidator.class);
+
+  private final Set<String>        pending    = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+  private final ThreadPoolExecutor executor;
+  private final AtomicLong         scheduled  = new AtomicLong();
+  private final AtomicLong         skipped    = new AtomicLong();
+  private final AtomicLong         failed     = new AtomicLong();
+
+  TheTvDbRevalidator() {
+    executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(QUEUE_SIZE),
+        new TheTvDbThreadFactory("tvdb-revalidate"));
+  }
+
+  /**
+   * schedule the revalidation (if there is no pending revalidation with the same key)
+   *
+   * @param key
+   *          the key of the scrape
+   * @param scrape
+   *          the scrape which fetches the expired data again
+   * @return true if the revalidation has been scheduled
+   */
+  boolean revalidate(final String key, final Callable<?> scrape) {
+    if (!pending.add(key)) {
+      return false;
+    }
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          TheTvDbConnectionCounter.setPriority(Priority.BACKGROUND);
+          try {
+            scrape.call();
+          }
+          catch (Exception e) {
+            LOGGER.debug("revalidation of " + key + " failed: " + e.getMessage());
+            failed.incrementAndGet();
+          }
+          finally {
+            pending.remove(key);
+          }
+        }
+      });
+      scheduled.incrementAndGet();
+      return true;
+    }
+    catch (RejectedExecutionException e) {
+      // too much in the queue already
+      pending.remove(key);
+      skipped.incrementAndGet();
+      return false;
+    }
+  }
+
+  /**
+   * the count of revalidations which are queued or running
+   */
+  int getPending() {
+    return pending.size();
+  }
+
+  /**
+   * a short statistic of the revalidations (for logging)
+   */
+  String getStatistics() {
+    return "revalidation: " + scheduled.get() + " scheduled, " + skipped.get() + " skipped, " + failed.get() + " failed, " + pending.size()
+        + " pending";
+  }
+}
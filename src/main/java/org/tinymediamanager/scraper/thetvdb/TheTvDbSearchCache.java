@@ -0,0 +1,112 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.text.Normalizer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.tinymediamanager.scraper.MediaSearchResult;
+
+/**
+ * The class TheTvDbSearchCache caches the search results per normalized query and language. Searches without any result are cached too, but with
+ * a shorter time to live (a show may be added to thetvdb in the meantime)
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbSearchCache {
+  static final long                                           TTL           = TimeUnit.HOURS.toMillis(6);
+  static final long                                           NEGATIVE_TTL  = TimeUnit.MINUTES.toMillis(30);
+
+  private static final Pattern                                DIACRITICS    = Pattern.compile("\\p{InCombiningDiacriticalMarks}+");
+  private static final Pattern                                NON_ALPHA_NUM = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+  private final TheTvDbCache<String, List<MediaSearchResult>> results;
+  private final TheTvDbCache<String, Boolean>                 emptyResults;
+
+  TheTvDbSearchCache() {
+    this(TTL, NEGATIVE_TTL);
+  }
+
+  TheTvDbSearchCache(long ttl, long negativeTtl) {
+    results = new TheTvDbCache<>("search", ttl, 5000);
+    emptyResults = new TheTvDbCache<>("empty search", negativeTtl, 5000);
+  }
+
+  /**
+   * normalize the query: case, accents, punctuation and whitespace do not matter ("Drugs, Inc" == "drugs inc")
+   */
+  static String normalize(String query) {
+    if (query == null) {
+      return "";
+    }
+    String normalized = DIACRITICS.matcher(Normalizer.normalize(query, Normalizer.Form.NFD)).replaceAll("");
+    return NON_ALPHA_NUM.matcher(normalized.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+  }
+
+  /**
+   * create the cache key for the query in the given languages
+   */
+  static String createKey(String query, String language, String fallbackLanguage) {
+    return normalize(query) + "_" + language + "_" + fallbackLanguage;
+  }
+
+  /**
+   * get the cached results
+   *
+   * @param key
+   *          the key (see createKey)
+   * @return the cached results, an empty list if it is known that there are no results or null if the query is not cached
+   */
+  List<MediaSearchResult> get(String key) {
+    List<MediaSearchResult> cached = results.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    if (emptyResults.get(key) != null) {
+      return Collections.emptyList();
+    }
+    return null;
+  }
+
+  /**
+   * put the results of a (successful) search into the cache
+   */
+  void put(String key, List<MediaSearchResult> searchResults) {
+    if (searchResults.isEmpty()) {
+      emptyResults.put(key, Boolean.TRUE);
+    }
+    else {
+      emptyResults.invalidate(key);
+      results.put(key, Collections.unmodifiableList(searchResults));
+    }
+  }
+
+  /**
+   * a short statistic of the cache usage (for logging)
+   */
+  String getStatistics() {
+    return results.getStatistics() + "; " + emptyResults.getStatistics();
+  }
+
+  void clear() {
+    results.clear();
+    emptyResults.clear();
+  }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The class TheTvDbSearchIndex is a local full text index over the names (title and aliases) of all series the provider has fetched. The names
+ * are normalized like the search cache does and split into trigrams; a series is a candidate for a query if its names contain most of the
+ * trigrams of the query. The ranking of the candidates is left to the caller (it should be the same as for the results of the API)
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbSearchIndex {
+  static final int                    MAX_ENTRIES     = 100000;
+  // the share of the trigrams of the query the names of a candidate must contain
+  static final double                 MIN_SIMILARITY  = 0.6;
+  static final int                    MAX_RESULTS     = 20;
+  // a match with at least this score (MetadataUtil.calculateScore) and the year of the search is taken without asking the API
+  static final float                  CONFIDENT_SCORE = 0.95f;
+
+  private final ReadWriteLock         lock            = new ReentrantReadWriteLock();
+  private final List<Entry>           entries         = new ArrayList<>();
+  private final Map<String, Integer>  positions       = new HashMap<>();
+  private final Map<String, Postings> postings        = new HashMap<>();
+  private final AtomicLong            queries         = new AtomicLong();
+  private final AtomicLong            queryTime       = new AtomicLong();
+  private int                         removed         = 0;
+
+  /**
+   * add the series (or replace the entry of the series in the given language)
+   *
+   * @param id
+   *          the tvdb id
+   * @param language
+   *          the language of the title
+   * @param title
+   *          the title
+   * @param aliases
+   *          the aliases (may be null)
+   * @param year
+   *          the year of the first airing (0 if unknown)
+   * @param posterUrl
+   *          the url of the poster (null if unknown - a known url is kept then)
+   */
+  void add(int id, String language, String title, List<String> aliases, int year, String posterUrl) {
+    if (title == null || title.isEmpty()) {
+      return;
+    }
+    List<String> aliasList = aliases == null ? Collections.<String> emptyList() : new ArrayList<>(aliases);
+    String key = id + "_" + language;
+
+    lock.writeLock().lock();
+    try {
+      Integer position = positions.get(key);
+      Entry old = position == null ? null : entries.get(position);
+      if (old != null && old.title.equals(title) && old.aliases.equals(aliasList) && old.year == year) {
+        // unchanged: only remember the poster
+        if (posterUrl != null) {
+          old.posterUrl = posterUrl;
+        }
+        return;
+      }
+      if (old == null && positions.size() >= MAX_ENTRIES) {
+        return;
+      }
+
+      Entry entry = new Entry(id, language, title, aliasList, year, posterUrl != null || old == null ? posterUrl : old.posterUrl);
+      if (old != null) {
+        entries.set(position, null);
+        removed++;
+      }
+      positions.put(key, entries.size());
+      entries.add(entry);
+      for (String gram : entry.grams) {
+        Postings list = postings.get(gram);
+        if (list == null) {
+          list = new Postings();
+          postings.put(gram, list);
+        }
+        list.add(entries.size() - 1);
+      }
+
+      // replaced entries leave holes in the postings
+      if (removed > 1000 && removed > entries.size() / 2) {
+        rebuild();
+      }
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * remember the poster url of the series (in all languages)
+   */
+  void setPosterUrl(int id, String posterUrl) {
+    if (posterUrl == null) {
+      return;
+    }
+    lock.writeLock().lock();
+    try {
+      for (Entry entry : entries) {
+        if (entry != null && entry.id == id) {
+          entry.posterUrl = posterUrl;
+        }
+      }
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * find the series whose names match the query
+   *
+   * @param query
+   *          the search string
+   * @param languages
+   *          the languages of the names to search in (in the order of preference)
+   * @return the matching series (at most one entry per series; best trigram match first)
+   */
+  List<Entry> search(String query, Collection<String> languages) {
+    long start = System.nanoTime();
+    Set<String> queryGrams = trigrams(TheTvDbSearchCache.normalize(query));
+    if (queryGrams.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    lock.readLock().lock();
+    try {
+      // count the shared trigrams per entry (an array is much cheaper than a map for the long postings of common trigrams)
+      int[] counts = new int[entries.size()];
+      Postings touched = new Postings();
+      for (String gram : queryGrams) {
+        Postings list = postings.get(gram);
+        if (list == null) {
+          continue;
+        }
+        for (int i = 0; i < list.size; i++) {
+          if (counts[list.values[i]]++ == 0) {
+            touched.add(list.values[i]);
+          }
+        }
+      }
+
+      int minHits = (int) Math.ceil(queryGrams.size() * MIN_SIMILARITY);
+      List<Integer> matches = new ArrayList<>();
+      for (int i = 0; i < touched.size; i++) {
+        int position = touched.values[i];
+        Entry entry = entries.get(position);
+        if (counts[position] >= minHits && entry != null && languages.contains(entry.language)) {
+          matches.add(position);
+        }
+      }
+
+      // best matches (and preferred languages) first; one entry per series
+      final int[] hits = counts;
+      final List<String> languageOrder = new ArrayList<>(languages);
+      Collections.sort(matches, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer o1, Integer o2) {
+          if (hits[o1] != hits[o2]) {
+            return hits[o2] - hits[o1];
+          }
+          return languageOrder.indexOf(entries.get(o1).language) - languageOrder.indexOf(entries.get(o2).language);
+        }
+      });
+
+      Map<Integer, Entry> results = new LinkedHashMap<>();
+      for (Integer match : matches) {
+        Entry entry = entries.get(match);
+        if (!results.containsKey(entry.id)) {
+          results.put(entry.id, entry);
+        }
+        if (results.size() >= MAX_RESULTS) {
+          break;
+        }
+      }
+      return new ArrayList<>(results.values());
+    }
+    finally {
+      lock.readLock().unlock();
+      queries.incrementAndGet();
+      queryTime.addAndGet(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * the count of indexed series names (per language)
+   */
+  int size() {
+    lock.readLock().lock();
+    try {
+      return positions.size();
+    }
+    finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  /**
+   * a short statistic of the index usage (for logging)
+   */
+  String getStatistics() {
+    long count = queries.get();
+    return "search index: " + size() + " entries, " + count + " queries, avg " + (count == 0 ? 0 : queryTime.get() / count / 1000) + "us";
+  }
+
+  void clear() {
+    lock.writeLock().lock();
+    try {
+      entries.clear();
+      positions.clear();
+      postings.clear();
+      removed = 0;
+    }
+    finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * the year of the first airing (yyyy-MM-dd) or 0 if unknown
+   */
+  static int parseYear(String firstAired) {
+    try {
+      return Integer.parseInt(firstAired.substring(0, 4));
+    }
+    catch (Exception e) {
+      return 0;
+    }
+  }
+
+  /**
+   * the distinct trigrams of the normalized string; words are padded with a space, so that short words and word starts count too
+   */
+  static Set<String> trigrams(String normalized) {
+    Set<String> grams = new LinkedHashSet<>();
+    if (normalized.isEmpty()) {
+      return grams;
+    }
+    String padded = " " + normalized + " ";
+    for (int i = 0; i + 3 <= padded.length(); i++) {
+      grams.add(padded.substring(i, i + 3));
+    }
+    return grams;
+  }
+
+  private void rebuild() {
+    List<Entry> current = new ArrayList<>();
+    for (Entry entry : entries) {
+      if (entry != null) {
+        current.add(entry);
+      }
+    }
+    entries.clear();
+    positions.clear();
+    postings.clear();
+    removed = 0;
+    for (Entry entry : current) {
+      positions.put(entry.id + "_" + entry.language, entries.size());
+      entries.add(entry);
+      for (String gram : entry.grams) {
+        Postings list = postings.get(gram);
+        if (list == null) {
+          list = new Postings();
+          postings.put(gram, list);
+        }
+        list.add(entries.size() - 1);
+      }
+    }
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  /**
+   * an indexed series name
+   */
+  static class Entry {
+    final int                 id;
+    final String              language;
+    final String              title;
+    final List<String>        aliases;
+    final int                 year;
+    volatile String           posterUrl;
+    private final Set<String> grams = new HashSet<>();
+
+    private Entry(int id, String language, String title, List<String> aliases, int year, String posterUrl) {
+      this.id = id;
+      this.language = language;
+      this.title = title;
+      this.aliases = aliases;
+      this.year = year;
+      this.posterUrl = posterUrl;
+      grams.addAll(trigrams(TheTvDbSearchCache.normalize(title)));
+      for (String alias : aliases) {
+        grams.addAll(trigrams(TheTvDbSearchCache.normalize(alias)));
+      }
+    }
+  }
+
+  /**
+   * a growing list of entry positions
+   */
+  private static class Postings {
+    private int[] values = new int[4];
+    private int   size   = 0;
+
+    private void add(int position) {
+      if (size == values.length) {
+        values = Arrays.copyOf(values, size * 2);
+      }
+      values[size++] = position;
+    }
+  }
+}
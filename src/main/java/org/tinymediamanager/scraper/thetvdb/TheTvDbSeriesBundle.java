@@ -0,0 +1,60 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.List;
+
+import org.tinymediamanager.scraper.MediaMetadata;
+import org.tinymediamanager.scraper.entities.MediaArtwork;
+import org.tinymediamanager.scraper.entities.MediaEpisode;
+
+/**
+ * The class TheTvDbSeriesBundle is the combined result of a full series scrape: the metadata of the series, the episode list and all artwork
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbSeriesBundle {
+  private final MediaMetadata      metadata;
+  private final List<MediaEpisode> episodes;
+  private final List<MediaArtwork> artwork;
+
+  TheTvDbSeriesBundle(MediaMetadata metadata, List<MediaEpisode> episodes, List<MediaArtwork> artwork) {
+    this.metadata = metadata;
+    this.episodes = episodes;
+    this.artwork = artwork;
+  }
+
+  /**
+   * the metadata of the series (as from getMetadata)
+   */
+  public MediaMetadata getMetadata() {
+    return metadata;
+  }
+
+  /**
+   * the episode list (as from getEpisodeList)
+   */
+  public List<MediaEpisode> getEpisodes() {
+    return episodes;
+  }
+
+  /**
+   * all artwork of the series (as from getArtwork with the artwork type ALL)
+   */
+  public List<MediaArtwork> getArtwork() {
+    return artwork;
+  }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+/**
+ * The class TheTvDbSharedCache is a response cache shared by all processes on this host using the same file. The file is memory mapped and
+ * consists of<br>
+ * - a header (magic, index size, write position, count of entries, generation, file size)<br>
+ * - an open addressing hash index (hash of the key + offset of the record)<br>
+ * - the records (time, key and the value as JSON) which are only appended<br>
+ * Readers do not need any lock: a record is written completely before it gets published in the index. Writers append under an exclusive lock
+ * of the file (single writer). If the index or the file is full, the writer starts a new generation: the index is cleared and the records are
+ * written from the start again. Readers which overlapped with that discard what they have read
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbSharedCache implements Closeable {
+  private static final Logger    LOGGER      = LoggerFactory.getLogger(TheTvDbSharedCache.class);
+  private static final Charset   UTF_8       = Charset.forName("UTF-8");
+  // "TVDC"
+  private static final int       MAGIC       = 0x54564443;
+  // magic (int) + index slots (int) + write position (long) + entries (int) + generation (int) + file size (long)
+  private static final int       HEADER_SIZE = 32;
+  // hash (long) + offset (long)
+  private static final int       SLOT_SIZE   = 16;
+  // file locks belong to the whole process, so the writers of this JVM are serialized here first
+  private static final Object    JVM_LOCK    = new Object();
+
+  private final int              indexSlots;
+  private final long             size;
+  private final long             dataStart;
+  private final FileChannel      channel;
+  private final MappedByteBuffer buffer;
+  private final Gson             gson        = new Gson();
+  private final AtomicLong       hits        = new AtomicLong();
+  private final AtomicLong       misses      = new AtomicLong();
+
+  /**
+   * open (or create) the shared cache file
+   *
+   * @param file
+   *          the file; all processes have to use the same one
+   * @param indexSlots
+   *          the size of the index (max 3/4 of it will be used)
+   * @param size
+   *          the size of the file in bytes (max 2GB)
+   * @throws IOException
+   *           any exception while opening the file
+   */
+  public TheTvDbSharedCache(Path file, int indexSlots, long size) throws IOException {
+    this.indexSlots = indexSlots;
+    this.size = Math.min(size, Integer.MAX_VALUE);
+    this.dataStart = HEADER_SIZE + (long) indexSlots * SLOT_SIZE;
+    if (dataStart >= this.size) {
+      throw new IOException("the file is too small for the index");
+    }
+
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.size);
+
+    synchronized (JVM_LOCK) {
+      FileLock lock = channel.lock();
+      try {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != indexSlots || buffer.getLong(24) != this.size) {
+          LOGGER.debug("initializing shared cache file " + file);
+          for (int i = 0; i < dataStart; i += 8) {
+            buffer.putLong(i, 0);
+          }
+          buffer.putInt(4, indexSlots);
+          buffer.putLong(8, dataStart);
+          buffer.putLong(24, this.size);
+          buffer.putInt(0, MAGIC);
+        }
+      }
+      finally {
+        lock.release();
+      }
+    }
+  }
+
+  /**
+   * get the cached value (decoded from the mapped file; there is no copy of the JSON on the heap)
+   *
+   * @param key
+   *          the key
+   * @param maxAge
+   *          the max age of the entry in ms
+   * @param type
+   *          the type of the value
+   * @return the value or null if there is no (valid) entry
+   */
+  public <T> T get(String key, long maxAge, Type type) {
+    byte[] keyBytes = key.getBytes(UTF_8);
+    int generation = buffer.getInt(20);
+    int record = findRecord(keyBytes);
+    if (record > 0 && buffer.getLong(record + 4) >= System.currentTimeMillis() - maxAge) {
+      int valuePosition = record + 20 + keyBytes.length;
+      int valueLength = buffer.getInt(valuePosition - 4);
+      try {
+        ByteBuffer value = buffer.duplicate();
+        value.limit(valuePosition + valueLength);
+        value.position(valuePosition);
+        T result = gson.fromJson(new InputStreamReader(new ByteBufferInputStream(value), UTF_8), type);
+        // the record may have been overwritten by a new generation meanwhile
+        if (result != null && buffer.getInt(20) == generation) {
+          hits.incrementAndGet();
+          return result;
+        }
+      }
+      catch (Exception e) {
+        LOGGER.debug("could not read " + key + " from the shared cache: " + e.getMessage());
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * the age of the cached entry
+   *
+   * @param key
+   *          the key
+   * @return the age in ms or -1 if there is no entry
+   */
+  public long getAge(String key) {
+    int generation = buffer.getInt(20);
+    int record = findRecord(key.getBytes(UTF_8));
+    long time = record > 0 ? buffer.getLong(record + 4) : 0;
+    return record > 0 && buffer.getInt(20) == generation ? System.currentTimeMillis() - time : -1;
+  }
+
+  /**
+   * append the value to the cache (it replaces an existing entry with the same key)
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value (serialized as JSON)
+   */
+  public void put(String key, Object value) {
+    write(key, value, System.currentTimeMillis(), true);
+  }
+
+  /**
+   * append the value which is known to be current at the given time, but do not start a new generation if the cache is full (for bulk loads
+   * which must not push out what they have added before)
+   *
+   * @param key
+   *          the key
+   * @param value
+   *          the value (serialized as JSON)
+   * @param time
+   *          the time (ms) the value is known to be current
+   * @return false if the value has not been added (the cache is full)
+   */
+  public boolean add(String key, Object value, long time) {
+    return write(key, value, time, false);
+  }
+
+  /**
+   * append the value to the cache
+   *
+   * @return true if the value has been added
+   */
+  private boolean write(String key, Object value, long time, boolean startOver) {
+    if (value == null) {
+      return false;
+    }
+    byte[] keyBytes = key.getBytes(UTF_8);
+    byte[] valueBytes = gson.toJson(value).getBytes(UTF_8);
+    // length (int) + time (long) + key length (int) + key + value length (int) + value
+    int recordLength = 20 + keyBytes.length + valueBytes.length;
+    if (dataStart + recordLength > size) {
+      LOGGER.debug("could not put " + key + " into the shared cache: it is bigger than the cache");
+      return false;
+    }
+
+    TheTvDbTrace.Span lockWait = TheTvDbTrace.start("shared cache lock");
+    synchronized (JVM_LOCK) {
+      FileLock lock = null;
+      try {
+        lock = channel.lock();
+        lockWait.end();
+
+        long writePosition = buffer.getLong(8);
+        int entries = buffer.getInt(16);
+        int slot = findSlot(keyBytes);
+        boolean newEntry = slot >= 0 && buffer.getLong(HEADER_SIZE + slot * SLOT_SIZE) == 0;
+        if (slot < 0 || writePosition + recordLength > size || (newEntry && entries >= indexSlots * 3 / 4)) {
+          if (!startOver) {
+            return false;
+          }
+          startGeneration();
+          writePosition = dataStart;
+          entries = 0;
+          slot = findSlot(keyBytes);
+          newEntry = true;
+        }
+
+        // 1. the record
+        int record = (int) writePosition;
+        buffer.putInt(record, recordLength);
+        buffer.putLong(record + 4, Math.min(time, System.currentTimeMillis()));
+        buffer.putInt(record + 12, keyBytes.length);
+        ByteBuffer target = buffer.duplicate();
+        target.position(record + 16);
+        target.put(keyBytes);
+        target.putInt(valueBytes.length);
+        target.put(valueBytes);
+
+        // 2. publish it in the index (offset before hash - readers check the hash first)
+        int position = HEADER_SIZE + slot * SLOT_SIZE;
+        buffer.putLong(position + 8, record);
+        buffer.putLong(position, hash(keyBytes));
+
+        // 3. the header
+        buffer.putLong(8, writePosition + recordLength);
+        if (newEntry) {
+          buffer.putInt(16, entries + 1);
+        }
+        return true;
+      }
+      catch (IOException e) {
+        LOGGER.warn("could not write to the shared cache: " + e.getMessage());
+        return false;
+      }
+      finally {
+        lockWait.end();
+        if (lock != null) {
+          try {
+            lock.release();
+          }
+          catch (IOException ignored) {
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * the count of entries in the cache
+   */
+  public int size() {
+    return buffer.getInt(16);
+  }
+
+  /**
+   * the generation of the cache (it is increased each time the cache gets full and starts over)
+   */
+  public int getGeneration() {
+    return buffer.getInt(20);
+  }
+
+  /**
+   * a short statistic of the cache usage (for logging)
+   */
+  public String getStatistics() {
+    return "shared cache: " + size() + " entries, " + (buffer.getLong(8) - dataStart) / 1024 + "kB used, generation " + getGeneration() + ", "
+        + hits.get() + " hits, " + misses.get() + " misses";
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * start a new generation (the lock of the file has to be held): the generation is announced first, so that readers discard what they read
+   * from the index and the records while they are cleared and overwritten
+   */
+  private void startGeneration() {
+    int generation = buffer.getInt(20) + 1;
+    buffer.putInt(20, generation);
+    for (int i = HEADER_SIZE; i < dataStart; i += 8) {
+      buffer.putLong(i, 0);
+    }
+    buffer.putInt(16, 0);
+    buffer.putLong(8, dataStart);
+    LOGGER.info("shared cache is full - starting generation " + generation);
+  }
+
+  /**
+   * find the record of the given key (lock free)
+   *
+   * @return the position of the record or -1 if not found
+   */
+  private int findRecord(byte[] key) {
+    long hash = hash(key);
+    int start = (int) ((hash & Long.MAX_VALUE) % indexSlots);
+    for (int i = 0; i < indexSlots; i++) {
+      int position = HEADER_SIZE + ((start + i) % indexSlots) * SLOT_SIZE;
+      long slotHash = buffer.getLong(position);
+      if (slotHash == 0) {
+        return -1;
+      }
+      if (slotHash == hash) {
+        long record = buffer.getLong(position + 8);
+        if (record >= dataStart && record < size && keyMatches(record, key)) {
+          return (int) record;
+        }
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * find the slot for the given key: the one with the key or the first free one
+   *
+   * @return the slot or -1 if the index is full
+   */
+  private int findSlot(byte[] key) {
+    long hash = hash(key);
+    int start = (int) ((hash & Long.MAX_VALUE) % indexSlots);
+    for (int i = 0; i < indexSlots; i++) {
+      int slot = (start + i) % indexSlots;
+      int position = HEADER_SIZE + slot * SLOT_SIZE;
+      long slotHash = buffer.getLong(position);
+      if (slotHash == 0 || (slotHash == hash && keyMatches(buffer.getLong(position + 8), key))) {
+        return slot;
+      }
+    }
+    return -1;
+  }
+
+  private boolean keyMatches(long record, byte[] key) {
+    int position = (int) record;
+    if (buffer.getInt(position + 12) != key.length || position + 16 + key.length > size) {
+      return false;
+    }
+    byte[] stored = new byte[key.length];
+    ByteBuffer source = buffer.duplicate();
+    source.position(position + 16);
+    source.get(stored);
+    return Arrays.equals(stored, key);
+  }
+
+  /**
+   * 64 bit FNV-1a hash; 0 marks a free slot
+   */
+  private static long hash(byte[] key) {
+    long hash = 0xcbf29ce484222325L;
+    for (byte b : key) {
+      hash ^= b & 0xff;
+      hash *= 0x100000001b3L;
+    }
+    return hash == 0 ? 1 : hash;
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class ByteBufferInputStream extends InputStream {
+    private final ByteBuffer buffer;
+
+    private ByteBufferInputStream(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    @Override
+    public int read() {
+      return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int length) {
+      if (!buffer.hasRemaining()) {
+        return -1;
+      }
+      int count = Math.min(length, buffer.remaining());
+      buffer.get(bytes, offset, count);
+      return count;
+    }
+  }
+}
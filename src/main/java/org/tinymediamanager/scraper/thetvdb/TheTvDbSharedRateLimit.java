@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+/**
+ * The class TheTvDbSharedRateLimit shares the connections of the current time window between all processes on this host using the same file.
+ * The file is memory mapped and contains one slot (time + lane) per connection; every check and update of the slots happens under an exclusive
+ * lock of the file
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbSharedRateLimit implements TheTvDbRateLimitBackend, Closeable {
+  private static final Logger    LOGGER      = LoggerFactory.getLogger(TheTvDbSharedRateLimit.class);
+  // "TVDB"
+  private static final int       MAGIC       = 0x54564442;
+  // magic + slot count
+  private static final int       HEADER_SIZE = 8;
+  // time (long) + lane (int) + reserved (int)
+  private static final int       SLOT_SIZE   = 16;
+  // file locks are held by the whole JVM; overlapping locks of several instances/threads in this JVM have to be avoided
+  private static final Object    JVM_LOCK    = new Object();
+
+  private final int              slots;
+  private final long             window;
+  private final FileChannel      channel;
+  private final MappedByteBuffer buffer;
+
+  /**
+   * open (or create) the shared rate limit file
+   *
+   * @param file
+   *          the file; all processes have to use the same one
+   * @param slots
+   *          the max count of connections in one time window
+   * @param window
+   *          the length of the time window in ms
+   * @throws IOException
+   *           any exception while opening the file
+   */
+  public TheTvDbSharedRateLimit(Path file, int slots, long window) throws IOException {
+    this.slots = slots;
+    this.window = window;
+
+    if (file.getParent() != null) {
+      Files.createDirectories(file.getParent());
+    }
+    channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+
+    synchronized (JVM_LOCK) {
+      FileLock lock = channel.lock();
+      try {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != slots) {
+          LOGGER.debug("initializing shared rate limit file " + file);
+          for (int i = 0; i < HEADER_SIZE + slots * SLOT_SIZE; i++) {
+            buffer.put(i, (byte) 0);
+          }
+          buffer.putInt(4, slots);
+          buffer.putInt(0, MAGIC);
+        }
+      }
+      finally {
+        lock.release();
+      }
+    }
+  }
+
+  @Override
+  public long tryAcquire(Priority priority, long now, SlotPolicy policy) {
+    synchronized (JVM_LOCK) {
+      FileLock lock = null;
+      try {
+        lock = channel.lock();
+
+        int[] counts = new int[Priority.values().length];
+        long nextExpiry = Long.MAX_VALUE;
+        int freeSlot = -1;
+        for (int i = 0; i < slots; i++) {
+          int position = HEADER_SIZE + i * SLOT_SIZE;
+          long time = buffer.getLong(position);
+          int lane = buffer.getInt(position + 8);
+          if (time <= now - window || lane < 0 || lane >= counts.length) {
+            if (freeSlot < 0) {
+              freeSlot = i;
+            }
+            continue;
+          }
+          counts[lane]++;
+          nextExpiry = Math.min(nextExpiry, time + window);
+        }
+
+        long waitTime = policy.getWaitTime(priority, counts, nextExpiry, now);
+        if (waitTime <= 0 && freeSlot < 0) {
+          // all slots are in use
+          waitTime = Math.max(1, nextExpiry - now);
+        }
+        if (waitTime <= 0) {
+          int position = HEADER_SIZE + freeSlot * SLOT_SIZE;
+          buffer.putInt(position + 8, priority.ordinal());
+          buffer.putLong(position, now);
+        }
+        return waitTime;
+      }
+      catch (IOException e) {
+        // do not block the scraper if the file is not usable; the api has its own limit
+        LOGGER.warn("could not use the shared rate limit file: " + e.getMessage());
+        return 0;
+      }
+      finally {
+        if (lock != null) {
+          try {
+            lock.release();
+          }
+          catch (IOException ignored) {
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public int[] getCounts(long now) {
+    // a consistent snapshot is not needed for the statistics
+    int[] counts = new int[Priority.values().length];
+    for (int i = 0; i < slots; i++) {
+      int position = HEADER_SIZE + i * SLOT_SIZE;
+      int lane = buffer.getInt(position + 8);
+      if (buffer.getLong(position) > now - window && lane >= 0 && lane < counts.length) {
+        counts[lane]++;
+      }
+    }
+    return counts;
+  }
+
+  @Override
+  public void clear() {
+    synchronized (JVM_LOCK) {
+      FileLock lock = null;
+      try {
+        lock = channel.lock();
+        for (int i = 0; i < slots; i++) {
+          buffer.putLong(HEADER_SIZE + i * SLOT_SIZE, 0);
+        }
+      }
+      catch (IOException e) {
+        LOGGER.warn("could not clear the shared rate limit file: " + e.getMessage());
+      }
+      finally {
+        if (lock != null) {
+          try {
+            lock.release();
+          }
+          catch (IOException ignored) {
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+}
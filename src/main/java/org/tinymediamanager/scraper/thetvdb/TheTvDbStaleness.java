@@ -0,0 +1,130 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+/**
+ * The class TheTvDbStaleness is the context of a scrape which must be answered from the caches only (offline mode or the first pass of a stale
+ * while revalidate scrape). While it is active for a thread, the caches serve expired entries too and report the age of every entry they
+ * serve; every piece of data which would need an api call is counted as missing instead
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbStaleness {
+  private static final ThreadLocal<TheTvDbStaleness> CURRENT = new ThreadLocal<>();
+
+  private long                                       age     = 0;
+  private boolean                                    stale   = false;
+  private int                                        missing = 0;
+
+  /**
+   * start a cache only scrape in the current thread
+   *
+   * @return the context of the scrape
+   */
+  static TheTvDbStaleness begin() {
+    TheTvDbStaleness staleness = new TheTvDbStaleness();
+    CURRENT.set(staleness);
+    return staleness;
+  }
+
+  /**
+   * let the current thread (e.g. a worker of the scrape) take part in the given scrape
+   *
+   * @param staleness
+   *          the context of the scrape or null if the scrape may call the api
+   */
+  static void join(TheTvDbStaleness staleness) {
+    if (staleness == null) {
+      CURRENT.remove();
+    }
+    else {
+      CURRENT.set(staleness);
+    }
+  }
+
+  /**
+   * end the cache only scrape in the current thread
+   */
+  static void end() {
+    CURRENT.remove();
+  }
+
+  /**
+   * the context of the cache only scrape of the current thread or null if the scrape may call the api
+   */
+  static TheTvDbStaleness current() {
+    return CURRENT.get();
+  }
+
+  static boolean isCacheOnly() {
+    return CURRENT.get() != null;
+  }
+
+  /**
+   * record the age of a cached entry which has been served to the current scrape
+   *
+   * @param age
+   *          the age of the entry in ms
+   * @param expired
+   *          whether the time to live of the entry is over
+   */
+  static void record(long age, boolean expired) {
+    TheTvDbStaleness staleness = CURRENT.get();
+    if (staleness != null) {
+      staleness.add(age, expired);
+    }
+  }
+
+  /**
+   * record that the current scrape had to skip an api call
+   */
+  static void recordMissing() {
+    TheTvDbStaleness staleness = CURRENT.get();
+    if (staleness != null) {
+      staleness.addMissing();
+    }
+  }
+
+  private synchronized void add(long entryAge, boolean expired) {
+    age = Math.max(age, entryAge);
+    stale |= expired;
+  }
+
+  private synchronized void addMissing() {
+    missing++;
+  }
+
+  /**
+   * the age of the oldest entry served (ms)
+   */
+  synchronized long getAge() {
+    return age;
+  }
+
+  /**
+   * whether any of the served entries was expired
+   */
+  synchronized boolean isStale() {
+    return stale;
+  }
+
+  /**
+   * the count of api calls which have been skipped (the result is incomplete if there were any)
+   */
+  synchronized int getMissing() {
+    return missing;
+  }
+}
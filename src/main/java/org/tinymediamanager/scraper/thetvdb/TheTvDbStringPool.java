@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class TheTvDbStringPool is a bounded, thread safe interning layer for the recurring metadata texts (status, network, cast names, ...).
+ * Every distinct value is kept only once. If the pool is full, the values which have not been used again since the last purge are evicted
+ * (second chance: every purge resets the used flags)
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbStringPool {
+  static final int                                      MAX_SIZE     = 50000;
+
+  private static final ConcurrentMap<String, PoolEntry> POOL         = new ConcurrentHashMap<>();
+  private static final AtomicLong                       HITS         = new AtomicLong();
+  private static final AtomicLong                       MISSES       = new AtomicLong();
+  private static final AtomicLong                       EVICTED      = new AtomicLong();
+  private static final AtomicLong                       SAVED_CHARS  = new AtomicLong();
+  private static final AtomicLong                       POOLED_CHARS = new AtomicLong();
+
+  /**
+   * get the pooled instance of the given string
+   *
+   * @param value
+   *          the string to intern
+   * @return the pooled instance (or the value itself if it is not pooled yet)
+   */
+  public static String intern(String value) {
+    if (value == null || value.isEmpty()) {
+      return value;
+    }
+
+    PoolEntry entry = POOL.get(value);
+    if (entry != null) {
+      if (!entry.used) {
+        entry.used = true;
+      }
+      HITS.incrementAndGet();
+      SAVED_CHARS.addAndGet(value.length());
+      return entry.value;
+    }
+
+    MISSES.incrementAndGet();
+    if (POOL.size() >= MAX_SIZE) {
+      purge();
+    }
+    entry = POOL.putIfAbsent(value, new PoolEntry(value));
+    if (entry == null) {
+      POOLED_CHARS.addAndGet(value.length());
+      return value;
+    }
+    return entry.value;
+  }
+
+  /**
+   * the number of pooled strings
+   */
+  public static int size() {
+    return POOL.size();
+  }
+
+  /**
+   * estimate the memory used by the pooled strings
+   *
+   * @return the estimated size in bytes
+   */
+  public static long estimateMemoryUsage() {
+    // ~40 bytes per string object and char array header, ~40 bytes per map entry, 24 bytes per pool entry + 2 bytes per char
+    return POOL.size() * (40L + 40L + 24L) + POOLED_CHARS.get() * 2;
+  }
+
+  /**
+   * a short statistic of the pool usage (for logging)
+   */
+  public static String getStatistics() {
+    // ~40 bytes per string object and char array header + 2 bytes per char
+    long savedBytes = HITS.get() * 40 + SAVED_CHARS.get() * 2;
+    return "string pool: " + POOL.size() + " strings, " + HITS.get() + " hits, " + MISSES.get() + " misses, " + EVICTED.get() + " evicted, ~"
+        + savedBytes / 1024 + "kB saved";
+  }
+
+  static void clear() {
+    POOL.clear();
+    HITS.set(0);
+    MISSES.set(0);
+    EVICTED.set(0);
+    SAVED_CHARS.set(0);
+    POOLED_CHARS.set(0);
+  }
+
+  /**
+   * evict the strings which have not been used again since the last purge. At least a quarter of the pool is evicted, so that a full pool is not
+   * purged on every miss
+   */
+  private static synchronized void purge() {
+    // another thread may have purged in the meantime
+    if (POOL.size() < MAX_SIZE) {
+      return;
+    }
+
+    for (Iterator<PoolEntry> it = POOL.values().iterator(); it.hasNext();) {
+      PoolEntry entry = it.next();
+      if (entry.used) {
+        entry.used = false;
+      }
+      else {
+        it.remove();
+        evicted(entry);
+      }
+    }
+
+    // nearly everything has been used again: evict any entries
+    int limit = MAX_SIZE * 3 / 4;
+    for (Iterator<PoolEntry> it = POOL.values().iterator(); it.hasNext() && POOL.size() > limit;) {
+      PoolEntry entry = it.next();
+      it.remove();
+      evicted(entry);
+    }
+  }
+
+  private static void evicted(PoolEntry entry) {
+    EVICTED.incrementAndGet();
+    POOLED_CHARS.addAndGet(-entry.value.length());
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class PoolEntry {
+    private final String     value;
+    // used again since the last purge
+    private volatile boolean used = false;
+
+    private PoolEntry(String value) {
+      this.value = value;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The class TheTvDbThreadFactory creates named daemon threads for the worker pools of this scraper
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbThreadFactory implements ThreadFactory {
+  private final String        name;
+  private final AtomicInteger counter = new AtomicInteger();
+
+  TheTvDbThreadFactory(String name) {
+    this.name = name;
+  }
+
+  @Override
+  public Thread newThread(Runnable r) {
+    Thread thread = new Thread(r, name + "-" + counter.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.Gson;
+
+/**
+ * The class TheTvDbTrace records a tree of spans per scrape: every entry point of the provider opens a trace, the steps of the scrape (API
+ * calls, rate limit waits, lock waits, mapping) open child spans. The spans of a thread are nested automatically; worker threads join the span
+ * of the thread they work for.<br>
+ * Which traces are recorded is decided when a trace starts: a share of the traces is sampled, and if a slow threshold is set, every trace is
+ * recorded and exported if it took longer than the threshold. Finished traces are written to the log or (as one JSON object per line) to a file.
+ * If a trace is not recorded, all spans are a shared no-op span
+ *
+ * @author Manuel Laggner
+ */
+class TheTvDbTrace {
+  private static final Logger            LOGGER  = LoggerFactory.getLogger(TheTvDbTrace.class);
+  private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+  private static final Span              NOOP    = new Span(null, null);
+  private static final Gson              GSON    = new Gson();
+  private static final Object            LOCK    = new Object();
+
+  private TheTvDbTrace() {
+  }
+
+  /**
+   * start a new trace in the current thread
+   *
+   * @param name
+   *          the name of the root span (the entry point)
+   * @param sampleRate
+   *          the share of the traces to export (0..1)
+   * @param slowThreshold
+   *          traces taking longer (ms) are exported too; 0 to export sampled traces only
+   * @param file
+   *          the file to append the traces to (JSON lines) or empty to write them to the log
+   * @return the root span (to be ended in a finally block)
+   */
+  static Span startTrace(String name, double sampleRate, long slowThreshold, String file) {
+    boolean sampled = sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate;
+    if (!sampled && slowThreshold <= 0) {
+      return NOOP;
+    }
+    Span root = new Span(name, null);
+    root.sampled = sampled;
+    root.slowThreshold = slowThreshold;
+    root.file = file;
+    CURRENT.set(root);
+    return root;
+  }
+
+  /**
+   * start a child span of the current span of this thread
+   *
+   * @param name
+   *          the name of the step
+   * @return the span (to be ended in a finally block)
+   */
+  static Span start(String name) {
+    Span parent = CURRENT.get();
+    if (parent == null) {
+      return NOOP;
+    }
+    Span span = new Span(name, parent);
+    parent.addChild(span);
+    CURRENT.set(span);
+    return span;
+  }
+
+  /**
+   * the current span of this thread or null if the thread is not traced
+   */
+  static Span current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * let the current thread (e.g. a worker) add its spans to the given span
+   *
+   * @param span
+   *          the span of the thread the work is done for or null
+   */
+  static void join(Span span) {
+    if (span == null || span == NOOP) {
+      CURRENT.remove();
+    }
+    else {
+      CURRENT.set(span);
+    }
+  }
+
+  /**
+   * stop adding spans of the current thread to a joined span
+   */
+  static void leave() {
+    CURRENT.remove();
+  }
+
+  private static void export(Span root) {
+    String file = root.file;
+    if (StringUtils.isBlank(file)) {
+      LOGGER.info("trace of a " + root.getDuration() + "ms scrape:\n" + root.toTree());
+      return;
+    }
+
+    byte[] json = (GSON.toJson(root) + "\n").getBytes(StandardCharsets.UTF_8);
+    synchronized (LOCK) {
+      try {
+        Files.write(Paths.get(file), json, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+      }
+      catch (IOException e) {
+        LOGGER.warn("could not write the trace to " + file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  /**
+   * a step of a scrape; the fields are the JSON representation
+   */
+  static class Span {
+    private final String        name;
+    private final String        thread;
+    private final long          start;
+    private long                duration   = -1;
+    private Map<String, Object> attributes;
+    private List<Span>          children;
+
+    // not exported
+    private final transient Span parent;
+    private final transient long startNanos = System.nanoTime();
+    private transient boolean    sampled;
+    private transient long       slowThreshold;
+    private transient String     file;
+
+    private Span(String name, Span parent) {
+      this.name = name;
+      this.parent = parent;
+      this.thread = name == null ? null : Thread.currentThread().getName();
+      this.start = name == null ? 0 : System.currentTimeMillis();
+    }
+
+    /**
+     * add an attribute to the span (e.g. the id or language of a request)
+     *
+     * @return this span
+     */
+    Span attribute(String key, Object value) {
+      if (this != NOOP) {
+        synchronized (this) {
+          getAttributes().put(key, value);
+        }
+      }
+      return this;
+    }
+
+    /**
+     * add a number to an attribute of the span (e.g. a counter reported by several steps or workers)
+     *
+     * @return this span
+     */
+    Span add(String key, long value) {
+      if (this != NOOP) {
+        synchronized (this) {
+          Object current = getAttributes().get(key);
+          getAttributes().put(key, current instanceof Number ? ((Number) current).longValue() + value : value);
+        }
+      }
+      return this;
+    }
+
+    private Map<String, Object> getAttributes() {
+      if (attributes == null) {
+        attributes = new LinkedHashMap<>();
+      }
+      return attributes;
+    }
+
+    /**
+     * end the span; the trace is exported when the root span ends
+     */
+    void end() {
+      if (this == NOOP || duration >= 0) {
+        return;
+      }
+      duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+      if (CURRENT.get() == this) {
+        if (parent == null) {
+          CURRENT.remove();
+        }
+        else {
+          CURRENT.set(parent);
+        }
+      }
+      if (parent == null && (sampled || (slowThreshold > 0 && duration >= slowThreshold))) {
+        export(this);
+      }
+    }
+
+    String getName() {
+      return name;
+    }
+
+    /**
+     * the duration in ms (-1 while running)
+     */
+    long getDuration() {
+      return duration;
+    }
+
+    synchronized Object getAttribute(String key) {
+      return attributes == null ? null : attributes.get(key);
+    }
+
+    synchronized List<Span> getChildren() {
+      return children == null ? new ArrayList<Span>() : new ArrayList<>(children);
+    }
+
+    private synchronized void addChild(Span child) {
+      if (children == null) {
+        children = new ArrayList<>();
+      }
+      children.add(child);
+    }
+
+    /**
+     * the span and its children as indented text (one line per span)
+     */
+    String toTree() {
+      StringBuilder sb = new StringBuilder();
+      appendTree(sb, 0);
+      return sb.toString();
+    }
+
+    private void appendTree(StringBuilder sb, int depth) {
+      sb.append(StringUtils.repeat("  ", depth)).append(name).append(' ').append(duration).append("ms");
+      synchronized (this) {
+        if (attributes != null) {
+          sb.append(' ').append(attributes);
+        }
+      }
+      if (depth > 0 && !thread.equals(parent.thread)) {
+        sb.append(" [").append(thread).append(']');
+      }
+      for (Span child : getChildren()) {
+        sb.append('\n');
+        child.appendTree(sb, depth + 1);
+      }
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012 - 2016 Manuel Laggner
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.tinymediamanager.scraper.http.TmmHttpClient;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * The class TheTvDbTransport is the HTTP transport profile for thetvdb.com. It uses an own connection pool (so that the API connections are not
+ * evicted by other scrapers) and prefers HTTP/2, so that bursts of requests are multiplexed over one connection. All calls are synchronous; the
+ * parallelism is limited by the rate limit (see {@link TheTvDbConnectionCounter}) and not by the dispatcher.<br>
+ * Response compression is negotiated by OkHttp itself (gzip), as long as no Accept-Encoding header is set manually.
+ *
+ * @author Manuel Laggner
+ */
+public class TheTvDbTransport {
+  static final String                 API_URL              = "https://api.thetvdb.com/";
+
+  private static final Logger         LOGGER               = LoggerFactory.getLogger(TheTvDbTransport.class);
+  private static final int            MAX_IDLE_CONNECTIONS = 5;
+  private static final long           KEEP_ALIVE_MINUTES   = 5;
+  private static final ConnectionPool CONNECTION_POOL      = new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_MINUTES, TimeUnit.MINUTES);
+
+  private static volatile String      apiUrl               = API_URL;
+
+  /**
+   * the base url of the API (the real API unless it has been redirected)
+   */
+  static String getApiUrl() {
+    return apiUrl;
+  }
+
+  /**
+   * redirect all API requests to another server (e.g. a local stand-in for load tests); must be set before the first request
+   *
+   * @param url
+   *          the base url (ending with a slash) or null for the real API
+   */
+  static void setApiUrl(String url) {
+    apiUrl = url == null ? API_URL : url;
+  }
+
+  /**
+   * create a new http client builder with the transport profile for thetvdb.com
+   *
+   * @return the configured builder
+   */
+  public static OkHttpClient.Builder newBuilder() {
+    return configure(TmmHttpClient.newBuilder());
+  }
+
+  /**
+   * apply the transport profile to the given builder
+   *
+   * @param builder
+   *          the builder to configure
+   * @return the same builder
+   */
+  static OkHttpClient.Builder configure(OkHttpClient.Builder builder) {
+    builder.connectionPool(CONNECTION_POOL);
+    builder.protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1));
+    // every call is a span of the trace of the scrape (if traced)
+    builder.addInterceptor(new TracingInterceptor());
+    return builder;
+  }
+
+  /**
+   * open a connection to the API (DNS lookup, TCP and TLS handshake) before the first real request needs it
+   *
+   * @param client
+   *          the client to warm up
+   * @param url
+   *          the url to connect to
+   */
+  static void prewarm(OkHttpClient client, String url) {
+    long start = System.currentTimeMillis();
+    Request request = new Request.Builder().url(url).head().build();
+    Response response = null;
+    try {
+      response = client.newCall(request).execute();
+      LOGGER.debug("pre-warmed connection to " + url + " (" + response.protocol() + ") in " + (System.currentTimeMillis() - start) + "ms");
+    }
+    catch (Exception e) {
+      LOGGER.debug("could not pre-warm connection to " + url + ": " + e.getMessage());
+    }
+    finally {
+      if (response != null && response.body() != null) {
+        response.body().close();
+      }
+    }
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  /**
+   * records every call (incl. the login and retries of the tvdb client) as a span of the current trace; the span ends when the headers have
+   * been received
+   */
+  private static class TracingInterceptor implements Interceptor {
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+      Request request = chain.request();
+      TheTvDbTrace.Span span = TheTvDbTrace.start("tvdb " + request.method() + " " + request.url().encodedPath());
+      try {
+        Response response = chain.proceed(request);
+        span.attribute("status", response.code());
+        return response;
+      }
+      catch (IOException e) {
+        span.attribute("error", e.getMessage());
+        throw e;
+      }
+      finally {
+        span.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+public class TheTvDbAdmissionTest {
+
+  @Before
+  public void setUp() {
+    TheTvDbConnectionCounter.reset();
+    TheTvDbAdmission.reset();
+  }
+
+  @After
+  public void tearDown() {
+    TheTvDbConnectionCounter.reset();
+    TheTvDbAdmission.setBudget(0);
+  }
+
+  @Test
+  public void testEstimate() throws Exception {
+    assertThat(TheTvDbConnectionCounter.estimateWait(Priority.INTERACTIVE)).isEqualTo(0);
+
+    // the whole budget is used: the next connection waits until the first one leaves the time window
+    for (int i = 0; i < TheTvDbConnectionCounter.MAX_CONNECTIONS; i++) {
+      TheTvDbConnectionCounter.trackConnections(Priority.INTERACTIVE);
+    }
+    long window = TheTvDbConnectionCounter.TIME_WINDOW + TheTvDbConnectionCounter.SAFETY_MARGIN;
+    long wait = TheTvDbConnectionCounter.estimateWait(Priority.INTERACTIVE);
+    assertThat(wait).isBetween(window - 1000, window);
+
+    // every connection waiting in front adds its share of the window
+    Thread waiting = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        TheTvDbConnectionCounter.trackConnections(Priority.INTERACTIVE);
+      }
+    });
+    waiting.setDaemon(true);
+    waiting.start();
+    Thread.sleep(200);
+    long share = window / TheTvDbConnectionCounter.MAX_CONNECTIONS;
+    assertThat(TheTvDbConnectionCounter.estimateWait(Priority.INTERACTIVE)).isGreaterThan(wait - 1000 + share);
+
+    TheTvDbConnectionCounter.reset();
+    waiting.join(1000);
+    assertThat(waiting.isAlive()).isFalse();
+  }
+
+  @Test
+  public void testBackgroundEstimate() {
+    // background connections cannot use the reserved slice
+    for (int i = 0; i < TheTvDbConnectionCounter.MAX_CONNECTIONS - TheTvDbConnectionCounter.INTERACTIVE_RESERVED; i++) {
+      TheTvDbConnectionCounter.trackConnections(Priority.INTERACTIVE);
+    }
+    assertThat(TheTvDbConnectionCounter.estimateWait(Priority.INTERACTIVE)).isEqualTo(0);
+    assertThat(TheTvDbConnectionCounter.estimateWait(Priority.BACKGROUND)).isGreaterThan(0);
+  }
+
+  @Test
+  public void testAdmit() throws Exception {
+    for (int i = 0; i < TheTvDbConnectionCounter.MAX_CONNECTIONS; i++) {
+      TheTvDbConnectionCounter.trackConnections(Priority.INTERACTIVE);
+    }
+
+    // no budget: everything is admitted
+    assertThat(TheTvDbAdmission.admit("search", 0, false)).isTrue();
+
+    // over the budget: rejected or degraded to the caches
+    try {
+      TheTvDbAdmission.admit("search", 500, false);
+      fail("not rejected");
+    }
+    catch (TheTvDbDeadlineException e) {
+      assertThat(e.getBudget()).isEqualTo(500);
+      assertThat(e.getEstimatedWait()).isGreaterThan(500);
+      assertThat(e.getMessage()).startsWith("would exceed deadline");
+    }
+    assertThat(TheTvDbAdmission.admit("search", 500, true)).isFalse();
+
+    // a budget larger than the wait
+    assertThat(TheTvDbAdmission.admit("search", 60000, false)).isTrue();
+    assertThat(TheTvDbAdmission.getStatistics()).isEqualTo("admission: 1 admitted, 1 degraded to the caches, 1 rejected");
+  }
+
+  @Test
+  public void testBudgetOfThread() throws Exception {
+    assertThat(TheTvDbAdmission.getBudget(0)).isEqualTo(0);
+    assertThat(TheTvDbAdmission.getBudget(2000)).isEqualTo(2000);
+
+    // the budget of the caller wins over the one of the settings
+    TheTvDbAdmission.setBudget(500);
+    assertThat(TheTvDbAdmission.getBudget(2000)).isEqualTo(500);
+
+    final long[] other = new long[1];
+    Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        other[0] = TheTvDbAdmission.getBudget(2000);
+      }
+    });
+    thread.start();
+    thread.join();
+    assertThat(other[0]).isEqualTo(2000);
+
+    TheTvDbAdmission.setBudget(0);
+    assertThat(TheTvDbAdmission.getBudget(2000)).isEqualTo(2000);
+  }
+}
@@ -0,0 +1,133 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.OkHttpClient;
+
+public class TheTvDbArtworkCacheTest {
+  private HttpServer    server;
+  private String        url;
+  private AtomicInteger downloads;
+  private Path          cacheDir;
+
+  @Before
+  public void setUp() throws Exception {
+    // local stand-in for the banner server: /banners/<name>_<size> returns <size> bytes
+    downloads = new AtomicInteger();
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/banners/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        byte[] body = new byte[Integer.parseInt(path.substring(path.lastIndexOf('_') + 1))];
+        Arrays.fill(body, (byte) 42);
+        exchange.getResponseHeaders().add("ETag", "\"" + body.length + "\"");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+          exchange.sendResponseHeaders(200, -1);
+        }
+        else {
+          downloads.incrementAndGet();
+          exchange.sendResponseHeaders(200, body.length);
+          OutputStream os = exchange.getResponseBody();
+          os.write(body);
+          os.close();
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/banners/";
+    cacheDir = Files.createTempDirectory("tvdb-artwork");
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    TheTvDbArtworkCache cache = new TheTvDbArtworkCache(cacheDir, 1024 * 1024, 2, new OkHttpClient());
+
+    Path poster = cache.get(url + "poster_1000");
+    assertThat(Files.size(poster)).isEqualTo(1000);
+    assertThat(downloads.get()).isEqualTo(1);
+
+    // served from disk
+    assertThat(cache.get(url + "poster_1000")).isEqualTo(poster);
+    assertThat(cache.getCachedFile(url + "poster_1000")).isEqualTo(poster);
+    assertThat(downloads.get()).isEqualTo(1);
+
+    // same content behind another url is stored only once
+    Path copy = cache.get(url + "copy_1000");
+    assertThat(copy).isEqualTo(poster);
+    assertThat(cache.getSize()).isEqualTo(1000);
+
+    // the index is saved with a delay (not for every download), at the latest on shutdown
+    assertThat(Files.exists(cacheDir.resolve("index.properties"))).isFalse();
+
+    // index and size survive a restart; leftovers of interrupted downloads are removed
+    cache.shutdown();
+    assertThat(Files.exists(cacheDir.resolve("index.properties"))).isTrue();
+    Path tempFile = Files.write(cacheDir.resolve("download1.tmp"), new byte[10]);
+    Path orphan = Files.write(Files.createDirectories(cacheDir.resolve("ff")).resolve("ff00"), new byte[10]);
+    cache = new TheTvDbArtworkCache(cacheDir, 1024 * 1024, 2, new OkHttpClient());
+    assertThat(cache.getCachedFile(url + "poster_1000")).isEqualTo(poster);
+    assertThat(cache.getSize()).isEqualTo(1000);
+    assertThat(Files.exists(tempFile)).isFalse();
+    assertThat(Files.exists(orphan)).isFalse();
+    cache.shutdown();
+  }
+
+  @Test
+  public void testEviction() throws Exception {
+    TheTvDbArtworkCache cache = new TheTvDbArtworkCache(cacheDir, 2500, 2, new OkHttpClient());
+
+    cache.get(url + "a_1000");
+    Thread.sleep(10);
+    cache.get(url + "b_1001");
+    Thread.sleep(10);
+    // a is used again
+    cache.getCachedFile(url + "a_1000");
+    Thread.sleep(10);
+    cache.get(url + "c_1002");
+
+    // the least recently used one is gone
+    assertThat(cache.getSize()).isEqualTo(2002);
+    assertThat(cache.getCachedFile(url + "b_1001")).isNull();
+    assertThat(cache.getCachedFile(url + "a_1000")).isNotNull();
+    assertThat(cache.getCachedFile(url + "c_1002")).isNotNull();
+    cache.shutdown();
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    TheTvDbArtworkCache cache = new TheTvDbArtworkCache(cacheDir, 1024 * 1024, 2, new OkHttpClient());
+    cache.prefetch(Arrays.asList(url + "x_100", url + "y_200", url + "z_300"));
+
+    for (int i = 0; i < 50 && downloads.get() < 3; i++) {
+      Thread.sleep(100);
+    }
+    Thread.sleep(200);
+
+    assertThat(cache.getCachedFile(url + "x_100")).isNotNull();
+    assertThat(cache.getCachedFile(url + "z_300")).isNotNull();
+    cache.shutdown();
+  }
+}
@@ -0,0 +1,76 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbChangeTracker.Change;
+
+public class TheTvDbChangeTrackerTest {
+
+  @Test
+  public void testCheckSeries() {
+    TheTvDbChangeTracker tracker = new TheTvDbChangeTracker();
+
+    // nothing to compare with on the first scrape
+    assertThat(tracker.checkSeries(79349, 1000L, null)).isEqualTo(Change.UNKNOWN);
+    assertThat(tracker.checkSeries(79349, 1000L, null)).isEqualTo(Change.UNCHANGED);
+    assertThat(tracker.checkSeries(79349, 2000L, null)).isEqualTo(Change.CHANGED);
+    assertThat(tracker.getLastUpdated(79349)).isEqualTo(2000L);
+    assertThat(tracker.getChange(79349)).isEqualTo(Change.CHANGED);
+
+    // the stamp of the caller is used if we do not know the series
+    assertThat(tracker.checkSeries(12345, 1000L, 1000L)).isEqualTo(Change.UNCHANGED);
+    assertThat(tracker.checkSeries(23456, 1000L, 900L)).isEqualTo(Change.CHANGED);
+    // but our own stamp wins
+    assertThat(tracker.checkSeries(79349, 2000L, 900L)).isEqualTo(Change.UNCHANGED);
+
+    assertThat(tracker.getSeriesChecked()).isEqualTo(5);
+    assertThat(tracker.getSeriesChanged()).isEqualTo(2);
+    assertThat(tracker.getChange(34567)).isNull();
+  }
+
+  @Test
+  public void testCheckEpisode() {
+    TheTvDbChangeTracker tracker = new TheTvDbChangeTracker();
+    assertThat(tracker.checkEpisode(1000L, 1000L)).isTrue();
+    assertThat(tracker.checkEpisode(2000L, 1000L)).isFalse();
+    assertThat(tracker.checkEpisode(null, 1000L)).isFalse();
+
+    assertThat(tracker.getEpisodeChecked()).isEqualTo(2);
+    assertThat(tracker.getEpisodeChanged()).isEqualTo(1);
+    tracker.savedCalls(3);
+    assertThat(tracker.getSavedCalls()).isEqualTo(3);
+    assertThat(tracker.getStatistics()).contains("2 episodes checked (1 changed)", "3 api calls saved");
+  }
+
+  @Test
+  public void testCheckInterval() throws Exception {
+    TheTvDbChangeTracker tracker = new TheTvDbChangeTracker(50);
+    assertThat(tracker.startCheck(79349)).isTrue();
+    // the other entry points of the same rescrape share the check
+    assertThat(tracker.startCheck(79349)).isFalse();
+    assertThat(tracker.startCheck(12345)).isTrue();
+
+    Thread.sleep(100);
+    assertThat(tracker.startCheck(79349)).isTrue();
+  }
+
+  @Test
+  public void testCheckedLastUpdated() throws Exception {
+    TheTvDbChangeTracker tracker = new TheTvDbChangeTracker(100);
+    assertThat(tracker.getCheckedLastUpdated(79349)).isNull();
+
+    // the stamp is current for the check interval
+    assertThat(tracker.startCheck(79349)).isTrue();
+    tracker.checkSeries(79349, 1000L, null);
+    assertThat(tracker.getCheckedLastUpdated(79349)).isEqualTo(1000L);
+
+    // not any more when the next check is due
+    Thread.sleep(150);
+    assertThat(tracker.startCheck(79349)).isTrue();
+    assertThat(tracker.getCheckedLastUpdated(79349)).isNull();
+    tracker.checkSeries(79349, 2000L, null);
+    assertThat(tracker.getCheckedLastUpdated(79349)).isEqualTo(2000L);
+    assertThat(tracker.getLastUpdated(79349)).isEqualTo(2000L);
+  }
+}
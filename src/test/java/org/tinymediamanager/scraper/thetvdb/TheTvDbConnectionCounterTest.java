@@ -0,0 +1,81 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+public class TheTvDbConnectionCounterTest {
+
+  @Before
+  public void setUp() {
+    TheTvDbConnectionCounter.reset();
+  }
+
+  @After
+  public void tearDown() {
+    TheTvDbConnectionCounter.reset();
+  }
+
+  @Test
+  public void testInteractiveReserve() throws Exception {
+    // a bulk job uses up its part of the budget
+    int backgroundBudget = TheTvDbConnectionCounter.MAX_CONNECTIONS - TheTvDbConnectionCounter.INTERACTIVE_RESERVED;
+    for (int i = 0; i < backgroundBudget; i++) {
+      TheTvDbConnectionCounter.trackConnections(Priority.BACKGROUND);
+    }
+
+    // the next background request has to wait ...
+    Thread background = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        TheTvDbConnectionCounter.trackConnections(Priority.BACKGROUND);
+      }
+    });
+    background.setDaemon(true);
+    background.start();
+    Thread.sleep(200);
+    assertThat(background.isAlive()).isTrue();
+
+    // ... but interactive requests go through without waiting
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < TheTvDbConnectionCounter.INTERACTIVE_RESERVED; i++) {
+      TheTvDbConnectionCounter.trackConnections(Priority.INTERACTIVE);
+    }
+    assertThat(System.currentTimeMillis() - start).isLessThan(500);
+    assertThat(TheTvDbConnectionCounter.getMetrics(Priority.INTERACTIVE)[1]).isEqualTo(0);
+    assertThat(TheTvDbConnectionCounter.getMetrics(Priority.BACKGROUND)[4]).isEqualTo(1);
+    assertThat(TheTvDbConnectionCounter.getStatistics()).contains("background: ", "1 waiting");
+
+    TheTvDbConnectionCounter.reset();
+    background.join(1000);
+    assertThat(background.isAlive()).isFalse();
+  }
+
+  @Test
+  public void testBackgroundMinimum() {
+    // interactive requests may use the whole budget if nobody else is waiting
+    for (int i = 0; i < TheTvDbConnectionCounter.MAX_CONNECTIONS - TheTvDbConnectionCounter.BACKGROUND_MINIMUM; i++) {
+      TheTvDbConnectionCounter.trackConnections(Priority.INTERACTIVE);
+    }
+
+    // but the background lane still gets its minimum share
+    long start = System.currentTimeMillis();
+    for (int i = 0; i < TheTvDbConnectionCounter.BACKGROUND_MINIMUM; i++) {
+      TheTvDbConnectionCounter.trackConnections(Priority.BACKGROUND);
+    }
+    assertThat(System.currentTimeMillis() - start).isLessThan(500);
+    assertThat(TheTvDbConnectionCounter.getMetrics(Priority.BACKGROUND)[0]).isEqualTo(TheTvDbConnectionCounter.BACKGROUND_MINIMUM);
+  }
+
+  @Test
+  public void testThreadPriority() {
+    assertThat(TheTvDbConnectionCounter.getPriority()).isEqualTo(Priority.INTERACTIVE);
+    TheTvDbConnectionCounter.setPriority(Priority.BACKGROUND);
+    TheTvDbConnectionCounter.trackConnections();
+    assertThat(TheTvDbConnectionCounter.getMetrics(Priority.BACKGROUND)[0]).isEqualTo(1);
+    TheTvDbConnectionCounter.setPriority(Priority.INTERACTIVE);
+  }
+}
@@ -0,0 +1,158 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbDataCache.LocalizedText;
+
+import com.uwetrottmann.thetvdb.entities.Actor;
+import com.uwetrottmann.thetvdb.entities.Episode;
+import com.uwetrottmann.thetvdb.entities.Series;
+import com.uwetrottmann.thetvdb.entities.SeriesImageQueryResult;
+
+public class TheTvDbDataCacheTest {
+
+  @Test
+  public void testTiers() {
+    TheTvDbDataCache cache = new TheTvDbDataCache();
+
+    Series show = new Series();
+    show.id = 79349;
+    show.seriesName = "Dexter";
+    show.overview = "Dexter Morgan ...";
+    cache.putSeries(show, "en");
+
+    // the core record is shared by all languages, the texts are not
+    assertThat(cache.getSeries(79349)).isSameAs(show);
+    LocalizedText text = cache.getSeriesText(79349, "en");
+    assertThat(text.title).isEqualTo("Dexter");
+    assertThat(cache.getSeriesText(79349, "de")).isNull();
+
+    // actors and images without a language are language independent
+    List<Actor> actors = new ArrayList<>();
+    cache.putActors(79349, actors);
+    assertThat(cache.getActors(79349)).isSameAs(actors);
+
+    List<SeriesImageQueryResult> images = new ArrayList<>();
+    cache.putImages(79349, "poster", null, images);
+    assertThat(cache.getImages(79349, "poster", null)).isSameAs(images);
+    assertThat(cache.getImages(79349, "poster", "de")).isNull();
+
+    // core: 3 hits; localized: 1 hit, 1 miss
+    assertThat(cache.getCoreHitRate()).isEqualTo(1.0);
+    assertThat(cache.getLocalizedHitRate()).isEqualTo(0.5);
+    assertThat(cache.getStatistics()).contains("core cache: 3 entries, 3 hits, 0 misses");
+  }
+
+  @Test
+  public void testTtl() throws Exception {
+    TheTvDbDataCache cache = new TheTvDbDataCache(60000, 50);
+
+    Series show = new Series();
+    show.id = 1;
+    show.seriesName = "Title";
+    cache.putSeries(show, "en");
+    TheTvDbEpisodeIndex listing = new TheTvDbEpisodeIndex();
+    listing.add(11, 1, 1, 1, 1, 1, "2016-02-28", "Pilot", "The first episode");
+    cache.putEpisodeIndex(1, "en", listing);
+    assertThat(cache.getEpisodeIndex(1, "en")).isSameAs(listing);
+    Thread.sleep(100);
+
+    // the localized overlay is gone, the core record is still there
+    assertThat(cache.getSeriesText(1, "en")).isNull();
+    assertThat(cache.getSeries(1)).isSameAs(show);
+
+    // the listing with the texts expires like the overlays; the numbers and dates (without the texts) are kept in the core tier
+    assertThat(cache.getEpisodeIndex(1, "en")).isNull();
+    TheTvDbEpisodeIndex numbers = cache.getEpisodeIndex(1);
+    assertThat(numbers.findAired(1, 1)).isEqualTo(0);
+    assertThat(numbers.getFirstAired(0)).isEqualTo("2016-02-28");
+    assertThat(numbers.getTitle(0)).isEmpty();
+  }
+
+  @Test
+  public void testStale() throws Exception {
+    TheTvDbDataCache cache = new TheTvDbDataCache(60000, 50);
+
+    Series show = new Series();
+    show.id = 1;
+    show.seriesName = "Title";
+    cache.putSeries(show, "en");
+    Thread.sleep(100);
+
+    // the expired overlay is served to scrapes which must be answered from the caches only
+    TheTvDbStaleness staleness = TheTvDbStaleness.begin();
+    try {
+      assertThat(cache.getSeriesText(1, "en").title).isEqualTo("Title");
+      assertThat(cache.getSeries(1)).isSameAs(show);
+      assertThat(cache.getSeriesText(1, "de")).isNull();
+    }
+    finally {
+      TheTvDbStaleness.end();
+    }
+    assertThat(staleness.isStale()).isTrue();
+    assertThat(staleness.getAge()).isGreaterThanOrEqualTo(100);
+
+    // but not to the others
+    assertThat(cache.getSeriesText(1, "en")).isNull();
+  }
+
+  @Test
+  public void testVerifySeries() throws Exception {
+    TheTvDbDataCache cache = new TheTvDbDataCache(50, 50);
+    long fetched = System.currentTimeMillis();
+    cache.putActors(1, new ArrayList<Actor>());
+    cache.putImages(1, "poster", null, new ArrayList<SeriesImageQueryResult>());
+    cache.putImages(1, "poster", "de", new ArrayList<SeriesImageQueryResult>());
+    cache.putActors(11, new ArrayList<Actor>());
+    Thread.sleep(100);
+    assertThat(cache.getActors(1)).isNull();
+
+    // the series has not been updated since the data has been fetched: everything is valid again
+    assertThat(cache.verifySeries(1, fetched - 1000)).isEqualTo(3);
+    assertThat(cache.getActors(1)).isNotNull();
+    assertThat(cache.getImages(1, "poster", "de")).isNotNull();
+    // not the data of other series
+    assertThat(cache.getActors(11)).isNull();
+
+    // the series has been updated after the data has been fetched: the data is removed
+    assertThat(cache.verifySeries(1, System.currentTimeMillis() + 1000)).isEqualTo(0);
+    assertThat(cache.getActors(1)).isNull();
+    TheTvDbStaleness.begin();
+    try {
+      assertThat(cache.getImages(1, "poster", null)).isNull();
+    }
+    finally {
+      TheTvDbStaleness.end();
+    }
+  }
+
+  @Test
+  public void testRenewEpisode() throws Exception {
+    TheTvDbDataCache cache = new TheTvDbDataCache(50, 50);
+    Episode.FullEpisode episode = new Episode.FullEpisode();
+    episode.id = 4711;
+    episode.episodeName = "Pilot";
+    cache.putEpisode(episode, "en");
+    Thread.sleep(100);
+
+    assertThat(cache.getEpisode(4711)).isNull();
+    assertThat(cache.peekEpisode(4711)).isSameAs(episode);
+    cache.renewEpisode(4711);
+    assertThat(cache.getEpisode(4711)).isSameAs(episode);
+    assertThat(cache.getEpisodeText(4711, "en").title).isEqualTo("Pilot");
+  }
+
+  @Test
+  public void testMaxSize() {
+    TheTvDbCache<Integer, String> cache = new TheTvDbCache<>("test", 60000, 100);
+    for (int i = 0; i < 1000; i++) {
+      cache.put(i, "value " + i);
+    }
+    assertThat(cache.size()).isLessThanOrEqualTo(100);
+    assertThat(cache.get(999)).isEqualTo("value 999");
+  }
+}
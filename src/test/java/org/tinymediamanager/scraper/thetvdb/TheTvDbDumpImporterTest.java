@@ -0,0 +1,195 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.uwetrottmann.thetvdb.entities.Actor;
+import com.uwetrottmann.thetvdb.entities.Episode;
+import com.uwetrottmann.thetvdb.entities.Series;
+
+public class TheTvDbDumpImporterTest {
+  private static final String ARTWORK_URL = "http://thetvdb.com/banners/";
+
+  @Test
+  public void testImport() throws Exception {
+    // updated an hour ago
+    long updated = System.currentTimeMillis() / 1000 - 3600;
+    StringBuilder dump = new StringBuilder();
+    dump.append("{\"type\":\"series\",\"language\":\"en\",\"data\":{\"id\":79335,\"seriesName\":\"Psych\",\"aliases\":[\"Psych - Das Original\"],")
+        .append("\"firstAired\":\"2006-07-07\",\"overview\":\"Shawn Spencer ...\",\"lastUpdated\":").append(updated).append("}}\n");
+    // the data before the type
+    dump.append("{\"data\":{\"id\":79335,\"seriesName\":\"Psych\",\"overview\":\"Shawn Spencer ...\"},\"language\":\"de\",\"type\":\"series\"}\n");
+    dump.append("{\"type\":\"episode\",\"language\":\"en\",\"data\":{\"id\":307482,\"seriesId\":79335,\"airedSeason\":1,\"airedEpisodeNumber\":1,")
+        .append("\"episodeName\":\"Pilot\",\"firstAired\":\"2006-07-07\"}}\n");
+    dump.append("{\"type\":\"episode\",\"language\":\"en\",\"data\":{\"id\":307483,\"seriesId\":79335,\"airedSeason\":1,\"airedEpisodeNumber\":2,")
+        .append("\"episodeName\":\"Spellingg Bee\",\"firstAired\":\"2006-07-14\"}}\n");
+    dump.append("{\"type\":\"images\",\"seriesId\":79335,\"keyType\":\"poster\",\"language\":null,\"data\":[{\"id\":1,\"keyType\":\"poster\",")
+        .append("\"fileName\":\"posters/79335-1.jpg\",\"resolution\":\"680x1000\"}]}\n");
+    dump.append("{\"type\":\"actors\",\"seriesId\":79335,\"data\":[{\"id\":1,\"name\":\"James Roday\",\"role\":\"Shawn Spencer\"}]}\n");
+    // broken and unknown records are skipped
+    dump.append("{\"type\":\"series\",\"language\":\"en\",\"data\":{\"id\":\n");
+    dump.append("{\"type\":\"unknown\",\"data\":{}}\n");
+    dump.append("{\"type\":\"episode\",\"language\":\"en\",\"data\":{\"id\":1}}\n");
+    dump.append("\n");
+
+    Path file = Files.createTempFile("tvdb-cache", ".bin");
+    TheTvDbSharedCache sharedCache = new TheTvDbSharedCache(file, 1024, 1024 * 1024);
+    TheTvDbDataCache dataCache = new TheTvDbDataCache();
+    TheTvDbSearchIndex searchIndex = new TheTvDbSearchIndex();
+    TheTvDbDumpImporter importer = new TheTvDbDumpImporter(dataCache, searchIndex, new TheTvDbEpisodeMissCache(), sharedCache, ARTWORK_URL);
+
+    assertThat(importer.importDump(new BufferedReader(new StringReader(dump.toString())), 4)).isEqualTo(6);
+    assertThat(importer.getSkipped()).isEqualTo(3);
+    assertThat(importer.getStatistics()).contains("2 series", "2 episodes", "3 skipped", "0 not shared");
+
+    // the data cache
+    assertThat(dataCache.getSeries(79335).seriesName).isEqualTo("Psych");
+    assertThat(dataCache.getSeriesText(79335, "de").title).isEqualTo("Psych");
+    assertThat(dataCache.getActors(79335)).hasSize(1);
+    assertThat(dataCache.getImages(79335, "poster", null)).hasSize(1);
+    assertThat(dataCache.getImageTypes(79335)).hasSize(1);
+    TheTvDbEpisodeIndex listing = dataCache.getEpisodeIndex(79335, "en");
+    assertThat(listing.size()).isEqualTo(2);
+    assertThat(listing.getTitle(1)).isEqualTo("Spellingg Bee");
+    // the language independent listing has the numbers only
+    TheTvDbEpisodeIndex numbers = dataCache.getEpisodeIndex(79335);
+    assertThat(numbers.findId(307483)).isEqualTo(1);
+    assertThat(numbers.getTitle(1)).isEmpty();
+
+    // the search index with the poster
+    List<TheTvDbSearchIndex.Entry> found = searchIndex.search("Psych Das Original", Arrays.asList("en"));
+    assertThat(found).hasSize(1);
+    assertThat(found.get(0).year).isEqualTo(2006);
+    assertThat(found.get(0).posterUrl).isEqualTo(ARTWORK_URL + "posters/79335-1.jpg");
+
+    // the shared cache (the keys of the provider) with the age of the last update
+    Series show = sharedCache.get("series/79335/en", TheTvDbDataCache.LOCALIZED_TTL, Series.class);
+    assertThat(show.overview).isEqualTo("Shawn Spencer ...");
+    Series fresh = sharedCache.get("series/79335/en", 60000, Series.class);
+    assertThat(fresh).isNull();
+    Episode.FullEpisode episode = sharedCache.get("episode/307482/en", TheTvDbDataCache.LOCALIZED_TTL, Episode.FullEpisode.class);
+    assertThat(episode.episodeName).isEqualTo("Pilot");
+    assertThat(sharedCache.getAge("imagetypes/79335")).isBetween(3600000 - TheTvDbChangeTracker.CLOCK_MARGIN - 60000, 3600000L);
+    sharedCache.close();
+  }
+
+  @Test
+  public void testOldData() throws Exception {
+    long updated = 1460000000;
+    StringBuilder dump = new StringBuilder();
+    dump.append("{\"type\":\"series\",\"language\":\"en\",\"data\":{\"id\":79335,\"seriesName\":\"Psych\",\"lastUpdated\":")
+        .append(updated).append("}}\n");
+    dump.append("{\"type\":\"actors\",\"seriesId\":79335,\"data\":[{\"id\":1,\"name\":\"James Roday\",\"role\":\"Shawn Spencer\"}]}\n");
+    // no series record: not known to be current at all
+    dump.append("{\"type\":\"actors\",\"seriesId\":1,\"data\":[{\"id\":2,\"name\":\"Somebody\"}]}\n");
+
+    TheTvDbDataCache dataCache = new TheTvDbDataCache();
+    TheTvDbDumpImporter importer = new TheTvDbDumpImporter(dataCache, new TheTvDbSearchIndex(), new TheTvDbEpisodeMissCache(), null, ARTWORK_URL);
+    assertThat(importer.importDump(new BufferedReader(new StringReader(dump.toString())), 1)).isEqualTo(3);
+
+    // the data of the dump is expired ...
+    assertThat(dataCache.getSeries(79335)).isNull();
+    assertThat(dataCache.getActors(79335)).isNull();
+
+    // ... until it has been verified against the unchanged lastUpdated stamp of the series (the texts and the actors)
+    assertThat(dataCache.verifySeries(79335, updated * 1000 + TheTvDbChangeTracker.CLOCK_MARGIN)).isEqualTo(2);
+    assertThat(dataCache.getSeriesText(79335, "en").title).isEqualTo("Psych");
+    assertThat(dataCache.getActors(79335)).hasSize(1);
+    assertThat(dataCache.verifySeries(1, updated * 1000 + TheTvDbChangeTracker.CLOCK_MARGIN)).isEqualTo(0);
+    assertThat(dataCache.getActors(1)).isNull();
+  }
+
+  @Test
+  public void testSharedCacheFull() throws Exception {
+    long updated = System.currentTimeMillis() / 1000;
+    StringBuilder dump = new StringBuilder();
+    for (int id = 1; id <= 100; id++) {
+      dump.append("{\"type\":\"series\",\"language\":\"en\",\"data\":{\"id\":").append(id).append(",\"seriesName\":\"Show ").append(id)
+          .append("\",\"lastUpdated\":").append(updated).append("}}\n");
+    }
+
+    // 48 entries fit into the shared cache
+    Path file = Files.createTempFile("tvdb-cache", ".bin");
+    TheTvDbSharedCache sharedCache = new TheTvDbSharedCache(file, 64, 1024 * 1024);
+    TheTvDbDumpImporter importer = new TheTvDbDumpImporter(new TheTvDbDataCache(), new TheTvDbSearchIndex(), new TheTvDbEpisodeMissCache(),
+        sharedCache, ARTWORK_URL);
+    assertThat(importer.importDump(new BufferedReader(new StringReader(dump.toString())), 1)).isEqualTo(100);
+
+    // the dump does not push out what it has added before
+    assertThat(importer.getStatistics()).contains("52 not shared");
+    assertThat(sharedCache.getGeneration()).isEqualTo(0);
+    assertThat(sharedCache.size()).isEqualTo(48);
+    Series first = sharedCache.get("series/1/en", TheTvDbDataCache.LOCALIZED_TTL, Series.class);
+    assertThat(first.seriesName).isEqualTo("Show 1");
+    Series last = sharedCache.get("series/100/en", TheTvDbDataCache.LOCALIZED_TTL, Series.class);
+    assertThat(last).isNull();
+    sharedCache.close();
+  }
+
+  @Test
+  public void testDeadWorker() throws Exception {
+    long updated = System.currentTimeMillis() / 1000;
+    StringBuilder dump = new StringBuilder();
+    dump.append("{\"type\":\"actors\",\"seriesId\":1,\"data\":[{\"id\":1,\"name\":\"Somebody\"}]}\n");
+    // more records than the queue of the (dead) worker takes
+    for (int id = 2; id <= 2 * TheTvDbDumpImporter.QUEUE_SIZE; id++) {
+      dump.append("{\"type\":\"series\",\"language\":\"en\",\"data\":{\"id\":").append(id).append(",\"seriesName\":\"Show ").append(id)
+          .append("\",\"lastUpdated\":").append(updated).append("}}\n");
+    }
+
+    // the worker dies of an Error (not caught like the exceptions of a record)
+    TheTvDbDataCache dataCache = new TheTvDbDataCache() {
+      @Override
+      void putActors(int id, List<Actor> actors, long fetched) {
+        throw new OutOfMemoryError("test");
+      }
+    };
+    TheTvDbDumpImporter importer = new TheTvDbDumpImporter(dataCache, new TheTvDbSearchIndex(), new TheTvDbEpisodeMissCache(), null, ARTWORK_URL);
+
+    // the reader does not block on the queue of the dead worker
+    long imported = importer.importDump(new BufferedReader(new StringReader(dump.toString())), 1);
+    assertThat(imported + importer.getSkipped()).isLessThan(2 * TheTvDbDumpImporter.QUEUE_SIZE);
+    assertThat(importer.getSkipped()).isGreaterThanOrEqualTo(TheTvDbDumpImporter.QUEUE_SIZE - 1);
+  }
+
+  @Test
+  public void testThroughput() throws Exception {
+    int shows = 2000;
+    int episodesPerShow = 50;
+    long updated = System.currentTimeMillis() / 1000;
+    StringBuilder dump = new StringBuilder();
+    for (int id = 1; id <= shows; id++) {
+      dump.append("{\"type\":\"series\",\"language\":\"en\",\"data\":{\"id\":").append(id).append(",\"seriesName\":\"Show ").append(id)
+          .append("\",\"firstAired\":\"2001-01-01\",\"overview\":\"The overview of show ").append(id).append("\",\"lastUpdated\":")
+          .append(updated).append("}}\n");
+      for (int i = 0; i < episodesPerShow; i++) {
+        dump.append("{\"type\":\"episode\",\"language\":\"en\",\"data\":{\"id\":").append(id * 1000 + i).append(",\"seriesId\":").append(id)
+            .append(",\"airedSeason\":").append(i / 10 + 1).append(",\"airedEpisodeNumber\":").append(i % 10 + 1)
+            .append(",\"episodeName\":\"Episode ").append(i + 1).append("\",\"overview\":\"The overview of episode ").append(i + 1)
+            .append("\",\"firstAired\":\"2001-01-01\"}}\n");
+      }
+    }
+
+    TheTvDbDataCache dataCache = new TheTvDbDataCache();
+    TheTvDbSearchIndex searchIndex = new TheTvDbSearchIndex();
+    TheTvDbDumpImporter importer = new TheTvDbDumpImporter(dataCache, searchIndex, new TheTvDbEpisodeMissCache(), null, ARTWORK_URL);
+
+    long start = System.currentTimeMillis();
+    long imported = importer.importDump(new BufferedReader(new StringReader(dump.toString())), Runtime.getRuntime().availableProcessors());
+    long millis = Math.max(1, System.currentTimeMillis() - start);
+
+    assertThat(imported).isEqualTo(shows * (episodesPerShow + 1));
+    // at least 10000 records per second
+    assertThat(imported * 1000 / millis).isGreaterThan(10000);
+    assertThat(searchIndex.size()).isEqualTo(shows);
+    assertThat(dataCache.getEpisodeIndex(shows, "en").size()).isEqualTo(episodesPerShow);
+  }
+}
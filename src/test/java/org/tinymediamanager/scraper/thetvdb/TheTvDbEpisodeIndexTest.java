@@ -0,0 +1,114 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class TheTvDbEpisodeIndexTest {
+  private static final int EPISODES = 30000;
+
+  @Test
+  public void testIndex() {
+    TheTvDbEpisodeIndex index = createSoap(EPISODES);
+
+    assertThat(index.size()).isEqualTo(EPISODES);
+
+    int position = index.findAired(12, 34);
+    assertThat(position).isGreaterThan(-1);
+    assertThat(index.getSeason(position)).isEqualTo(12);
+    assertThat(index.getEpisode(position)).isEqualTo(34);
+    assertThat(index.getDvdSeason(position)).isEqualTo(-1);
+    assertThat(index.getAbsoluteNumber(position)).isEqualTo(11 * 250 + 34);
+    assertThat(index.getTitle(position)).isEqualTo("Folge " + (11 * 250 + 34));
+    assertThat(index.getFirstAired(position)).matches("\\d{4}-\\d{2}-\\d{2}");
+
+    // specials
+    assertThat(index.findAired(0, 1)).isEqualTo(-1);
+    assertThat(index.findAired(1, 1)).isEqualTo(0);
+  }
+
+  @Test
+  public void testSecondaryLookups() {
+    TheTvDbEpisodeIndex index = new TheTvDbEpisodeIndex();
+    index.add(1, 1, 1, 1, 2, 1, "2016-02-28", "Pilot", "");
+    index.add(2, 1, 2, 1, 1, 2, "2016-03-01", "Second", "");
+    index.add(3, 1, 3, -1, -1, 3, "2016-03-01", "Third", "");
+    index.add(4, 0, 1, -1, -1, 0, "", "Special", "", 1456161621L);
+
+    // dvd order
+    assertThat(index.findDvd(1, 1)).isEqualTo(1);
+    assertThat(index.findDvd(1, 2)).isEqualTo(0);
+    assertThat(index.findDvd(-1, -1)).isEqualTo(-1);
+
+    // id
+    assertThat(index.findId(3)).isEqualTo(2);
+    assertThat(index.findId(5)).isEqualTo(-1);
+
+    // last update
+    assertThat(index.getLastUpdated(3)).isEqualTo(1456161621L);
+    assertThat(index.getLastUpdated(0)).isNull();
+
+    // absolute number
+    assertThat(index.findAbsolute(3)).isEqualTo(2);
+    assertThat(index.findAbsolute(0)).isEqualTo(-1);
+
+    // first aired: as stored, exact, range and unique within one day
+    assertThat(index.getFirstAired(0)).isEqualTo("2016-02-28");
+    assertThat(index.getFirstAired(3)).isEmpty();
+    assertThat(index.findFirstAired("2016-03-01")).isEqualTo(1);
+    assertThat(index.findFirstAired("2016-02-01", "2016-02-29")).containsExactly(0);
+    assertThat(index.findFirstAired("2016-02-01", "2016-03-31")).containsExactly(0, 1, 2);
+    assertThat(index.findUniqueFirstAired("2016-02-27", 1)).isEqualTo(0);
+    assertThat(index.findUniqueFirstAired("2016-03-05", 1)).isEqualTo(-1);
+    // two episodes on the neighbouring day or the neighbouring days of both sides: ambiguous
+    assertThat(index.findUniqueFirstAired("2016-03-02", 1)).isEqualTo(-1);
+    assertThat(index.findUniqueFirstAired("2016-02-29", 1)).isEqualTo(-1);
+  }
+
+  @Test
+  public void testDates() {
+    assertThat(TheTvDbEpisodeIndex.parseDate("2006-07-14")).isEqualTo(20060714);
+    assertThat(TheTvDbEpisodeIndex.formatDate(20060714)).isEqualTo("2006-07-14");
+    assertThat(TheTvDbEpisodeIndex.formatDate(0)).isEmpty();
+    assertThat(TheTvDbEpisodeIndex.parseDate("")).isEqualTo(0);
+    assertThat(TheTvDbEpisodeIndex.parseDate("2006")).isEqualTo(0);
+    assertThat(TheTvDbEpisodeIndex.parseDate("2006-07-1x")).isEqualTo(0);
+
+    // days across the leap day
+    assertThat(TheTvDbEpisodeIndex.toEpochDay(19700101)).isEqualTo(0);
+    assertThat(TheTvDbEpisodeIndex.toEpochDay(20160301) - TheTvDbEpisodeIndex.toEpochDay(20160228)).isEqualTo(2);
+    assertThat(TheTvDbEpisodeIndex.toDate(TheTvDbEpisodeIndex.toEpochDay(20160228) + 1)).isEqualTo(20160229);
+  }
+
+  @Test
+  public void testMemoryPerEpisode() {
+    TheTvDbEpisodeIndex index = new TheTvDbEpisodeIndex();
+    for (int i = 0; i < EPISODES; i++) {
+      index.add(100000 + i, i / 250 + 1, i % 250 + 1, -1, -1, i + 1, "2016-02-28", null, null);
+    }
+    index.findAired(1, 1);
+
+    // the numbers, the date and the text references take less than 72 bytes per episode (incl. the lookup and the array growth)
+    assertThat(index.estimateMemoryUsage() / EPISODES).isLessThan(72);
+
+    // every title is distinct here ("Folge 12345": 24 bytes string object + 40 bytes chars)
+    index = createSoap(EPISODES);
+    index.findAired(1, 1);
+    assertThat(index.estimateMemoryUsage() / EPISODES).isLessThan(72 + 64);
+  }
+
+  private TheTvDbEpisodeIndex createSoap(int count) {
+    TheTvDbEpisodeIndex index = new TheTvDbEpisodeIndex();
+    fill(index, count);
+    return index;
+  }
+
+  private void fill(TheTvDbEpisodeIndex index, int count) {
+    for (int i = 0; i < count; i++) {
+      int season = i / 250 + 1;
+      int episode = i % 250 + 1;
+      String aired = String.format("%04d-%02d-%02d", 1990 + i / 365, (i / 28) % 12 + 1, i % 28 + 1);
+      index.add(100000 + i, season, episode, -1, -1, i + 1, aired, "Folge " + (i + 1), "");
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class TheTvDbEpisodeMissCacheTest {
+
+  @Test
+  public void testMiss() {
+    TheTvDbEpisodeMissCache cache = new TheTvDbEpisodeMissCache();
+    assertThat(cache.isMiss(79349, "aired_0_99_")).isFalse();
+
+    cache.putMiss(79349, "aired_0_99_", 2);
+    assertThat(cache.isMiss(79349, "aired_0_99_")).isTrue();
+    assertThat(cache.isMiss(79349, "aired_0_99_")).isTrue();
+    assertThat(cache.isMiss(12345, "aired_0_99_")).isFalse();
+
+    // 2 lookups with 2 calls each
+    assertThat(cache.getSavedCalls()).isEqualTo(4);
+  }
+
+  @Test
+  public void testInvalidation() {
+    TheTvDbEpisodeMissCache cache = new TheTvDbEpisodeMissCache();
+
+    // the first notice of the listing does not invalidate anything
+    cache.updateLastUpdated(79349, 1000L);
+    cache.updateListing(79349, 42);
+    cache.putMiss(79349, "aired_8_13_", 1);
+    cache.updateLastUpdated(79349, 1000L);
+    cache.updateListing(79349, 42);
+    assertThat(cache.isMiss(79349, "aired_8_13_")).isTrue();
+
+    // the series has been updated
+    cache.updateLastUpdated(79349, 2000L);
+    assertThat(cache.isMiss(79349, "aired_8_13_")).isFalse();
+
+    // the listing changed
+    cache.putMiss(79349, "aired_8_13_", 1);
+    cache.updateListing(79349, 43);
+    assertThat(cache.isMiss(79349, "aired_8_13_")).isFalse();
+  }
+}
@@ -0,0 +1,134 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.tinymediamanager.scraper.entities.MediaEpisode;
+
+import com.google.gson.Gson;
+import com.uwetrottmann.thetvdb.entities.Episode;
+import com.uwetrottmann.thetvdb.entities.EpisodesResponse;
+import com.uwetrottmann.thetvdb.entities.SeriesImageQueryResult;
+
+public class TheTvDbJsonDecoderTest {
+  private static final int ROUNDS = 200;
+
+  @Test
+  public void testReadEpisodes() throws Exception {
+    TheTvDbEpisodeIndex episodes = new TheTvDbEpisodeIndex();
+    int nextPage = TheTvDbJsonDecoder.readEpisodes(new StringReader(createEpisodePage(100, 2)), episodes);
+
+    assertThat(nextPage).isEqualTo(2);
+    assertThat(episodes.size()).isEqualTo(100);
+    assertThat(episodes.getAbsoluteNumber(9)).isEqualTo(10);
+    assertThat(episodes.getLastUpdated(9)).isEqualTo(1456161621L);
+
+    MediaEpisode episode = episodes.toMediaEpisode(9, "tvdb");
+    assertThat(episode.ids.get("tvdb")).isEqualTo(1009);
+    assertThat(episode.season).isEqualTo(1);
+    assertThat(episode.episode).isEqualTo(10);
+    assertThat(episode.dvdSeason).isEqualTo(1);
+    assertThat(episode.dvdEpisode).isEqualTo(10);
+    assertThat(episode.title).isEqualTo("Episode 10");
+    assertThat(episode.plot).startsWith("Plot of episode 10");
+    assertThat(episode.firstAired).isEqualTo("2006-07-10");
+
+    // last page
+    episodes = new TheTvDbEpisodeIndex();
+    assertThat(TheTvDbJsonDecoder.readEpisodes(new StringReader(createEpisodePage(5, 0)), episodes)).isEqualTo(0);
+    assertThat(episodes.size()).isEqualTo(5);
+  }
+
+  @Test
+  public void testReadImages() throws Exception {
+    String json = "{\"data\":[{\"id\":1,\"keyType\":\"poster\",\"subKey\":\"\",\"fileName\":\"posters/79335-1.jpg\",\"resolution\":\"680x1000\","
+        + "\"ratingsInfo\":{\"average\":7.5,\"count\":4},\"thumbnail\":\"_cache/posters/79335-1.jpg\",\"languageId\":7},"
+        + "{\"id\":2,\"keyType\":\"season\",\"subKey\":\"1\",\"fileName\":\"seasons/79335-1.jpg\",\"resolution\":\"\",\"ratingsInfo\":null}],"
+        + "\"errors\":{\"invalidLanguage\":\"Incomplete or no translation for the given language\"}}";
+
+    List<SeriesImageQueryResult> images = new ArrayList<>();
+    TheTvDbJsonDecoder.readImages(new StringReader(json), images);
+
+    assertThat(images).hasSize(2);
+    assertThat(images.get(0).id).isEqualTo(1);
+    assertThat(images.get(0).keyType).isEqualTo("poster");
+    assertThat(images.get(0).fileName).isEqualTo("posters/79335-1.jpg");
+    assertThat(images.get(0).ratingsInfo.average).isEqualTo(7.5);
+    assertThat(images.get(0).ratingsInfo.count).isEqualTo(4);
+    assertThat(images.get(1).subKey).isEqualTo("1");
+    assertThat(images.get(1).ratingsInfo.count).isEqualTo(0);
+  }
+
+  @Test
+  public void benchmarkEpisodeDecoding() throws Exception {
+    // the allocations can only be measured with the HotSpot thread bean
+    assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    String json = createEpisodePage(100, 2);
+    Gson gson = new Gson();
+
+    // warm up both paths
+    for (int i = 0; i < ROUNDS; i++) {
+      decodeWithEntities(gson, json);
+      decodeStreaming(json);
+    }
+
+    // the decoded (and cached) listing only: the MediaEpisodes are created on both paths alike when the episodes are looked up
+    long allocated = allocatedBytes();
+    for (int i = 0; i < ROUNDS; i++) {
+      decodeWithEntities(gson, json);
+    }
+    long entityAllocated = allocatedBytes() - allocated;
+
+    allocated = allocatedBytes();
+    for (int i = 0; i < ROUNDS; i++) {
+      decodeStreaming(json);
+    }
+    long streamingAllocated = allocatedBytes() - allocated;
+
+    assertThat(streamingAllocated).isGreaterThan(0).isLessThan(entityAllocated);
+  }
+
+  /**
+   * the new path: decode into the episode index
+   */
+  private TheTvDbEpisodeIndex decodeStreaming(String json) throws Exception {
+    TheTvDbEpisodeIndex index = new TheTvDbEpisodeIndex();
+    TheTvDbJsonDecoder.readEpisodes(new StringReader(json), index);
+    return index;
+  }
+
+  /**
+   * the old path: decode into the API entities
+   */
+  private List<Episode> decodeWithEntities(Gson gson, String json) {
+    return gson.fromJson(json, EpisodesResponse.class).data;
+  }
+
+  private long allocatedBytes() {
+    return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+
+  private String createEpisodePage(int count, int next) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("{\"links\":{\"first\":1,\"last\":2,\"next\":").append(next == 0 ? "null" : String.valueOf(next)).append(",\"prev\":null},\"data\":[");
+    for (int i = 0; i < count; i++) {
+      if (i > 0) {
+        sb.append(',');
+      }
+      int ep = i + 1;
+      sb.append("{\"absoluteNumber\":").append(ep).append(",\"airedEpisodeNumber\":").append(ep).append(",\"airedSeason\":1,\"airedSeasonID\":30357");
+      sb.append(",\"dvdEpisodeNumber\":").append(ep).append(",\"dvdSeason\":1,\"episodeName\":\"Episode ").append(ep).append('"');
+      sb.append(",\"firstAired\":\"2006-07-").append(ep < 10 ? "0" + ep : String.valueOf(ep % 100)).append('"');
+      sb.append(",\"id\":").append(1000 + i).append(",\"lastUpdated\":1456161621");
+      sb.append(",\"overview\":\"Plot of episode ").append(ep).append(" with some more text to make the overview as long as a real one.\"}");
+    }
+    sb.append("]}");
+    return sb.toString();
+  }
+}
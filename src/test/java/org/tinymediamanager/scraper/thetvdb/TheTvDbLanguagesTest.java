@@ -0,0 +1,65 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.uwetrottmann.thetvdb.entities.Language;
+
+public class TheTvDbLanguagesTest {
+
+  @After
+  public void tearDown() {
+    TheTvDbLanguages.reset();
+  }
+
+  @Test
+  public void testSnapshot() {
+    // the bundled snapshot is available without any API call
+    assertThat(TheTvDbLanguages.getVersion()).isEqualTo("2016-11-01");
+    assertThat(TheTvDbLanguages.getId("en")).isEqualTo(7);
+    assertThat(TheTvDbLanguages.getId("de")).isEqualTo(14);
+    assertThat(TheTvDbLanguages.get("de").englishName).isEqualTo("German");
+
+    assertThat(TheTvDbLanguages.get("xx")).isNull();
+    assertThat(TheTvDbLanguages.get(null)).isNull();
+    assertThat(TheTvDbLanguages.getId("xx")).isEqualTo(0);
+  }
+
+  @Test
+  public void testUpdate() {
+    List<Language> live = new ArrayList<>();
+    live.add(language(7, "en", "English"));
+    live.add(language(99, "tlh", "Klingon"));
+    TheTvDbLanguages.update(live);
+
+    // the live list replaces the snapshot completely
+    assertThat(TheTvDbLanguages.getVersion()).isEqualTo("live");
+    assertThat(TheTvDbLanguages.getId("tlh")).isEqualTo(99);
+    assertThat(TheTvDbLanguages.getId("en")).isEqualTo(7);
+    assertThat(TheTvDbLanguages.get("de")).isNull();
+
+    // an empty answer does not drop the known languages
+    TheTvDbLanguages.update(Collections.<Language> emptyList());
+    TheTvDbLanguages.update(null);
+    assertThat(TheTvDbLanguages.getId("tlh")).isEqualTo(99);
+
+    TheTvDbLanguages.reset();
+    assertThat(TheTvDbLanguages.getVersion()).isEqualTo("2016-11-01");
+    assertThat(TheTvDbLanguages.getId("de")).isEqualTo(14);
+    assertThat(TheTvDbLanguages.get("tlh")).isNull();
+  }
+
+  private Language language(int id, String abbreviation, String englishName) {
+    Language language = new Language();
+    language.id = id;
+    language.abbreviation = abbreviation;
+    language.englishName = englishName;
+    return language;
+  }
+}
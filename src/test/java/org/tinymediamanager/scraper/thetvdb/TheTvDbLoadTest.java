@@ -0,0 +1,301 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.StringUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tinymediamanager.scraper.MediaMetadata;
+import org.tinymediamanager.scraper.MediaScrapeOptions;
+import org.tinymediamanager.scraper.MediaSearchOptions;
+import org.tinymediamanager.scraper.MediaSearchResult;
+import org.tinymediamanager.scraper.entities.MediaArtwork;
+import org.tinymediamanager.scraper.entities.MediaLanguages;
+import org.tinymediamanager.scraper.entities.MediaType;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+
+/**
+ * drives the provider with concurrent threads against a local stand-in of the API and reports the sustained throughput. It only runs with
+ * -Dtvdb.loadtest=true (it takes a while) and can be tuned with system properties: tvdb.loadtest.seconds (duration per configuration),
+ * tvdb.loadtest.window (rate limit window in ms; the real one is 11000), tvdb.loadtest.latency (ms per response) and tvdb.loadtest.threads.<br>
+ * With a shorter window the rate limit lets more requests through than the real one: shows/hour is projected to the real window from the
+ * requests per show (test/hour is the figure measured with the test window)
+ */
+public class TheTvDbLoadTest {
+  private static final int        SHOWS         = 500;
+  // episode files per show
+  private static final int        EPISODE_FILES = 3;
+  private static final long       DURATION      = Long.getLong("tvdb.loadtest.seconds", 5) * 1000;
+  private static final long       WINDOW        = Long.getLong("tvdb.loadtest.window", 1000);
+  private static final long       REAL_WINDOW   = TheTvDbConnectionCounter.TIME_WINDOW + TheTvDbConnectionCounter.SAFETY_MARGIN;
+  private static final long       LATENCY       = Long.getLong("tvdb.loadtest.latency", 20);
+  private static final int        THREADS       = Integer.getInteger("tvdb.loadtest.threads", 8);
+  private static final String[]   OPERATIONS    = { "search", "show", "episodeList", "artwork", "bundle", "episode" };
+
+  private TheTvDbStandInServer    server;
+  private TheTvDbMetadataProvider provider;
+
+  @BeforeClass
+  public static void setUpClass() {
+    // not part of the default test run
+    assumeTrue(Boolean.getBoolean("tvdb.loadtest"));
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    server = new TheTvDbStandInServer(SHOWS, LATENCY);
+    server.start();
+    TheTvDbTransport.setApiUrl(server.getUrl());
+    TheTvDbMetadataProvider.resetAPI();
+
+    provider = new TheTvDbMetadataProvider();
+    provider.getProviderInfo().getConfig().setValue("fallbackLanguage", MediaLanguages.en.toString());
+  }
+
+  @After
+  public void tearDown() {
+    provider.getProviderInfo().getConfig().setValue("prefetch", false);
+    TheTvDbConnectionCounter.setBackend(new TheTvDbLocalRateLimit(TheTvDbConnectionCounter.TIME_WINDOW + TheTvDbConnectionCounter.SAFETY_MARGIN));
+    TheTvDbConnectionCounter.reset();
+    TheTvDbMetadataProvider.clearCaches();
+    TheTvDbTransport.setApiUrl(null);
+    TheTvDbMetadataProvider.resetAPI();
+    server.stop();
+  }
+
+  @Test
+  public void testThroughput() throws Exception {
+    List<RunResult> results = new ArrayList<>();
+    results.add(run("cold, 1 thread", 1, false, false, true));
+    results.add(run("cold, 1 thread, bundle", 1, false, true, true));
+    results.add(run("cold, " + THREADS + " threads", THREADS, false, false, true));
+    // the same shows again
+    results.add(run("warm, " + THREADS + " threads", THREADS, false, false, false));
+    results.add(run("cold, " + THREADS + " threads, prefetch", THREADS, true, false, true));
+    results.add(run("cold, " + THREADS + " threads, bundle", THREADS, false, true, true));
+
+    System.out.println("load test: " + DURATION / 1000 + "s per configuration, rate limit " + TheTvDbConnectionCounter.MAX_CONNECTIONS + " requests/"
+        + WINDOW + "ms (projected to " + REAL_WINDOW + "ms), " + LATENCY + "ms latency");
+    System.out.println(String.format("%-32s %9s %11s %11s %9s %7s %9s %9s %10s %9s %9s", "configuration", "shows", "shows/hour", "test/hour",
+        "requests", "budget", "throttled", "blocked", "blocked ms", "show p50", "show p95"));
+    for (RunResult result : results) {
+      System.out.println(result);
+    }
+    for (RunResult result : results) {
+      System.out.println(result.getLatencies());
+    }
+
+    for (RunResult result : results) {
+      assertThat(result.shows).isGreaterThan(0);
+      assertThat(result.errors.get()).isEqualTo(0);
+    }
+  }
+
+  /**
+   * run the scrape of as many shows as possible within the duration
+   */
+  private RunResult run(String name, int threads, boolean prefetch, final boolean bundle, boolean cold) throws Exception {
+    if (cold) {
+      TheTvDbMetadataProvider.clearCaches();
+    }
+    provider.getProviderInfo().getConfig().setValue("prefetch", prefetch);
+    TheTvDbConnectionCounter.setBackend(new TheTvDbLocalRateLimit(WINDOW));
+    TheTvDbConnectionCounter.reset();
+
+    final ThreadMXBean mxBean = ManagementFactory.getThreadMXBean();
+    if (mxBean.isThreadContentionMonitoringSupported()) {
+      mxBean.setThreadContentionMonitoringEnabled(true);
+    }
+
+    final RunResult result = new RunResult(name);
+    final AtomicInteger nextShow = new AtomicInteger();
+    final long deadline = System.currentTimeMillis() + DURATION;
+    long requestsBefore = server.getRequests();
+    long start = System.currentTimeMillis();
+
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < threads; i++) {
+      Thread worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          while (System.currentTimeMillis() < deadline) {
+            int show = nextShow.getAndIncrement() % SHOWS;
+            try {
+              long showStart = System.currentTimeMillis();
+              scrapeShow(show, result, bundle);
+              result.record("show total", System.currentTimeMillis() - showStart);
+            }
+            catch (Exception e) {
+              result.errors.incrementAndGet();
+            }
+          }
+
+          // lock contention: how often and how long the thread has been blocked on a monitor
+          ThreadInfo info = mxBean.getThreadInfo(Thread.currentThread().getId());
+          if (info != null) {
+            result.blocked(info.getBlockedCount(), info.getBlockedTime());
+          }
+        }
+      }, "tvdb-load-" + i);
+      workers.add(worker);
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+
+    result.elapsed = System.currentTimeMillis() - start;
+    result.shows = result.getCount("show total");
+    result.requests = server.getRequests() - requestsBefore;
+    long[] interactive = TheTvDbConnectionCounter.getMetrics(Priority.INTERACTIVE);
+    long[] background = TheTvDbConnectionCounter.getMetrics(Priority.BACKGROUND);
+    result.throttled = interactive[1] + background[1];
+    return result;
+  }
+
+  /**
+   * the usual sequence of calls for one show: search, show, episode list, artwork (or the bundle of them) and the metadata of some episode files
+   */
+  private void scrapeShow(int show, RunResult result, boolean bundle) throws Exception {
+    long start = System.currentTimeMillis();
+    MediaSearchOptions searchOptions = new MediaSearchOptions(MediaType.TV_SHOW, TheTvDbStandInServer.TITLE + show);
+    searchOptions.setLanguage(Locale.ENGLISH);
+    List<MediaSearchResult> results = provider.search(searchOptions);
+    result.record("search", System.currentTimeMillis() - start);
+    if (results.isEmpty()) {
+      throw new IllegalStateException("no search result for " + show);
+    }
+    String id = results.get(0).getId();
+
+    start = System.currentTimeMillis();
+    MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_SHOW);
+    options.setId(provider.getProviderInfo().getId(), id);
+    options.setLanguage(Locale.ENGLISH);
+    if (bundle) {
+      TheTvDbSeriesBundle seriesBundle = provider.getSeriesBundle(options);
+      result.record("bundle", System.currentTimeMillis() - start);
+      if (StringUtils.isBlank(seriesBundle.getMetadata().getTitle()) || seriesBundle.getEpisodes().isEmpty()
+          || seriesBundle.getArtwork().isEmpty()) {
+        throw new IllegalStateException("incomplete bundle for " + id);
+      }
+    }
+    else {
+      MediaMetadata md = provider.getMetadata(options);
+      result.record("show", System.currentTimeMillis() - start);
+      if (StringUtils.isBlank(md.getTitle())) {
+        throw new IllegalStateException("no metadata for " + id);
+      }
+
+      start = System.currentTimeMillis();
+      provider.getEpisodeList(options);
+      result.record("episodeList", System.currentTimeMillis() - start);
+
+      start = System.currentTimeMillis();
+      options.setArtworkType(MediaArtwork.MediaArtworkType.ALL);
+      provider.getArtwork(options);
+      result.record("artwork", System.currentTimeMillis() - start);
+    }
+
+    for (int i = 1; i <= EPISODE_FILES; i++) {
+      start = System.currentTimeMillis();
+      MediaScrapeOptions episodeOptions = new MediaScrapeOptions(MediaType.TV_EPISODE);
+      episodeOptions.setId(provider.getProviderInfo().getId(), id);
+      episodeOptions.setId(MediaMetadata.SEASON_NR, "1");
+      episodeOptions.setId(MediaMetadata.EPISODE_NR, String.valueOf(i));
+      episodeOptions.setLanguage(Locale.ENGLISH);
+      provider.getMetadata(episodeOptions);
+      result.record("episode", System.currentTimeMillis() - start);
+    }
+  }
+
+  /**********************************************************************
+   * local helper classes
+   **********************************************************************/
+  private static class RunResult {
+    private final String                  name;
+    private final Map<String, List<Long>> latencies    = new LinkedHashMap<>();
+    private final AtomicInteger           errors       = new AtomicInteger();
+    private long                          elapsed      = 0;
+    private int                           shows        = 0;
+    private long                          requests     = 0;
+    private long                          throttled    = 0;
+    private long                          blockedCount = 0;
+    private long                          blockedTime  = 0;
+
+    private RunResult(String name) {
+      this.name = name;
+      for (String operation : OPERATIONS) {
+        latencies.put(operation, new ArrayList<Long>());
+      }
+      latencies.put("show total", new ArrayList<Long>());
+    }
+
+    private synchronized void record(String operation, long millis) {
+      latencies.get(operation).add(millis);
+    }
+
+    private synchronized void blocked(long count, long millis) {
+      blockedCount += count;
+      // -1 if contention monitoring is not supported
+      blockedTime += Math.max(0, millis);
+    }
+
+    private synchronized int getCount(String operation) {
+      return latencies.get(operation).size();
+    }
+
+    private synchronized long percentile(String operation, double percentile) {
+      List<Long> values = new ArrayList<>(latencies.get(operation));
+      if (values.isEmpty()) {
+        return 0;
+      }
+      Collections.sort(values);
+      return values.get((int) Math.ceil(percentile * values.size()) - 1);
+    }
+
+    private synchronized String getLatencies() {
+      StringBuilder sb = new StringBuilder(name).append(" - latency p50/p95/p99 (ms):");
+      for (String operation : latencies.keySet()) {
+        sb.append(' ').append(operation).append(' ').append(percentile(operation, 0.5)).append('/').append(percentile(operation, 0.95)).append('/')
+            .append(percentile(operation, 0.99));
+      }
+      return sb.toString();
+    }
+
+    /**
+     * the shows per hour with the real rate limit: the measured rate, but at most as many shows as the real budget allows with the requests per
+     * show of the run
+     */
+    private long getProjectedShowsPerHour() {
+      long measured = shows * 3600000L / Math.max(1, elapsed);
+      if (requests == 0) {
+        return measured;
+      }
+      long budgetBound = shows * 3600000L * TheTvDbConnectionCounter.MAX_CONNECTIONS / (requests * REAL_WINDOW);
+      return Math.min(measured, budgetBound);
+    }
+
+    @Override
+    public String toString() {
+      // share of the rate limit budget of the run which has been used
+      double budget = (double) requests / (Math.max(1, elapsed / WINDOW) * TheTvDbConnectionCounter.MAX_CONNECTIONS);
+      return String.format("%-32s %9d %11d %11d %9d %6.0f%% %9d %9d %10d %9d %9d", name, shows, getProjectedShowsPerHour(),
+          shows * 3600000L / Math.max(1, elapsed), requests, budget * 100, throttled, blockedCount, blockedTime, percentile("show total", 0.5),
+          percentile("show total", 0.95));
+    }
+  }
+}
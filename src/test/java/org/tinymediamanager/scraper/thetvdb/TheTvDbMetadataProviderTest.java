@@ -6,9 +6,15 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
 
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 import org.apache.commons.lang3.LocaleUtils;
 import org.junit.Assert;
@@ -147,6 +153,47 @@ public class TheTvDbMetadataProviderTest {
     }
   }
 
+  @Test
+  public void testTvShowScrapeInSeveralLanguages() {
+    /*
+     * Psych (79335)
+     */
+    try {
+      TheTvDbMetadataProvider metadataProvider = new TheTvDbMetadataProvider();
+      metadataProvider.getProviderInfo().getConfig().setValue("fallbackLanguage", MediaLanguages.de.toString());
+
+      MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_SHOW);
+      options.setId(metadataProvider.getProviderInfo().getId(), "79335");
+      options.setCountry(CountryCode.US);
+      Locale en = LocaleUtils.toLocale(MediaLanguages.en.name());
+      Locale de = LocaleUtils.toLocale(MediaLanguages.de.name());
+      Locale tr = LocaleUtils.toLocale(MediaLanguages.tr.name());
+      Map<Locale, MediaMetadata> metadata = metadataProvider.getTvShowMetadata(options, Arrays.asList(en, de, tr));
+
+      // one result per language - in the given order
+      assertThat(metadata.keySet()).containsExactly(en, de, tr);
+
+      // the texts of every language
+      assertEquals("Psych", metadata.get(en).getTitle());
+      assertThat(metadata.get(en).getPlot()).startsWith("Thanks to his police officer father's efforts, Shawn Spencer spent his childhood");
+      assertThat(metadata.get(de).getPlot()).startsWith("Shawn Spencer ist selbsternannter Detektiv.");
+
+      // no turkish texts: merged from the fallback language
+      assertEquals("Psych", metadata.get(tr).getTitle());
+      assertEquals(metadata.get(de).getPlot(), metadata.get(tr).getPlot());
+
+      // the language independent data is the same for all languages
+      for (MediaMetadata md : metadata.values()) {
+        assertEquals(2006, md.getYear());
+        assertEquals("Ended", md.getStatus());
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
+
   @Test
   public void testEpisodeScrape() {
     SimpleDateFormat sdf = new SimpleDateFormat("dd-MM-yyyy");
@@ -229,6 +276,78 @@ public class TheTvDbMetadataProviderTest {
     }
   }
 
+  @Test
+  public void testEpisodeBatchScrape() {
+    /*
+     * Psych (79335)
+     */
+    try {
+      TheTvDbMetadataProvider metadataProvider = new TheTvDbMetadataProvider();
+
+      List<MediaScrapeOptions> episodes = new ArrayList<>();
+      for (int episode : new int[] { 4, 2, 1, 99 }) {
+        MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_EPISODE);
+        options.setId(metadataProvider.getProviderInfo().getId(), "79335");
+        options.setCountry(CountryCode.US);
+        options.setLanguage(LocaleUtils.toLocale(MediaLanguages.en.name()));
+        options.setId(MediaMetadata.SEASON_NR, "1");
+        options.setId(MediaMetadata.EPISODE_NR, String.valueOf(episode));
+        episodes.add(options);
+      }
+      List<MediaMetadata> mds = metadataProvider.getEpisodeMetadata(episodes);
+
+      // in the order of the options
+      assertThat(mds).hasSize(4);
+      assertThat(mds.get(0).getEpisodeNumber()).isEqualTo(4);
+      assertThat(mds.get(1).getEpisodeNumber()).isEqualTo(2);
+      assertThat(mds.get(1).getTitle()).isEqualTo("The Spelling Bee");
+      assertThat(mds.get(1).getCastMembers(MediaCastMember.CastType.DIRECTOR)).isNotEmpty();
+      assertThat(mds.get(2).getEpisodeNumber()).isEqualTo(1);
+      // not existing
+      assertThat(mds.get(3).getTitle()).isNullOrEmpty();
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testEpisodeScrapeWithProjection() {
+    /*
+     * Psych (79335)
+     */
+    try {
+      ITvShowMetadataProvider metadataProvider = new TheTvDbMetadataProvider();
+
+      MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_EPISODE);
+      options.setId(metadataProvider.getProviderInfo().getId(), "79335");
+      options.setCountry(CountryCode.US);
+      options.setLanguage(LocaleUtils.toLocale(MediaLanguages.en.name()));
+      options.setId(MediaMetadata.SEASON_NR, "1");
+      options.setId(MediaMetadata.EPISODE_NR, "3");
+      options.setArtworkType(MediaArtwork.MediaArtworkType.ALL);
+      // numbering and title only
+      TheTvDbField.setFields(options);
+      MediaMetadata md = metadataProvider.getMetadata(options);
+
+      // did we get metadata?
+      assertNotNull("MediaMetadata", md);
+
+      assertThat(md.getEpisodeNumber()).isEqualTo(3);
+      assertThat(md.getSeasonNumber()).isEqualTo(1);
+      assertThat(md.getTitle()).isEqualTo("Speak Now or Forever Hold Your Piece");
+      // the full record of the episode has not been fetched
+      assertThat(md.getCastMembers(MediaCastMember.CastType.ACTOR)).isEmpty();
+      assertThat(md.getMediaArt(MediaArtwork.MediaArtworkType.THUMB)).isEmpty();
+      assertThat((Integer) md.getExtraData(TheTvDbMetadataProvider.CALLS_SAVED)).isGreaterThan(0);
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
+
   @Test
   public void testArtworkScrape() {
     /*
@@ -269,6 +388,119 @@ public class TheTvDbMetadataProviderTest {
     }
   }
 
+  @Test
+  public void testSeriesBundleScrape() {
+    /*
+     * Psych (79335)
+     */
+    try {
+      TheTvDbMetadataProvider metadataProvider = new TheTvDbMetadataProvider();
+
+      MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_SHOW);
+      options.setId(metadataProvider.getProviderInfo().getId(), "79335");
+      options.setCountry(CountryCode.US);
+      options.setLanguage(LocaleUtils.toLocale(MediaLanguages.en.name()));
+      TheTvDbSeriesBundle bundle = metadataProvider.getSeriesBundle(options);
+
+      // did we get everything?
+      assertNotNull("bundle", bundle);
+
+      assertEquals("Psych", bundle.getMetadata().getTitle());
+      assertEquals(2006, bundle.getMetadata().getYear());
+      assertThat(bundle.getMetadata().getCastMembers(MediaCastMember.CastType.ACTOR)).isNotEmpty();
+
+      assertThat(bundle.getEpisodes().size()).isEqualTo(126);
+      assertThat(bundle.getEpisodes().get(9).title).isEqualTo("The Spelling Bee");
+
+      assertThat(bundle.getArtwork()).isNotEmpty();
+      for (MediaArtwork ma : bundle.getArtwork()) {
+        assertThat(ma.getDefaultUrl()).startsWith("http://thetvdb.com/banners/");
+      }
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
+
+  @Test
+  public void testDifferentialRescrape() {
+    /*
+     * Psych (79335)
+     */
+    TheTvDbMetadataProvider metadataProvider = new TheTvDbMetadataProvider();
+    try {
+      metadataProvider.getProviderInfo().getConfig().setValue("differentialRescrape", true);
+
+      MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_SHOW);
+      options.setId(metadataProvider.getProviderInfo().getId(), "79335");
+      options.setCountry(CountryCode.US);
+      options.setLanguage(LocaleUtils.toLocale(MediaLanguages.en.name()));
+      MediaMetadata md = metadataProvider.getMetadata(options);
+      Long lastUpdated = (Long) md.getExtraData(TheTvDbMetadataProvider.LAST_UPDATED);
+      assertThat(lastUpdated).isNotNull();
+
+      // a rescrape by another node: the stamp of the last scrape is passed
+      TheTvDbMetadataProvider.clearCaches();
+      options.setId(TheTvDbMetadataProvider.LAST_UPDATED, String.valueOf(lastUpdated));
+      md = metadataProvider.getMetadata(options);
+      assertEquals("Psych", md.getTitle());
+      assertThat(md.getExtraData(TheTvDbMetadataProvider.CHANGED)).isEqualTo(Boolean.FALSE);
+
+      // the episode list is fetched once and used again for the rescrape
+      List<MediaEpisode> episodes = metadataProvider.getEpisodeList(options);
+      assertThat(metadataProvider.getEpisodeList(options)).hasSize(episodes.size());
+      assertThat(TheTvDbMetadataProvider.getChangeStatistics()).contains("1 series checked (0 changed)");
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+    finally {
+      metadataProvider.getProviderInfo().getConfig().setValue("differentialRescrape", false);
+    }
+  }
+
+  @Test
+  public void testScrapeAfterImport() {
+    /*
+     * Psych (79335)
+     */
+    TheTvDbMetadataProvider metadataProvider = new TheTvDbMetadataProvider();
+    Path dump = null;
+    try {
+      // the default settings (no differential rescrape)
+      metadataProvider.getProviderInfo().getConfig().setValue("differentialRescrape", false);
+      TheTvDbMetadataProvider.clearCaches();
+
+      // a dump of 2016 with a title which is not current any more
+      dump = Files.createTempFile("tvdb-dump", ".json");
+      String record = "{\"type\":\"series\",\"language\":\"en\",\"data\":{\"id\":79335,\"seriesName\":\"Psych (2016)\","
+          + "\"lastUpdated\":1460000000}}\n";
+      Files.write(dump, record.getBytes(StandardCharsets.UTF_8));
+      assertThat(TheTvDbMetadataProvider.importDump(dump)).isEqualTo(1);
+      assertThat(metadataProvider.getProviderInfo().getConfig().getValueAsBool("differentialRescrape")).isTrue();
+
+      // the old data of the dump is not taken as it is: the series is checked and fetched again
+      MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_SHOW);
+      options.setId(metadataProvider.getProviderInfo().getId(), "79335");
+      options.setCountry(CountryCode.US);
+      options.setLanguage(LocaleUtils.toLocale(MediaLanguages.en.name()));
+      MediaMetadata md = metadataProvider.getMetadata(options);
+      assertEquals("Psych", md.getTitle());
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+    finally {
+      metadataProvider.getProviderInfo().getConfig().setValue("differentialRescrape", false);
+      if (dump != null) {
+        dump.toFile().delete();
+      }
+    }
+  }
+
   @Test
   public void testEpisodeListScrape() {
     /*
@@ -342,4 +574,47 @@ public class TheTvDbMetadataProviderTest {
       fail(e.getMessage());
     }
   }
+
+  @Test
+  public void testEpisodeListScrapeInSeveralLanguages() {
+    /*
+     * Psych (79335)
+     */
+    try {
+      TheTvDbMetadataProvider metadataProvider = new TheTvDbMetadataProvider();
+      metadataProvider.getProviderInfo().getConfig().setValue("fallbackLanguage", MediaLanguages.de.toString());
+
+      MediaScrapeOptions options = new MediaScrapeOptions(MediaType.TV_EPISODE);
+      options.setId(metadataProvider.getProviderInfo().getId(), "79335");
+      options.setCountry(CountryCode.US);
+      options.setArtworkType(MediaArtwork.MediaArtworkType.ALL);
+      Locale en = LocaleUtils.toLocale(MediaLanguages.en.name());
+      Locale tr = LocaleUtils.toLocale(MediaLanguages.tr.name());
+      Map<Locale, List<MediaEpisode>> episodes = metadataProvider.getEpisodeList(options, Arrays.asList(en, tr));
+
+      assertThat(episodes.keySet()).containsExactly(en, tr);
+      assertThat(episodes.get(en).size()).isEqualTo(126);
+      assertThat(episodes.get(tr).size()).isEqualTo(126);
+
+      // the texts of the language
+      MediaEpisode episode = episodes.get(en).get(9);
+      assertThat(episode.episode).isEqualTo(2);
+      assertThat(episode.season).isEqualTo(1);
+      assertThat(episode.title).isEqualTo("The Spelling Bee");
+      assertThat(episode.plot).startsWith("When what begins as a little competitive sabotage in a regional spelling");
+      assertThat(episode.firstAired).isEqualTo("2006-07-14");
+
+      // no turkish texts: merged from the fallback language, the numbering is the same
+      episode = episodes.get(tr).get(9);
+      assertThat(episode.episode).isEqualTo(2);
+      assertThat(episode.season).isEqualTo(1);
+      assertThat(episode.title).isEqualTo("So spannend kann ein Buchstabierwettbewerb sein!");
+      assertThat(episode.plot).startsWith("In Santa Barbara findet der alljährliche Buchstabier-Wettbewerb statt.");
+      assertThat(episode.firstAired).isEqualTo("2006-07-14");
+    }
+    catch (Exception e) {
+      e.printStackTrace();
+      fail(e.getMessage());
+    }
+  }
 }
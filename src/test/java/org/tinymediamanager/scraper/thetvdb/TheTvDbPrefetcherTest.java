@@ -0,0 +1,146 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TheTvDbPrefetcherTest {
+
+  @Before
+  public void setUp() {
+    TheTvDbConnectionCounter.reset();
+  }
+
+  @Test
+  public void testPrefetch() throws Exception {
+    TheTvDbPrefetcher prefetcher = new TheTvDbPrefetcher();
+
+    assertThat(prefetcher.prefetch("episodes/1/en", new Fetch("listing", 3))).isTrue();
+    // the same key is prefetched only once
+    assertThat(prefetcher.prefetch("episodes/1/en", new Fetch("listing", 3))).isFalse();
+    assertThat(prefetcher.prefetch("artwork/1/en", new Fetch("artwork", 2))).isTrue();
+    Thread.sleep(200);
+
+    // a finished prefetch is used
+    String listing = prefetcher.take("episodes/1/en");
+    assertThat(listing).isEqualTo("listing");
+    String missing = prefetcher.take("episodes/1/en");
+    assertThat(missing).isNull();
+    assertThat(prefetcher.getUsed()).isEqualTo(1);
+
+    // nobody takes the artwork: it is wasted after the max age
+    prefetcher.expire(System.currentTimeMillis() + TheTvDbPrefetcher.MAX_AGE + 1);
+    assertThat(prefetcher.getUnused()).isEqualTo(1);
+    assertThat(prefetcher.getWastedRequests()).isEqualTo(2);
+    assertThat(prefetcher.getAccuracy()).isEqualTo(0.5);
+    assertThat(prefetcher.getStatistics()).contains("1 used, 1 unused, accuracy 50%");
+  }
+
+  @Test
+  public void testQueuedPrefetchIsCancelled() throws Exception {
+    TheTvDbPrefetcher prefetcher = new TheTvDbPrefetcher();
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    // block the prefetch thread
+    prefetcher.prefetch("blocker", new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        latch.await();
+        return "done";
+      }
+    });
+    prefetcher.prefetch("queued", new Fetch("queued", 1));
+    Thread.sleep(100);
+
+    // the caller does not wait for a queued prefetch
+    String queued = prefetcher.take("queued");
+    assertThat(queued).isNull();
+    latch.countDown();
+    Thread.sleep(100);
+    String blocker = prefetcher.take("blocker");
+    assertThat(blocker).isEqualTo("done");
+    assertThat(prefetcher.getWastedRequests()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRunningPrefetchIsNotAwaited() throws Exception {
+    TheTvDbPrefetcher prefetcher = new TheTvDbPrefetcher();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch latch = new CountDownLatch(1);
+
+    prefetcher.prefetch("running", new Callable<String>() {
+      @Override
+      public String call() throws Exception {
+        started.countDown();
+        latch.await();
+        return "done";
+      }
+    });
+    started.await();
+
+    // the caller fetches the data itself at once
+    long start = System.currentTimeMillis();
+    String running = prefetcher.take("running");
+    assertThat(running).isNull();
+    assertThat(System.currentTimeMillis() - start).isLessThan(1000);
+
+    // the prefetch stays for a later call
+    latch.countDown();
+    Thread.sleep(100);
+    String finished = prefetcher.take("running");
+    assertThat(finished).isEqualTo("done");
+    assertThat(prefetcher.getUsed()).isEqualTo(1);
+  }
+
+  @Test
+  public void testTakeOverRace() throws Exception {
+    TheTvDbPrefetcher prefetcher = new TheTvDbPrefetcher();
+    int count = 500;
+    final boolean[] ran = new boolean[count];
+    boolean[] taken = new boolean[count];
+
+    // the caller takes every prefetch at once: racing with the start of it in the prefetch thread
+    for (int i = 0; i < count; i++) {
+      final int index = i;
+      prefetcher.prefetch("race" + i, new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          ran[index] = true;
+          return "done";
+        }
+      });
+      String result = prefetcher.take("race" + i);
+      taken[i] = result != null;
+    }
+    Thread.sleep(200);
+
+    // a prefetch which has been taken over by the caller never runs; one which has run can be taken
+    for (int i = 0; i < count; i++) {
+      String result = prefetcher.take("race" + i);
+      taken[i] |= result != null;
+      assertThat(taken[i]).isEqualTo(ran[i]);
+    }
+  }
+
+  private static class Fetch implements Callable<String> {
+    private final String result;
+    private final int    requests;
+
+    private Fetch(String result, int requests) {
+      this.result = result;
+      this.requests = requests;
+    }
+
+    @Override
+    public String call() throws Exception {
+      for (int i = 0; i < requests; i++) {
+        TheTvDbConnectionCounter.trackConnections();
+      }
+      return result;
+    }
+  }
+}
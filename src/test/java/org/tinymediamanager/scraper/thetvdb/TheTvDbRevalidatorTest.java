@@ -0,0 +1,47 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class TheTvDbRevalidatorTest {
+
+  @Test
+  public void testRevalidate() throws Exception {
+    TheTvDbRevalidator revalidator = new TheTvDbRevalidator();
+    final CountDownLatch release = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(2);
+    final AtomicInteger calls = new AtomicInteger();
+
+    Callable<Boolean> scrape = new Callable<Boolean>() {
+      @Override
+      public Boolean call() throws Exception {
+        release.await();
+        calls.incrementAndGet();
+        done.countDown();
+        return Boolean.TRUE;
+      }
+    };
+
+    // the same scrape is queued only once while it is pending
+    assertThat(revalidator.revalidate("show 1", scrape)).isTrue();
+    assertThat(revalidator.revalidate("show 1", scrape)).isFalse();
+    assertThat(revalidator.revalidate("show 2", scrape)).isTrue();
+    assertThat(revalidator.getPending()).isEqualTo(2);
+
+    release.countDown();
+    assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+    Thread.sleep(50);
+    assertThat(calls.get()).isEqualTo(2);
+    assertThat(revalidator.getPending()).isEqualTo(0);
+
+    // and again after it has been done
+    assertThat(revalidator.revalidate("show 1", scrape)).isTrue();
+    assertThat(revalidator.getStatistics()).contains("3 scheduled, 0 skipped, 0 failed");
+  }
+}
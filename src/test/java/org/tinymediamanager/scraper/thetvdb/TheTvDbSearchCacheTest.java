@@ -0,0 +1,53 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.tinymediamanager.scraper.MediaSearchResult;
+import org.tinymediamanager.scraper.entities.MediaType;
+
+public class TheTvDbSearchCacheTest {
+
+  @Test
+  public void testNormalize() {
+    assertThat(TheTvDbSearchCache.normalize("Drugs, Inc")).isEqualTo(TheTvDbSearchCache.normalize("Drugs Inc"));
+    assertThat(TheTvDbSearchCache.normalize("  Marvel's Agents of S.H.I.E.L.D. ")).isEqualTo("marvel s agents of s h i e l d");
+    assertThat(TheTvDbSearchCache.normalize("Café   Rüdesheim")).isEqualTo("cafe rudesheim");
+    assertThat(TheTvDbSearchCache.createKey("Drugs, Inc", "de", "en")).isNotEqualTo(TheTvDbSearchCache.createKey("Drugs, Inc", "en", "en"));
+  }
+
+  @Test
+  public void testCache() {
+    TheTvDbSearchCache cache = new TheTvDbSearchCache();
+    String key = TheTvDbSearchCache.createKey("Drugs, Inc", "en", "en");
+    assertThat(cache.get(key)).isNull();
+
+    List<MediaSearchResult> results = new ArrayList<>();
+    MediaSearchResult result = new MediaSearchResult("tvdb", MediaType.TV_SHOW);
+    result.setId("174501");
+    result.setTitle("Drugs, Inc.");
+    results.add(result);
+    cache.put(key, results);
+
+    // the nearly equal query is answered from the cache
+    assertThat(cache.get(TheTvDbSearchCache.createKey("drugs inc", "en", "en"))).hasSize(1);
+  }
+
+  @Test
+  public void testNegativeCache() throws Exception {
+    TheTvDbSearchCache cache = new TheTvDbSearchCache(60000, 50);
+    String key = TheTvDbSearchCache.createKey("no such show", "en", "en");
+    cache.put(key, Collections.<MediaSearchResult> emptyList());
+
+    // known to have no results
+    assertThat(cache.get(key)).isEmpty();
+
+    // the negative entry expires earlier
+    Thread.sleep(100);
+    assertThat(cache.get(key)).isNull();
+  }
+}
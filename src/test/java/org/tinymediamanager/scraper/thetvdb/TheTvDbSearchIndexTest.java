@@ -0,0 +1,103 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TheTvDbSearchIndexTest {
+  private static final List<String> EN    = Collections.singletonList("en");
+  private static final List<String> EN_DE = Arrays.asList("en", "de");
+
+  @Test
+  public void testSearch() {
+    TheTvDbSearchIndex index = new TheTvDbSearchIndex();
+    index.add(79335, "en", "Psych", Arrays.asList("Psych - Das Original"), 2006, null);
+    index.add(81189, "en", "Breaking Bad", null, 2008, "http://thetvdb.com/banners/posters/81189-1.jpg");
+    index.add(211941, "fr", "Un village français", null, 2009, null);
+    index.add(81049, "de", "Der Mondbär", null, 2007, null);
+
+    // normalized: case, accents and punctuation do not matter
+    assertThat(ids(index.search("breaking bad", EN))).containsExactly(81189);
+    assertThat(ids(index.search("Un Village Francais", Arrays.asList("fr")))).containsExactly(211941);
+
+    // small typos
+    assertThat(ids(index.search("Braking Bad", EN))).containsExactly(81189);
+
+    // aliases
+    assertThat(ids(index.search("Psych Das Original", EN))).containsExactly(79335);
+
+    // only the names in the given languages
+    assertThat(index.search("Der Mondbär", EN)).isEmpty();
+    assertThat(ids(index.search("Der Mondbar", EN_DE))).containsExactly(81049);
+
+    // unknown
+    assertThat(index.search("The Wire", EN)).isEmpty();
+    assertThat(index.search("", EN)).isEmpty();
+  }
+
+  @Test
+  public void testReplace() {
+    TheTvDbSearchIndex index = new TheTvDbSearchIndex();
+    index.add(1, "en", "Old Name", null, 2000, "poster.jpg");
+    index.add(1, "en", "New Name", null, 2000, null);
+
+    assertThat(index.size()).isEqualTo(1);
+    assertThat(index.search("Old Name", EN)).isEmpty();
+    TheTvDbSearchIndex.Entry entry = index.search("New Name", EN).get(0);
+    assertThat(entry.year).isEqualTo(2000);
+    // the known poster is kept
+    assertThat(entry.posterUrl).isEqualTo("poster.jpg");
+
+    // the same series in another language is another entry, but only one result
+    index.add(1, "de", "New Name", null, 2000, null);
+    assertThat(index.size()).isEqualTo(2);
+    assertThat(index.search("New Name", EN_DE)).hasSize(1);
+  }
+
+  @Test
+  public void testQueryTime() {
+    TheTvDbSearchIndex index = new TheTvDbSearchIndex();
+    String[] titles = new String[50000];
+    Random random = new Random(42);
+    for (int i = 0; i < titles.length; i++) {
+      // "The" + 1-3 made up words like a real title
+      StringBuilder title = new StringBuilder(i % 4 == 0 ? "The" : "");
+      for (int j = random.nextInt(3); j >= 0; j--) {
+        title.append(title.length() > 0 ? " " : "").append(word(random));
+      }
+      titles[i] = title.toString();
+      index.add(i, "en", titles[i], null, 1950 + i % 70, null);
+    }
+
+    int queries = 5000;
+    long start = System.nanoTime();
+    for (int i = 0; i < queries; i++) {
+      assertThat(index.search(titles[i * 7 % titles.length], EN)).isNotEmpty();
+    }
+    long micros = (System.nanoTime() - start) / queries / 1000;
+    assertThat(micros).isLessThan(1000);
+  }
+
+  private String word(Random random) {
+    String consonants = "bcdfghklmnprstvwz";
+    String vowels = "aeiou";
+    StringBuilder word = new StringBuilder();
+    for (int i = random.nextInt(3) + 2; i > 0; i--) {
+      word.append(consonants.charAt(random.nextInt(consonants.length()))).append(vowels.charAt(random.nextInt(vowels.length())));
+    }
+    return word.toString();
+  }
+
+  private int[] ids(List<TheTvDbSearchIndex.Entry> entries) {
+    int[] ids = new int[entries.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = entries.get(i).id;
+    }
+    return ids;
+  }
+}
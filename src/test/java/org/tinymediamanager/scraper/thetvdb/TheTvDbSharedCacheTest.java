@@ -0,0 +1,159 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.gson.reflect.TypeToken;
+import com.uwetrottmann.thetvdb.entities.Series;
+
+public class TheTvDbSharedCacheTest {
+  private static final long TTL = 60000;
+
+  @Test
+  public void testShared() throws Exception {
+    Path file = Files.createTempFile("tvdb-cache", ".bin");
+    TheTvDbSharedCache first = new TheTvDbSharedCache(file, 1024, 1024 * 1024);
+    TheTvDbSharedCache second = new TheTvDbSharedCache(file, 1024, 1024 * 1024);
+
+    Series show = new Series();
+    show.id = 79335;
+    show.seriesName = "Psych";
+    show.aliases = Arrays.asList("Psych - Das Original");
+    first.put("series/79335/en", show);
+
+    // the other instance sees the entry
+    Series cached = second.get("series/79335/en", TTL, Series.class);
+    assertThat(cached.id).isEqualTo(79335);
+    assertThat(cached.seriesName).isEqualTo("Psych");
+    assertThat(cached.aliases).containsExactly("Psych - Das Original");
+
+    // unknown keys
+    Series missing = second.get("series/79335/de", TTL, Series.class);
+    assertThat(missing).isNull();
+
+    // generic types and replaced entries
+    second.put("list/1", Arrays.asList("a", "b"));
+    second.put("list/1", Arrays.asList("c"));
+    List<String> list = first.get("list/1", TTL, new TypeToken<List<String>>() {
+    }.getType());
+    assertThat(list).containsExactly("c");
+
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    Path file = Files.createTempFile("tvdb-cache", ".bin");
+    TheTvDbSharedCache cache = new TheTvDbSharedCache(file, 1024, 1024 * 1024);
+
+    cache.put("actors/1", Arrays.asList("x"));
+    Thread.sleep(50);
+    List<String> expired = cache.get("actors/1", 10, new TypeToken<List<String>>() {
+    }.getType());
+    assertThat(expired).isNull();
+    cache.close();
+  }
+
+  @Test
+  public void testFull() throws Exception {
+    Path file = Files.createTempFile("tvdb-cache", ".bin");
+    TheTvDbSharedCache cache = new TheTvDbSharedCache(file, 64, 1024 * 1024);
+
+    // the index is filled up to 3/4; the next entry starts a new generation
+    for (int i = 0; i < 48; i++) {
+      cache.put("key/" + i, i);
+    }
+    assertThat(cache.size()).isEqualTo(48);
+    assertThat(cache.getGeneration()).isEqualTo(0);
+    Integer first = cache.get("key/0", TTL, Integer.class);
+    assertThat(first).isEqualTo(0);
+
+    cache.put("key/48", 48);
+    assertThat(cache.size()).isEqualTo(1);
+    assertThat(cache.getGeneration()).isEqualTo(1);
+    Integer dropped = cache.get("key/0", TTL, Integer.class);
+    assertThat(dropped).isNull();
+    Integer added = cache.get("key/48", TTL, Integer.class);
+    assertThat(added).isEqualTo(48);
+    cache.close();
+  }
+
+  @Test
+  public void testFileFull() throws Exception {
+    Path file = Files.createTempFile("tvdb-cache", ".bin");
+    // 32 bytes header + 1kB index + 3kB records
+    TheTvDbSharedCache cache = new TheTvDbSharedCache(file, 64, 32 + 1024 + 3072);
+    char[] chars = new char[1000];
+    Arrays.fill(chars, 'x');
+    String value = new String(chars);
+
+    for (int i = 0; i < 3; i++) {
+      cache.put("key/" + i, value);
+    }
+    assertThat(cache.getGeneration()).isEqualTo(1);
+    assertThat(cache.size()).isEqualTo(1);
+    String kept = cache.get("key/2", TTL, String.class);
+    assertThat(kept).isEqualTo(value);
+
+    // values bigger than the cache are not added
+    cache.put("key/big", new String(new char[4096]));
+    assertThat(cache.get("key/big", TTL, String.class)).isNull();
+    assertThat(cache.get("key/2", TTL, String.class)).isEqualTo(value);
+    cache.close();
+
+    // a full cache starts over after a restart too
+    cache = new TheTvDbSharedCache(file, 64, 32 + 1024 + 3072);
+    cache.put("key/3", value);
+    cache.put("key/4", value);
+    assertThat(cache.getGeneration()).isEqualTo(2);
+    assertThat(cache.get("key/4", TTL, String.class)).isEqualTo(value);
+
+    // other settings initialize the file again
+    cache.close();
+    cache = new TheTvDbSharedCache(file, 64, 32 + 1024 + 4096);
+    assertThat(cache.size()).isEqualTo(0);
+    assertThat(cache.getGeneration()).isEqualTo(0);
+    cache.close();
+  }
+
+  @Test
+  public void testMultipleProcesses() throws Exception {
+    Path file = Files.createTempFile("tvdb-cache", ".bin");
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+    // another process fills the cache
+    ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), TheTvDbSharedCacheTest.class.getName(),
+        file.toString());
+    pb.redirectErrorStream(true);
+    assertThat(pb.start().waitFor()).isEqualTo(0);
+
+    TheTvDbSharedCache cache = new TheTvDbSharedCache(file, 1024, 1024 * 1024);
+    for (int i = 0; i < 100; i++) {
+      Series show = cache.get("series/" + i + "/en", TTL, Series.class);
+      assertThat(show.seriesName).isEqualTo("Show " + i);
+    }
+    cache.close();
+  }
+
+  /**
+   * the child process: put 100 shows into the given cache file
+   */
+  public static void main(String[] args) throws Exception {
+    TheTvDbSharedCache cache = new TheTvDbSharedCache(new File(args[0]).toPath(), 1024, 1024 * 1024);
+    for (int i = 0; i < 100; i++) {
+      Series show = new Series();
+      show.id = i;
+      show.seriesName = "Show " + i;
+      cache.put("series/" + i + "/en", show);
+    }
+    cache.close();
+  }
+}
@@ -0,0 +1,109 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbConnectionCounter.Priority;
+import org.tinymediamanager.scraper.thetvdb.TheTvDbRateLimitBackend.SlotPolicy;
+
+public class TheTvDbSharedRateLimitTest {
+  private static final int  PROCESSES = 3;
+  private static final int  REQUESTS  = 10;
+  private static final int  LIMIT     = 5;
+  private static final long WINDOW    = 1000;
+
+  @Test
+  public void testSingleProcess() throws Exception {
+    Path file = Files.createTempFile("tvdb-ratelimit", ".bin");
+    TheTvDbSharedRateLimit first = new TheTvDbSharedRateLimit(file, LIMIT, WINDOW);
+    TheTvDbSharedRateLimit second = new TheTvDbSharedRateLimit(file, LIMIT, WINDOW);
+
+    // both instances see the slots of each other
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < LIMIT; i++) {
+      assertThat((i % 2 == 0 ? first : second).tryAcquire(Priority.BACKGROUND, now, new LimitPolicy())).isEqualTo(0);
+    }
+    assertThat(first.tryAcquire(Priority.INTERACTIVE, now, new LimitPolicy())).isGreaterThan(0);
+    assertThat(second.getCounts(now)[Priority.BACKGROUND.ordinal()]).isEqualTo(LIMIT);
+
+    // the slots are free again after the window
+    assertThat(second.tryAcquire(Priority.INTERACTIVE, now + WINDOW, new LimitPolicy())).isEqualTo(0);
+
+    first.close();
+    second.close();
+  }
+
+  @Test
+  public void testMultipleProcesses() throws Exception {
+    Path file = Files.createTempFile("tvdb-ratelimit", ".bin");
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+
+    List<Process> processes = new ArrayList<>();
+    for (int i = 0; i < PROCESSES; i++) {
+      ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), TheTvDbSharedRateLimitTest.class.getName(),
+          file.toString());
+      pb.redirectErrorStream(true);
+      processes.add(pb.start());
+    }
+
+    // collect the times of all connections of all processes
+    List<Long> times = new ArrayList<>();
+    for (Process process : processes) {
+      BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+      String line;
+      while ((line = reader.readLine()) != null) {
+        if (line.startsWith("acquired ")) {
+          times.add(Long.parseLong(line.substring(9)));
+        }
+      }
+      assertThat(process.waitFor()).isEqualTo(0);
+    }
+    assertThat(times).hasSize(PROCESSES * REQUESTS);
+
+    // never more than LIMIT connections within one window - over all processes
+    Collections.sort(times);
+    for (int i = 0; i + LIMIT < times.size(); i++) {
+      assertThat(times.get(i + LIMIT) - times.get(i)).isGreaterThanOrEqualTo(WINDOW);
+    }
+  }
+
+  /**
+   * the child process: take REQUESTS slots and print their times
+   */
+  public static void main(String[] args) throws Exception {
+    TheTvDbSharedRateLimit rateLimit = new TheTvDbSharedRateLimit(new File(args[0]).toPath(), LIMIT, WINDOW);
+    LimitPolicy policy = new LimitPolicy();
+    for (int i = 0; i < REQUESTS; i++) {
+      while (true) {
+        long now = System.currentTimeMillis();
+        long waitTime = rateLimit.tryAcquire(Priority.BACKGROUND, now, policy);
+        if (waitTime <= 0) {
+          System.out.println("acquired " + now);
+          break;
+        }
+        Thread.sleep(waitTime);
+      }
+    }
+    rateLimit.close();
+  }
+
+  private static class LimitPolicy implements SlotPolicy {
+    @Override
+    public long getWaitTime(Priority priority, int[] counts, long nextExpiry, long now) {
+      int total = 0;
+      for (int count : counts) {
+        total += count;
+      }
+      return total < LIMIT ? 0 : Math.max(1, nextExpiry - now);
+    }
+  }
+}
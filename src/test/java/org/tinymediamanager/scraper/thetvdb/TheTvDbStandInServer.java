@@ -0,0 +1,228 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * local stand-in for the tvdb API with generated data: the shows have the ids FIRST_ID..FIRST_ID + shows - 1 and are named "Stand-in Show <n>";
+ * every third show has more than one page of episodes
+ */
+public class TheTvDbStandInServer {
+  public static final int       FIRST_ID = 70000;
+  public static final String    TITLE    = "Stand-in Show ";
+
+  private final int             shows;
+  private final long            latency;
+  private final AtomicLong      requests = new AtomicLong();
+  private final ExecutorService executor = Executors.newFixedThreadPool(32);
+  private HttpServer            server;
+
+  /**
+   * @param shows
+   *          the count of shows
+   * @param latency
+   *          the time (ms) every response is delayed
+   */
+  public TheTvDbStandInServer(int shows, long latency) {
+    this.shows = shows;
+    this.latency = latency;
+  }
+
+  public void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setExecutor(executor);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+          Thread.sleep(latency);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+
+        String body = "HEAD".equals(exchange.getRequestMethod()) ? "" : respond(exchange.getRequestURI().getPath(),
+            parseQuery(exchange.getRequestURI().getRawQuery()));
+        if (body == null) {
+          exchange.sendResponseHeaders(404, -1);
+        }
+        else if (body.isEmpty()) {
+          exchange.sendResponseHeaders(200, -1);
+        }
+        else {
+          byte[] bytes = body.getBytes("UTF-8");
+          exchange.getResponseHeaders().add("Content-Type", "application/json");
+          exchange.sendResponseHeaders(200, bytes.length);
+          OutputStream os = exchange.getResponseBody();
+          os.write(bytes);
+          os.close();
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+  }
+
+  public void stop() {
+    server.stop(0);
+    executor.shutdownNow();
+  }
+
+  /**
+   * the base url of the API (ending with a slash)
+   */
+  public String getUrl() {
+    return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+  }
+
+  /**
+   * the count of requests served so far
+   */
+  public long getRequests() {
+    return requests.get();
+  }
+
+  /**
+   * the count of episodes of the given show
+   */
+  public static int getEpisodeCount(int id) {
+    return id % 3 == 0 ? 150 : 24;
+  }
+
+  private String respond(String path, Map<String, String> query) {
+    String[] segments = path.substring(1).split("/");
+    if ("search".equals(segments[0]) && segments.length == 2) {
+      return search(query.get("name"));
+    }
+    if ("episodes".equals(segments[0]) && segments.length == 2) {
+      int episodeId = Integer.parseInt(segments[1]);
+      int id = episodeId / 1000;
+      return isShow(id) && episodeId % 1000 < getEpisodeCount(id) ? "{\"data\":" + episode(id, episodeId % 1000) + "}" : null;
+    }
+    if (!"series".equals(segments[0]) || segments.length < 2) {
+      return null;
+    }
+
+    int id = Integer.parseInt(segments[1]);
+    if (!isShow(id)) {
+      return null;
+    }
+    String resource = segments.length == 2 ? "" : segments[2] + (segments.length > 3 ? "/" + segments[3] : "");
+    switch (resource) {
+      case "":
+        return "{\"data\":" + series(id) + "}";
+
+      case "actors":
+        StringBuilder actors = new StringBuilder();
+        for (int i = 0; i < 10; i++) {
+          actors.append(i == 0 ? "" : ",").append("{\"id\":").append(id * 100 + i).append(",\"seriesId\":").append(id)
+              .append(",\"name\":\"Actor ").append(i).append("\",\"role\":\"Role ").append(i).append("\",\"sortOrder\":").append(i)
+              .append(",\"image\":\"actors/").append(id * 100 + i).append(".jpg\"}");
+        }
+        return "{\"data\":[" + actors + "]}";
+
+      case "episodes":
+        return episodes(id, query.containsKey("page") ? Integer.parseInt(query.get("page")) : 1);
+
+      case "episodes/query":
+        int season = query.containsKey("airedSeason") ? Integer.parseInt(query.get("airedSeason")) : -1;
+        int episode = query.containsKey("airedEpisode") ? Integer.parseInt(query.get("airedEpisode")) : -1;
+        int index = (season - 1) * 12 + episode - 1;
+        if (season < 1 || episode < 1 || episode > 12 || index >= getEpisodeCount(id)) {
+          return null;
+        }
+        return "{\"links\":{\"first\":1,\"last\":1},\"data\":[" + episode(id, index) + "]}";
+
+      case "images":
+        return "{\"data\":[{\"keyType\":\"fanart\",\"resolution\":[\"1920x1080\"],\"subKey\":[]},"
+            + "{\"keyType\":\"poster\",\"resolution\":[\"680x1000\"],\"subKey\":[]},"
+            + "{\"keyType\":\"series\",\"resolution\":[],\"subKey\":[\"graphical\"]}]}";
+
+      case "images/query":
+        String keyType = query.get("keyType");
+        StringBuilder images = new StringBuilder();
+        for (int i = 0; i < 5; i++) {
+          images.append(i == 0 ? "" : ",").append("{\"id\":").append(id * 10 + i).append(",\"keyType\":\"").append(keyType)
+              .append("\",\"subKey\":\"\",\"fileName\":\"").append(keyType).append("s/").append(id).append("-").append(i)
+              .append(".jpg\",\"resolution\":\"680x1000\",\"ratingsInfo\":{\"average\":").append(5 + i).append(",\"count\":").append(i)
+              .append("},\"thumbnail\":\"_cache/").append(keyType).append("s/").append(id).append("-").append(i).append(".jpg\"}");
+        }
+        return "{\"data\":[" + images + "]}";
+
+      default:
+        return null;
+    }
+  }
+
+  private boolean isShow(int id) {
+    return id >= FIRST_ID && id < FIRST_ID + shows;
+  }
+
+  private String search(String name) {
+    if (name == null || !name.startsWith(TITLE)) {
+      return null;
+    }
+    int id = FIRST_ID + Integer.parseInt(name.substring(TITLE.length()).trim());
+    return isShow(id) ? "{\"data\":[" + series(id) + "]}" : null;
+  }
+
+  private String series(int id) {
+    return "{\"id\":" + id + ",\"seriesName\":\"" + TITLE + (id - FIRST_ID) + "\",\"aliases\":[],\"banner\":\"graphical/" + id
+        + "-g.jpg\",\"status\":\"Ended\",\"firstAired\":\"" + (2000 + id % 15) + "-01-10\",\"network\":\"Network " + id % 7
+        + "\",\"runtime\":\"45\",\"genre\":[\"Drama\",\"Comedy\"],\"overview\":\"The overview of show " + id
+        + "\",\"lastUpdated\":1460000000,\"rating\":\"TV-14\",\"imdbId\":\"tt0" + id + "\",\"siteRating\":8.1,\"siteRatingCount\":42}";
+  }
+
+  private String episodes(int id, int page) {
+    int count = getEpisodeCount(id);
+    int last = (count + 99) / 100;
+    if (page < 1 || page > last) {
+      return null;
+    }
+    StringBuilder data = new StringBuilder();
+    for (int i = (page - 1) * 100; i < Math.min(count, page * 100); i++) {
+      data.append(data.length() == 0 ? "" : ",").append(episode(id, i));
+    }
+    return "{\"links\":{\"first\":1,\"last\":" + last + ",\"next\":" + (page < last ? String.valueOf(page + 1) : "null") + "},\"data\":[" + data
+        + "]}";
+  }
+
+  private String episode(int id, int index) {
+    // 12 episodes per season, one per week
+    int season = index / 12 + 1;
+    int episode = index % 12 + 1;
+    int day = index * 7;
+    String aired = String.format("%04d-%02d-%02d", 2000 + id % 15 + day / 336, day / 28 % 12 + 1, day % 28 + 1);
+    return "{\"id\":" + (id * 1000 + index) + ",\"airedSeason\":" + season + ",\"airedEpisodeNumber\":" + episode
+        + ",\"dvdSeason\":null,\"dvdEpisodeNumber\":null,\"absoluteNumber\":" + (index + 1) + ",\"firstAired\":\"" + aired
+        + "\",\"episodeName\":\"Episode " + (index + 1) + "\",\"overview\":\"The overview of episode " + (index + 1)
+        + "\",\"directors\":[\"Director\"],\"writers\":[\"Writer\"],\"guestStars\":[],\"filename\":\"episodes/" + id + "/" + (id * 1000 + index)
+        + ".jpg\",\"siteRating\":7.5,\"siteRatingCount\":3}";
+  }
+
+  private static Map<String, String> parseQuery(String query) throws IOException {
+    Map<String, String> params = new HashMap<>();
+    if (query == null) {
+      return params;
+    }
+    for (String param : query.split("&")) {
+      int index = param.indexOf('=');
+      if (index > 0) {
+        params.put(param.substring(0, index), URLDecoder.decode(param.substring(index + 1), "UTF-8"));
+      }
+    }
+    return params;
+  }
+}
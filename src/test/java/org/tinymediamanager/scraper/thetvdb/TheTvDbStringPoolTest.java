@@ -0,0 +1,85 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TheTvDbStringPoolTest {
+  private static final int      SHOWS    = 10000;
+  private static final int      CAST     = 15;
+  private static final String[] NETWORKS = { "ABC", "NBC", "CBS", "FOX", "HBO", "USA Network", "ZDF", "Das Erste", "BBC One", "Netflix" };
+  private static final String[] STATUS   = { "Continuing", "Ended" };
+
+  @Before
+  public void setUp() {
+    TheTvDbStringPool.clear();
+  }
+
+  @Test
+  public void testIntern() {
+    String a = new String("Continuing");
+    String b = new String("Continuing");
+
+    assertThat(TheTvDbStringPool.intern(a)).isSameAs(a);
+    assertThat(TheTvDbStringPool.intern(b)).isSameAs(a);
+    assertThat(TheTvDbStringPool.intern(null)).isNull();
+    assertThat(TheTvDbStringPool.intern("")).isEmpty();
+    assertThat(TheTvDbStringPool.size()).isEqualTo(1);
+  }
+
+  @Test
+  public void testLibraryScrape() {
+    // the scrape result (status, network, cast names) of 10k shows
+    long plainBytes = 0;
+    String[][] shows = new String[SHOWS][];
+    for (int i = 0; i < SHOWS; i++) {
+      String[] show = new String[CAST + 2];
+      show[0] = intern(STATUS[i % STATUS.length]);
+      show[1] = intern(NETWORKS[i % NETWORKS.length]);
+      for (int j = 0; j < CAST; j++) {
+        // 3000 distinct people over the whole library
+        show[j + 2] = intern("Actor Name " + ((i * 7 + j * 13) % 3000));
+      }
+      for (String value : show) {
+        // the string object and char array header + 2 bytes per char, like the estimate of the pool
+        plainBytes += 40 + value.length() * 2;
+      }
+      shows[i] = show;
+    }
+
+    // every distinct value is kept once, and every show refers to that instance
+    assertThat(TheTvDbStringPool.size()).isEqualTo(STATUS.length + NETWORKS.length + 3000);
+    assertThat(shows[SHOWS - 1][0]).isSameAs(shows[1][0]);
+    assertThat(shows[SHOWS - 1][1]).isSameAs(shows[9][1]);
+    assertThat(shows[0][2]).isSameAs(shows[3000][2]);
+    long misses = TheTvDbStringPool.size();
+    assertThat(TheTvDbStringPool.getStatistics()).contains((SHOWS * (CAST + 2) - misses) + " hits, " + misses + " misses");
+
+    // 3012 pooled strings instead of 170000 fresh ones: far less than the half of the plain strings
+    assertThat(TheTvDbStringPool.estimateMemoryUsage()).isLessThan(plainBytes / 2);
+  }
+
+  @Test
+  public void testEviction() {
+    String hot = TheTvDbStringPool.intern(new String("Continuing"));
+    TheTvDbStringPool.intern(new String("Continuing"));
+    for (int i = 0; i < TheTvDbStringPool.MAX_SIZE; i++) {
+      TheTvDbStringPool.intern("Overview " + i);
+    }
+
+    // the pool has been full: the values which have not been used again are evicted, the used one is still pooled
+    assertThat(TheTvDbStringPool.size()).isLessThan(TheTvDbStringPool.MAX_SIZE / 4);
+    assertThat(TheTvDbStringPool.intern(new String("Continuing"))).isSameAs(hot);
+    assertThat(TheTvDbStringPool.getStatistics()).contains(TheTvDbStringPool.MAX_SIZE - 1 + " evicted");
+
+    // the evicted values are pooled again
+    String overview = TheTvDbStringPool.intern(new String("Overview 1"));
+    assertThat(TheTvDbStringPool.intern(new String("Overview 1"))).isSameAs(overview);
+  }
+
+  private String intern(String value) {
+    // create a fresh instance like the json decoder does
+    return TheTvDbStringPool.intern(new String(value.toCharArray()));
+  }
+}
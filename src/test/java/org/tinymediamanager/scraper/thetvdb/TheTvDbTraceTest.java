@@ -0,0 +1,153 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TheTvDbTraceTest {
+
+  @After
+  public void tearDown() {
+    TheTvDbTrace.leave();
+  }
+
+  @Test
+  public void testNesting() {
+    TheTvDbTrace.Span root = TheTvDbTrace.startTrace("getMetadata", 0, 100000, "");
+    TheTvDbTrace.Span fetch = TheTvDbTrace.start("fetch series").attribute("id", 79349);
+    TheTvDbTrace.start("rate limit").end();
+    TheTvDbTrace.start("tvdb GET /series/79349").attribute("status", 200).end();
+    fetch.end();
+    TheTvDbTrace.start("map series").end();
+
+    assertThat(TheTvDbTrace.current()).isSameAs(root);
+    root.end();
+    assertThat(TheTvDbTrace.current()).isNull();
+
+    assertThat(root.getDuration()).isGreaterThanOrEqualTo(0);
+    assertThat(root.getChildren()).hasSize(2);
+    assertThat(root.getChildren().get(0).getName()).isEqualTo("fetch series");
+    assertThat(root.getChildren().get(0).getAttribute("id")).isEqualTo(79349);
+    assertThat(root.getChildren().get(0).getChildren()).hasSize(2);
+    assertThat(root.getChildren().get(1).getName()).isEqualTo("map series");
+    assertThat(root.toTree()).contains("\n    tvdb GET /series/79349 ");
+
+    // ending twice does not change anything
+    long duration = root.getDuration();
+    root.end();
+    assertThat(root.getDuration()).isEqualTo(duration);
+  }
+
+  @Test
+  public void testNotTraced() {
+    TheTvDbTrace.Span root = TheTvDbTrace.startTrace("search", 0, 0, "");
+    TheTvDbTrace.Span span = TheTvDbTrace.start("search series").attribute("name", "Dexter");
+    span.end();
+    root.end();
+
+    // everything is the shared no-op span
+    assertThat(span).isSameAs(root);
+    assertThat(span.getAttribute("name")).isNull();
+    assertThat(TheTvDbTrace.current()).isNull();
+  }
+
+  @Test
+  public void testSampledToFile() throws Exception {
+    Path file = Files.createTempFile("tvdb-trace", ".json");
+    try {
+      for (int i = 0; i < 3; i++) {
+        TheTvDbTrace.Span root = TheTvDbTrace.startTrace("getArtwork", 1, 0, file.toString()).attribute("options", "id " + i);
+        TheTvDbTrace.start("fetch images").attribute("type", "poster").end();
+        root.end();
+      }
+
+      List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+      assertThat(lines).hasSize(3);
+      assertThat(lines.get(2)).startsWith("{\"name\":\"getArtwork\"").contains("\"options\":\"id 2\"").contains("\"name\":\"fetch images\"");
+      // the links to the parents are not exported
+      assertThat(lines.get(0)).doesNotContain("parent").doesNotContain("startNanos");
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testSlowThreshold() throws Exception {
+    Path file = Files.createTempFile("tvdb-trace", ".json");
+    try {
+      // fast: recorded but not exported
+      TheTvDbTrace.Span fast = TheTvDbTrace.startTrace("fast", 0, 50, file.toString());
+      fast.end();
+
+      TheTvDbTrace.Span slow = TheTvDbTrace.startTrace("slow", 0, 50, file.toString());
+      TheTvDbTrace.Span wait = TheTvDbTrace.start("shared cache lock");
+      Thread.sleep(60);
+      wait.end();
+      slow.end();
+
+      List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+      assertThat(lines).hasSize(1);
+      assertThat(lines.get(0)).startsWith("{\"name\":\"slow\"").contains("shared cache lock");
+    }
+    finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+  @Test
+  public void testWorkerJoin() throws Exception {
+    final TheTvDbTrace.Span root = TheTvDbTrace.startTrace("getEpisodeList", 1, 0, "");
+    Thread worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        TheTvDbTrace.join(root);
+        try {
+          TheTvDbTrace.start("fetch episode listing").attribute("language", "de").end();
+        }
+        finally {
+          TheTvDbTrace.leave();
+        }
+      }
+    }, "tvdb-worker");
+    worker.start();
+    worker.join();
+    root.end();
+
+    assertThat(root.getChildren()).hasSize(1);
+    assertThat(root.getChildren().get(0).getName()).isEqualTo("fetch episode listing");
+    assertThat(root.toTree()).contains("[tvdb-worker]");
+  }
+
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    final TheTvDbTrace.Span root = TheTvDbTrace.startTrace("getMetadata", 1, 0, "");
+    List<Thread> workers = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      Thread worker = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          for (int j = 0; j < 1000; j++) {
+            root.add("calls saved", 1).attribute("worker", Thread.currentThread().getName());
+          }
+        }
+      });
+      workers.add(worker);
+      worker.start();
+    }
+    for (Thread worker : workers) {
+      worker.join();
+    }
+    root.end();
+
+    // no count is lost
+    assertThat(root.getAttribute("calls saved")).isEqualTo(4000L);
+  }
+}
@@ -0,0 +1,179 @@
+package org.tinymediamanager.scraper.thetvdb;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.tinymediamanager.scraper.http.TmmHttpClient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+public class TheTvDbTransportTest {
+  private static final int BURST       = 50;
+  private static final int THREADS     = 5;
+  // more hosts than idle connections are kept by the default connection pool (5)
+  private static final int OTHER_HOSTS = 6;
+
+  private HttpServer       server;
+  private String           url;
+  private Set<Integer>     clientPorts;
+  private List<HttpServer> otherServers;
+
+  @Before
+  public void setUp() throws Exception {
+    // local stand-in for the tvdb API; remembers the client ports to count the opened connections
+    clientPorts = Collections.synchronizedSet(new HashSet<Integer>());
+    server = startServer(clientPorts);
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+
+    // the hosts of other scrapers
+    otherServers = new ArrayList<>();
+    for (int i = 0; i < OTHER_HOSTS; i++) {
+      otherServers.add(startServer(Collections.synchronizedSet(new HashSet<Integer>())));
+    }
+  }
+
+  @After
+  public void tearDown() {
+    server.stop(0);
+    for (HttpServer otherServer : otherServers) {
+      otherServer.stop(0);
+    }
+  }
+
+  private HttpServer startServer(final Set<Integer> ports) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", new HttpHandler() {
+      @Override
+      public void handle(HttpExchange exchange) throws IOException {
+        ports.add(exchange.getRemoteAddress().getPort());
+        byte[] body = "{\"data\":[]}".getBytes("UTF-8");
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+          exchange.sendResponseHeaders(200, -1);
+        }
+        else {
+          exchange.sendResponseHeaders(200, body.length);
+          OutputStream os = exchange.getResponseBody();
+          os.write(body);
+          os.close();
+        }
+        exchange.close();
+      }
+    });
+    server.start();
+    return server;
+  }
+
+  @Test
+  public void testBurstWithTransportProfile() throws Exception {
+    // the previous client: the defaults of TmmHttpClient (the connection pool is shared with all other scrapers)
+    OkHttpClient previous = TmmHttpClient.newBuilder().build();
+    long previousFirst = request(previous, 0);
+    long previousBurst = burst(previous, 1, BURST);
+    assertThat(clientPorts).hasSize(1);
+
+    // other scrapers fill the shared pool: the idle tvdb connection is evicted and the next request has to connect again
+    useOtherHosts();
+    long previousAfterOthers = request(previous, BURST + 1);
+    assertThat(clientPorts).hasSize(2);
+
+    // tvdb transport profile: the pre-warmed connection of the own pool is used for the whole burst and survives the other scrapers
+    clientPorts.clear();
+    OkHttpClient client = TheTvDbTransport.newBuilder().build();
+    TheTvDbTransport.prewarm(client, url);
+    long first = request(client, 0);
+    long burst = burst(client, 1, BURST);
+    useOtherHosts();
+    long afterOthers = request(client, BURST + 1);
+    assertThat(clientPorts).hasSize(1);
+
+    System.out.println(String.format("transport profile vs TmmHttpClient defaults (us): first request %d vs %d, burst %d vs %d per request, "
+        + "after other scrapers %d vs %d", first / 1000, previousFirst / 1000, burst / BURST / 1000, previousBurst / BURST / 1000,
+        afterOthers / 1000, previousAfterOthers / 1000));
+  }
+
+  @Test
+  public void testParallelBurstWithTransportProfile() throws Exception {
+    // the stand-in speaks HTTP/1.1 only: parallel requests need own connections, but not more than there are parallel callers
+    final OkHttpClient client = TheTvDbTransport.newBuilder().build();
+    List<Thread> threads = new ArrayList<>();
+    final AtomicInteger errors = new AtomicInteger();
+    for (int i = 0; i < THREADS; i++) {
+      final int offset = i * BURST;
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            burst(client, offset, BURST);
+          }
+          catch (Exception e) {
+            errors.incrementAndGet();
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertThat(errors.get()).isEqualTo(0);
+    assertThat(clientPorts.size()).isBetween(1, THREADS);
+  }
+
+  /**
+   * one request to the stand-in
+   *
+   * @return the duration in ns
+   */
+  private long request(OkHttpClient client, int id) throws Exception {
+    long start = System.nanoTime();
+    Response response = client.newCall(new Request.Builder().url(url + "series/" + id).build()).execute();
+    response.body().string();
+    return System.nanoTime() - start;
+  }
+
+  /**
+   * a burst of requests to the stand-in
+   *
+   * @return the duration in ns
+   */
+  private long burst(OkHttpClient client, int offset, int count) throws Exception {
+    long duration = 0;
+    for (int i = offset; i < offset + count; i++) {
+      duration += request(client, i);
+    }
+    return duration;
+  }
+
+  /**
+   * requests of the other scrapers to their hosts through the shared client of TmmHttpClient
+   */
+  private void useOtherHosts() throws Exception {
+    for (HttpServer otherServer : otherServers) {
+      Response response = TmmHttpClient.getHttpClient().newCall(
+          new Request.Builder().url("http://127.0.0.1:" + otherServer.getAddress().getPort() + "/").build()).execute();
+      response.body().string();
+    }
+    // the pool evicts the surplus idle connections in the background
+    Thread.sleep(200);
+  }
+}